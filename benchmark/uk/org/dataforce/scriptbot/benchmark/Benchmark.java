@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single benchmark, measured as operations per second.
+ *
+ * BenchmarkRunner calls setUp() once, then run() repeatedly while timing it,
+ * then tearDown().
+ */
+public abstract class Benchmark {
+    /** Name of this benchmark. */
+    private final String name;
+
+    /** Parameters this benchmark was created with. */
+    private final Map<String, String> params;
+
+    /**
+     * Create a new Benchmark.
+     *
+     * @param name Name of this benchmark.
+     */
+    protected Benchmark(final String name) {
+        this(name, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Create a new Benchmark with a single parameter.
+     *
+     * @param name Name of this benchmark.
+     * @param param Name of the parameter.
+     * @param value Value of the parameter.
+     */
+    protected Benchmark(final String name, final String param, final String value) {
+        this(name, Collections.singletonMap(param, value));
+    }
+
+    /**
+     * Create a new Benchmark.
+     *
+     * @param name Name of this benchmark.
+     * @param params Parameters this benchmark was created with.
+     */
+    protected Benchmark(final String name, final Map<String, String> params) {
+        this.name = name;
+        this.params = Collections.unmodifiableMap(new LinkedHashMap<String, String>(params));
+    }
+
+    /**
+     * Get the name of this benchmark.
+     *
+     * @return Name of this benchmark.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the parameters this benchmark was created with.
+     *
+     * @return Map of parameter name to value.
+     */
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Get the full name of this benchmark, including its parameters.
+     *
+     * @return Name and parameters.
+     */
+    public String getFullName() {
+        return params.isEmpty() ? name : name + params;
+    }
+
+    /**
+     * Prepare to run this benchmark.
+     *
+     * @throws Exception if the benchmark can not be prepared.
+     */
+    public void setUp() throws Exception { }
+
+    /**
+     * Run a single operation.
+     *
+     * @return Result of the operation, this is consumed by the runner so
+     *         that the JIT can not remove the work that produced it.
+     * @throws Exception if the operation fails.
+     */
+    public abstract Object run() throws Exception;
+
+    /**
+     * Clean up after this benchmark.
+     *
+     * @throws Exception if the benchmark can not be cleaned up.
+     */
+    public void tearDown() throws Exception { }
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.LogLevel;
+import uk.org.dataforce.scriptbot.config.ConfigFileBenchmarks;
+
+/**
+ * Runs the benchmarks and writes the results as JSON.
+ *
+ * The JSON uses the same layout as JMH's JSON output, so results can be
+ * compared between runs with the usual tools.
+ *
+ * Usage: BenchmarkRunner [-wi warmups] [-i iterations] [-t millis]
+ *                        [-o results.json] [-l] [pattern...]
+ */
+public class BenchmarkRunner {
+    /** z value used for the 99.9% confidence interval of scores. */
+    private static final double CONFIDENCE_Z = 3.291;
+
+    /** Number of warmup iterations. */
+    private int warmupIterations = 5;
+
+    /** Number of measurement iterations. */
+    private int measurementIterations = 10;
+
+    /** How long each iteration runs for, in milliseconds. */
+    private long iterationMillis = 1000;
+
+    /** File to write JSON results to, or null. */
+    private File output;
+
+    /** Only list the benchmarks, don't run them? */
+    private boolean listOnly;
+
+    /** Patterns that benchmarks must match one of to be run. */
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+    /**
+     * Stream to report progress to, kept in case a benchmark replaces
+     * System.out.
+     */
+    private static final PrintStream out = System.out;
+
+    /** Results of operations, kept so that the JIT can not remove them. */
+    private static volatile Object sink;
+
+    /** Name JMH uses for the allocation per operation metric. */
+    private static final String ALLOCATION_METRIC = "\u00b7gc.alloc.rate.norm";
+
+    /** Bytes allocated per operation in the last throughput iteration. */
+    private double lastAllocation = Double.NaN;
+
+    /**
+     * The result of running a single benchmark.
+     */
+    private static class Result {
+        /** Benchmark that was run. */
+        private final Benchmark benchmark;
+        /** Score from each measurement iteration. */
+        private final double[] scores;
+        /** Bytes allocated per operation in each measurement iteration. */
+        private final double[] allocations;
+
+        /**
+         * Create a new Result.
+         *
+         * @param benchmark Benchmark that was run.
+         * @param scores Score from each measurement iteration.
+         * @param allocations Bytes allocated per operation in each
+         *        measurement iteration.
+         */
+        private Result(final Benchmark benchmark, final double[] scores, final double[] allocations) {
+            this.benchmark = benchmark;
+            this.scores = scores;
+            this.allocations = allocations;
+        }
+
+        /**
+         * Is this the result of a footprint benchmark?
+         *
+         * @return True if this is a footprint result.
+         */
+        private boolean isFootprint() {
+            return benchmark instanceof FootprintBenchmark;
+        }
+
+        /**
+         * Is the allocation per operation known for this result?
+         *
+         * @return True if allocations were measured.
+         */
+        private boolean hasAllocations() {
+            return !isFootprint() && !Double.isNaN(mean(allocations));
+        }
+    }
+
+    /**
+     * Get the mean of the given values.
+     *
+     * @param values Values to average.
+     * @return Mean value.
+     */
+    private static double mean(final double[] values) {
+        double total = 0;
+        for (final double value : values) { total += value; }
+        return total / values.length;
+    }
+
+    /**
+     * Get the half-width of the 99.9% confidence interval of the mean of the
+     * given values.
+     *
+     * @param values Values to check.
+     * @return Error of the mean.
+     */
+    private static double error(final double[] values) {
+        if (values.length < 2) { return Double.NaN; }
+        final double mean = mean(values);
+        double squares = 0;
+        for (final double value : values) { squares += (value - mean) * (value - mean); }
+        return CONFIDENCE_Z * Math.sqrt(squares / (values.length - 1)) / Math.sqrt(values.length);
+    }
+
+    /**
+     * Get all the benchmarks we know about.
+     *
+     * @return List of benchmarks.
+     * @throws Exception if a benchmark can not be created.
+     */
+    private static List<Benchmark> getBenchmarks() throws Exception {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+        result.addAll(ScriptHandlerBenchmarks.create());
+        result.addAll(RhinoBenchmarks.create());
+        result.addAll(ConfigFileBenchmarks.create());
+        result.addAll(LoggerBenchmarks.create());
+        result.addAll(StoreBenchmarks.create());
+        return result;
+    }
+
+    /**
+     * Parse the command line arguments.
+     *
+     * @param args Arguments to parse.
+     */
+    private void parseArgs(final String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (arg.equals("-wi") && i + 1 < args.length) {
+                warmupIterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-i") && i + 1 < args.length) {
+                measurementIterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (arg.equals("-t") && i + 1 < args.length) {
+                iterationMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("-o") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else if (arg.equals("-l")) {
+                listOnly = true;
+            } else if (!arg.isEmpty()) {
+                patterns.add(Pattern.compile(arg));
+            }
+        }
+    }
+
+    /**
+     * Check if the given benchmark should be run.
+     *
+     * @param benchmark Benchmark to check.
+     * @return True if the benchmark matches our patterns.
+     */
+    private boolean isWanted(final Benchmark benchmark) {
+        if (patterns.isEmpty()) { return true; }
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(benchmark.getFullName()).find()) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Run all the wanted benchmarks.
+     *
+     * @return Results of the benchmarks.
+     * @throws Exception if a benchmark fails.
+     */
+    private List<Result> runAll() throws Exception {
+        final List<Result> results = new ArrayList<Result>();
+        for (final Benchmark benchmark : getBenchmarks()) {
+            if (!isWanted(benchmark)) { continue; }
+            if (listOnly) {
+                out.println(benchmark.getFullName());
+                continue;
+            }
+
+            out.println("# Benchmark: " + benchmark.getFullName());
+            benchmark.setUp();
+            try {
+                results.add(run(benchmark));
+            } finally {
+                benchmark.tearDown();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run a single benchmark.
+     *
+     * @param benchmark Benchmark to run.
+     * @return Result of the benchmark.
+     * @throws Exception if the benchmark fails.
+     */
+    private Result run(final Benchmark benchmark) throws Exception {
+        final boolean footprint = benchmark instanceof FootprintBenchmark;
+        for (int i = 0; i < warmupIterations; i++) {
+            final double score = footprint ? measureFootprint((FootprintBenchmark)benchmark) : measureThroughput(benchmark);
+            out.println(String.format("Warmup %d: %s", i + 1, format(score, footprint)));
+        }
+
+        final double[] scores = new double[measurementIterations];
+        final double[] allocations = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = footprint ? measureFootprint((FootprintBenchmark)benchmark) : measureThroughput(benchmark);
+            allocations[i] = footprint ? Double.NaN : lastAllocation;
+            out.println(String.format("Iteration %d: %s", i + 1, format(scores[i], footprint)));
+        }
+
+        final Result result = new Result(benchmark, scores, allocations);
+        out.println(String.format("Result: %s +- %.3f", format(mean(scores), footprint), error(scores)));
+        if (result.hasAllocations()) {
+            out.println(String.format("Allocated: %.1f bytes/op", mean(allocations)));
+        }
+        out.println();
+        return result;
+    }
+
+    /**
+     * Format a score for display.
+     *
+     * @param score Score to format.
+     * @param footprint Is this a footprint score?
+     * @return Formatted score.
+     */
+    private static String format(final double score, final boolean footprint) {
+        return footprint ? String.format("%.1f bytes/op", score) : String.format("%.3f ops/s", score);
+    }
+
+    /**
+     * Run a benchmark for one iteration and measure how many operations per
+     * second it managed.
+     *
+     * Operations are run in batches between checks of the clock, the batch
+     * size grows until a batch takes around 1% of the iteration. The bytes
+     * allocated per operation are left in lastAllocation, or NaN if the JVM
+     * can not tell us.
+     *
+     * @param benchmark Benchmark to run.
+     * @return Operations per second.
+     * @throws Exception if the benchmark fails.
+     */
+    private double measureThroughput(final Benchmark benchmark) throws Exception {
+        final long iterationNanos = iterationMillis * 1000000L;
+        final long targetBatchNanos = Math.max(1, iterationNanos / 100);
+        final long start = System.nanoTime();
+        final long deadline = start + iterationNanos;
+
+        final long allocatedBefore = getAllocatedBytes();
+        long operations = 0;
+        int batch = 1;
+        long now = start;
+        while (now < deadline) {
+            final long batchStart = now;
+            for (int i = 0; i < batch; i++) {
+                sink = benchmark.run();
+            }
+            operations += batch;
+            now = System.nanoTime();
+            if (now - batchStart < targetBatchNanos && batch < (1 << 30)) {
+                batch <<= 1;
+            }
+        }
+
+        final long allocatedAfter = getAllocatedBytes();
+        lastAllocation = allocatedBefore < 0 ? Double.NaN : (allocatedAfter - allocatedBefore) / (double)operations;
+
+        return operations / ((now - start) / 1e9);
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far.
+     *
+     * @return Bytes allocated, or -1 if the JVM can not tell us.
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Measure how many bytes of heap each object created by a footprint
+     * benchmark retains.
+     *
+     * @param benchmark Benchmark to run.
+     * @return Bytes retained per object.
+     * @throws Exception if the benchmark fails.
+     */
+    private double measureFootprint(final FootprintBenchmark benchmark) throws Exception {
+        final Object[] objects = new Object[benchmark.getCount()];
+        final long before = getUsedHeap();
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = benchmark.run();
+        }
+        final long after = getUsedHeap();
+        sink = objects;
+        sink = null;
+        return (after - before) / (double)objects.length;
+    }
+
+    /**
+     * Get the amount of heap in use, after trying to collect any garbage.
+     *
+     * @return Bytes of heap in use.
+     * @throws InterruptedException if we are interrupted while waiting for GC.
+     */
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Write the given results as JSON.
+     *
+     * @param results Results to write.
+     * @param file File to write to.
+     * @throws IOException if the file can not be written.
+     */
+    private void writeJson(final List<Result> results, final File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) { parent.mkdirs(); }
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                final Result result = results.get(i);
+                final Benchmark benchmark = result.benchmark;
+                writer.write("    {\n");
+                writer.write("        \"benchmark\" : " + quote(benchmark.getName()) + ",\n");
+                writer.write("        \"mode\" : " + quote(result.isFootprint() ? "footprint" : "thrpt") + ",\n");
+                writer.write("        \"threads\" : 1,\n");
+                writer.write("        \"forks\" : 0,\n");
+                writer.write("        \"warmupIterations\" : " + warmupIterations + ",\n");
+                writer.write("        \"measurementIterations\" : " + measurementIterations + ",\n");
+                writer.write("        \"measurementTime\" : " + quote(iterationMillis + " ms") + ",\n");
+                if (!benchmark.getParams().isEmpty()) {
+                    writer.write("        \"params\" : {");
+                    boolean first = true;
+                    for (final Map.Entry<String, String> param : benchmark.getParams().entrySet()) {
+                        writer.write((first ? " " : ", ") + quote(param.getKey()) + " : " + quote(param.getValue()));
+                        first = false;
+                    }
+                    writer.write(" },\n");
+                }
+                writer.write("        \"primaryMetric\" : {\n");
+                writeMetric(writer, result.scores, result.isFootprint() ? "bytes/op" : "ops/s", "            ");
+                if (result.hasAllocations()) {
+                    writer.write("        },\n");
+                    writer.write("        \"secondaryMetrics\" : {\n");
+                    writer.write("            " + quote(ALLOCATION_METRIC) + " : {\n");
+                    writeMetric(writer, result.allocations, "B/op", "                ");
+                    writer.write("            }\n");
+                }
+                writer.write("        }\n");
+                writer.write(i + 1 < results.size() ? "    },\n" : "    }\n");
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the fields of a JSON metric.
+     *
+     * @param writer Writer to write to.
+     * @param values Value from each measurement iteration.
+     * @param unit Unit of the values.
+     * @param indent Indent for each line.
+     * @throws IOException if the fields can not be written.
+     */
+    private static void writeMetric(final Writer writer, final double[] values, final String unit, final String indent) throws IOException {
+        writer.write(indent + "\"score\" : " + number(mean(values)) + ",\n");
+        writer.write(indent + "\"scoreError\" : " + number(error(values)) + ",\n");
+        writer.write(indent + "\"scoreUnit\" : " + quote(unit) + ",\n");
+        writer.write(indent + "\"rawData\" : [ [");
+        for (int i = 0; i < values.length; i++) {
+            writer.write((i == 0 ? " " : ", ") + number(values[i]));
+        }
+        writer.write(" ] ]\n");
+    }
+
+    /**
+     * Quote a string for JSON.
+     *
+     * @param value String to quote.
+     * @return Quoted string.
+     */
+    private static String quote(final String value) {
+        final StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int)c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * Format a number for JSON.
+     *
+     * @param value Number to format.
+     * @return Formatted number.
+     */
+    private static String number(final double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : Double.toString(value);
+    }
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args Command line arguments.
+     * @throws Exception if a benchmark fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        LogFactory.setDefaultLevel(LogLevel.ERROR);
+
+        final BenchmarkRunner runner = new BenchmarkRunner();
+        runner.parseArgs(args);
+        final List<Result> results = runner.runAll();
+        if (runner.output != null && !runner.listOnly) {
+            runner.writeJson(results, runner.output);
+            out.println("Results written to: " + runner.output);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import uk.org.dataforce.scriptbot.config.Config;
+import uk.org.dataforce.scriptbot.config.InvalidConfigFileException;
+
+/**
+ * Helpers for creating the files that benchmarks need.
+ */
+public final class Fixtures {
+    /** Directory that fixtures are written to. */
+    private static File directory;
+
+    /** Creates a new instance of Fixtures. */
+    private Fixtures() { }
+
+    /**
+     * Get the directory that fixtures are written to, creating it if needed.
+     *
+     * @return Fixture directory.
+     * @throws IOException if the directory can not be created.
+     */
+    public static synchronized File getDirectory() throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory("scriptbot-benchmark").toFile();
+            directory.deleteOnExit();
+        }
+        return directory;
+    }
+
+    /**
+     * Write a fixture file.
+     *
+     * @param name Name of the file.
+     * @param contents Contents of the file.
+     * @return The file.
+     * @throws IOException if the file can not be written.
+     */
+    public static File write(final String name, final String contents) throws IOException {
+        final File file = new File(getDirectory(), name);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Write a config fixture and load it.
+     *
+     * @param name Name of the file.
+     * @param contents Contents of the config.
+     * @return The loaded config.
+     * @throws IOException if the file can not be written.
+     * @throws InvalidConfigFileException if the contents are not valid.
+     */
+    public static Config config(final String name, final String contents) throws IOException, InvalidConfigFileException {
+        return new Config(write(name, contents));
+    }
+}
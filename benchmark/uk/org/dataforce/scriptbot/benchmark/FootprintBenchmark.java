@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+/**
+ * A benchmark that measures how much heap is retained by each object it
+ * creates, rather than how fast anything is.
+ */
+public abstract class FootprintBenchmark extends Benchmark {
+    /**
+     * Create a new FootprintBenchmark.
+     *
+     * @param name Name of this benchmark.
+     */
+    protected FootprintBenchmark(final String name) {
+        super(name);
+    }
+
+    /**
+     * Create a new FootprintBenchmark with a single parameter.
+     *
+     * @param name Name of this benchmark.
+     * @param param Name of the parameter.
+     * @param value Value of the parameter.
+     */
+    protected FootprintBenchmark(final String name, final String param, final String value) {
+        super(name, param, value);
+    }
+
+    /**
+     * Get the number of objects to create for each measurement.
+     *
+     * @return Number of objects to create.
+     */
+    public int getCount() {
+        return 200;
+    }
+
+    /**
+     * Create one of the objects being measured, this is kept alive until the
+     * measurement is complete.
+     *
+     * @return The object.
+     * @throws Exception if the object can not be created.
+     */
+    @Override
+    public abstract Object run() throws Exception;
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import uk.org.dataforce.libs.logger.AsyncAppender;
+import uk.org.dataforce.libs.logger.LogLevel;
+import uk.org.dataforce.libs.logger.LogMessage;
+import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.util.OverflowPolicy;
+
+/**
+ * Benchmarks for logging at enabled and disabled levels.
+ *
+ * Each benchmark logs a raw line the way Server.onDataIn does, in one of
+ * these styles:
+ *
+ * eager - the message is built with String.format before calling the logger
+ * format - the format string and argument are passed to the logger
+ * supplier - a LogMessage is passed to the logger
+ *
+ * The format and supplier styles should allocate nothing at disabled levels.
+ */
+public final class LoggerBenchmarks {
+    /** Line that is logged. */
+    private static final String LINE = ":nick!user@host PRIVMSG #channel :Hello there";
+
+    /** Creates a new instance of LoggerBenchmarks. */
+    private LoggerBenchmarks() { }
+
+    /**
+     * Create the benchmarks.
+     *
+     * @return List of benchmarks.
+     */
+    public static List<Benchmark> create() {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+        for (final LogLevel level : new LogLevel[]{LogLevel.INFO, LogLevel.DEBUG}) {
+            for (final String style : new String[]{"eager", "format", "supplier"}) {
+                result.add(create(level, style, false));
+            }
+            result.add(create(level, "eager", true));
+        }
+        return result;
+    }
+
+    /**
+     * Create a single benchmark.
+     *
+     * @param level Level to log at, the logger is at INFO.
+     * @param style How the message is passed to the logger.
+     * @param async Use an AsyncAppender?
+     * @return The benchmark.
+     */
+    private static Benchmark create(final LogLevel level, final String style, final boolean async) {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("level", level == LogLevel.INFO ? "enabled" : "disabled");
+        params.put("style", style);
+        params.put("mode", async ? "async" : "sync");
+        return new Benchmark("Logger.log", params) {
+            /** Logger to log to. */
+            private final Logger logger = new Logger(LogLevel.INFO);
+            /** Message used by the supplier style. */
+            private final LogMessage message = new LogMessage() {
+                /** {@inheritDoc} */
+                @Override
+                public String getMessage() {
+                    return String.format("[ IN] %s", LINE);
+                }
+            };
+            /** Stream that System.out was set to before we started. */
+            private PrintStream oldOut;
+            /** Appender used in async mode. */
+            private AsyncAppender appender;
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() {
+                logger.setTag("benchmark");
+                oldOut = System.out;
+                System.setOut(new PrintStream(new OutputStream() {
+                    /** {@inheritDoc} */
+                    @Override
+                    public void write(final int b) { }
+
+                    /** {@inheritDoc} */
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) { }
+                }));
+                if (async) {
+                    appender = new AsyncAppender(8192, OverflowPolicy.BLOCK, 256, 100);
+                    logger.setAppender(appender);
+                }
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() {
+                if ("format".equals(style)) {
+                    logger.log(level, "[ IN] %s", LINE);
+                } else if ("supplier".equals(style)) {
+                    logger.log(level, message);
+                } else {
+                    logger.log(level, String.format("[ IN] %s", LINE));
+                }
+                return logger;
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public void tearDown() {
+                if (appender != null) {
+                    logger.setAppender(null);
+                    appender.shutdown(5000);
+                }
+                System.setOut(oldOut);
+            }
+        };
+    }
+}
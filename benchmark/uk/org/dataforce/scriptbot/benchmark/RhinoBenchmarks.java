@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import uk.org.dataforce.scriptbot.config.Config;
+import uk.org.dataforce.scriptbot.scripts.rhinosandbox.CompiledScriptCache;
+import uk.org.dataforce.scriptbot.scripts.rhinosandbox.RhinoScriptEngine;
+
+/**
+ * Benchmarks for running scripts in RhinoScriptEngine, under each
+ * optimization level.
+ */
+public final class RhinoBenchmarks {
+    /** Script with a representative set of handlers. */
+    private static final String SCRIPT = ""
+            + "var stats = {};\n"
+            + "function onMessage(nick, message, count) {\n"
+            + "    var words = message.split(' ');\n"
+            + "    var out = [];\n"
+            + "    for (var i = 0; i < words.length; i++) {\n"
+            + "        if (/^[a-z]+$/i.test(words[i])) { out.push(words[i].toUpperCase()); }\n"
+            + "    }\n"
+            + "    stats[nick] = (stats[nick] || 0) + count;\n"
+            + "    return out.join(',') + stats[nick];\n"
+            + "}\n"
+            + "function compute(n) {\n"
+            + "    var a = 0, b = 1;\n"
+            + "    for (var i = 0; i < n; i++) { var t = (a + b) % 1000007; a = b; b = t; }\n"
+            + "    return a;\n"
+            + "}\n"
+            + "function touchJava(n) {\n"
+            + "    var list = new java.util.ArrayList();\n"
+            + "    var map = new java.util.HashMap();\n"
+            + "    var tree = new java.util.TreeMap();\n"
+            + "    var linked = new java.util.LinkedList();\n"
+            + "    var sb = new java.lang.StringBuilder();\n"
+            + "    for (var i = 0; i < n; i++) {\n"
+            + "        list.add(java.lang.Integer.valueOf(i));\n"
+            + "        map.put('k' + i, list.size());\n"
+            + "        tree.put(java.lang.String.valueOf(i), i);\n"
+            + "        linked.addFirst(i);\n"
+            + "        sb.append(java.lang.Math.max(i, 1));\n"
+            + "    }\n"
+            + "    java.util.Collections.sort(list);\n"
+            + "    return list.size() + map.size() + tree.size() + linked.size() + sb.length();\n"
+            + "}\n";
+
+    /** Optimization levels to benchmark. */
+    private static final String[] LEVELS = {"-1", "0", "9"};
+
+    /** Creates a new instance of RhinoBenchmarks. */
+    private RhinoBenchmarks() { }
+
+    /**
+     * Create a config for the given optimization level.
+     *
+     * @param level Optimization level.
+     * @return Config for the level.
+     * @throws Exception if the config can not be created.
+     */
+    private static Config getConfig(final String level) throws Exception {
+        return Fixtures.config("rhino" + level + ".conf", "keysections:\n"
+                + "\trhino\n"
+                + "\n"
+                + "rhino:\n"
+                + "\toptimizationlevel=" + level + "\n");
+    }
+
+    /**
+     * Create an engine with the benchmark script loaded.
+     *
+     * @param config Config for the engine.
+     * @param script Script file to load.
+     * @return The engine.
+     * @throws Exception if the script can not be loaded.
+     */
+    private static RhinoScriptEngine createEngine(final Config config, final File script) throws Exception {
+        final RhinoScriptEngine engine = new RhinoScriptEngine(config, script);
+        final FileReader reader = new FileReader(script);
+        try {
+            engine.eval(reader);
+        } finally {
+            reader.close();
+        }
+        return engine;
+    }
+
+    /**
+     * Create the parameters for a benchmark.
+     *
+     * @param name Name of the parameter.
+     * @param value Value of the parameter.
+     * @param level Optimization level.
+     * @return Parameter map.
+     */
+    private static Map<String, String> params(final String name, final String value, final String level) {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put(name, value);
+        params.put("optimizationLevel", level);
+        return params;
+    }
+
+    /**
+     * Create a benchmark that invokes a handler with wrapped arguments.
+     *
+     * @param level Optimization level.
+     * @param function Function to invoke.
+     * @param args Arguments to invoke with.
+     * @return The benchmark.
+     */
+    private static Benchmark invoke(final String level, final String function, final Object... args) {
+        return new Benchmark("RhinoScriptEngine.invokeMethod", params("handler", function, level)) {
+            /** Engine to invoke. */
+            private RhinoScriptEngine engine;
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() throws Exception {
+                engine = createEngine(getConfig(level), Fixtures.write("handlers" + level + ".js", SCRIPT));
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() throws Exception {
+                return engine.invokeFunction(function, args);
+            }
+        };
+    }
+
+    /**
+     * Create the benchmarks.
+     *
+     * @return List of benchmarks.
+     */
+    public static List<Benchmark> create() {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+        for (final String level : LEVELS) {
+            result.add(invoke(level, "onMessage", "nick", "the quick brown fox jumps over 1 lazy dog", 3));
+            result.add(invoke(level, "compute", 100));
+            result.add(invoke(level, "touchJava", 10));
+
+            for (final String cache : new String[]{"cold", "warm"}) {
+                result.add(new Benchmark("RhinoScriptEngine.load", params("cache", cache, level)) {
+                    /** Config for the engines. */
+                    private Config config;
+                    /** Script to load. */
+                    private File script;
+
+                    /** {@inheritDoc} */
+                    @Override
+                    public void setUp() throws Exception {
+                        config = getConfig(level);
+                        script = Fixtures.write("load" + level + ".js", SCRIPT);
+                    }
+
+                    /** {@inheritDoc} */
+                    @Override
+                    public Object run() throws Exception {
+                        if (cache.equals("cold")) { CompiledScriptCache.clear(); }
+                        return createEngine(config, script);
+                    }
+                });
+            }
+        }
+
+        result.add(new FootprintBenchmark("RhinoScriptEngine.footprint") {
+            /** Config for the engines. */
+            private Config config;
+            /** Script to load. */
+            private File script;
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() throws Exception {
+                config = getConfig("0");
+                script = Fixtures.write("footprint.js", SCRIPT);
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() throws Exception {
+                return createEngine(config, script);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import com.dmdirc.parser.interfaces.Parser;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import uk.org.dataforce.scriptbot.scripts.Script;
+import uk.org.dataforce.scriptbot.scripts.ScriptExecutor;
+import uk.org.dataforce.scriptbot.scripts.ScriptHandler;
+import uk.org.dataforce.scriptbot.scripts.irc.GlobalIRCScripter;
+
+/**
+ * Benchmarks for dispatching events and commands to scripts.
+ *
+ * Each benchmark is run with 1 and 20 copies of the script loaded, to show
+ * how the cost grows with the number of scripts. Unbound events should cost
+ * the same however many scripts are loaded.
+ *
+ * The pooled dispatch benchmarks only measure queueing the calls.
+ * ScriptHandler.callBound.completed compares sync and pooled dispatch with
+ * 1,000 scripts bound to the event, and waits for every call to finish
+ * before counting an operation, so it measures completed calls.
+ */
+public final class ScriptHandlerBenchmarks {
+    /** Script that the benchmarks load. */
+    private static final String SCRIPT = ""
+            + "var seen = {};\n"
+            + "function onTestEvent(nick, message) {\n"
+            + "    seen[nick] = (seen[nick] || 0) + 1;\n"
+            + "}\n"
+            + "function seenCommand(parser, date, channel, client, command, args) {\n"
+            + "    return seen[args] || 0;\n"
+            + "}\n"
+            + "bot.bindEvent('onTestEvent', onTestEvent);\n"
+            + "irc.bindCommand('!seen', '', seenCommand);\n";
+
+    /** Numbers of scripts to benchmark with. */
+    private static final int[] SCRIPT_COUNTS = {1, 20};
+
+    /** Number of scripts for the completed calls benchmark. */
+    private static final int MANY_SCRIPTS = 1000;
+
+    /** Creates a new instance of ScriptHandlerBenchmarks. */
+    private ScriptHandlerBenchmarks() { }
+
+    /**
+     * A benchmark that runs against a StubServer with copies of the
+     * benchmark script loaded.
+     */
+    private abstract static class ServerBenchmark extends Benchmark {
+        /** Dispatch mode to use. */
+        private final String dispatch;
+        /** Number of scripts to load. */
+        private final int scripts;
+        /** Overflow policy to use. */
+        private final String overflow;
+        /** Server to run against. */
+        protected StubServer server;
+
+        /**
+         * Create a new ServerBenchmark.
+         *
+         * @param name Name of this benchmark.
+         * @param params Parameters, must include "scripts" and "dispatch".
+         */
+        protected ServerBenchmark(final String name, final Map<String, String> params) {
+            this(name, params, "dropoldest");
+        }
+
+        /**
+         * Create a new ServerBenchmark.
+         *
+         * @param name Name of this benchmark.
+         * @param params Parameters, must include "scripts" and "dispatch".
+         * @param overflow Overflow policy for async dispatch.
+         */
+        protected ServerBenchmark(final String name, final Map<String, String> params, final String overflow) {
+            super(name, params);
+            this.dispatch = params.get("dispatch");
+            this.scripts = Integer.parseInt(params.get("scripts"));
+            this.overflow = overflow;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp() throws Exception {
+            server = new StubServer(Fixtures.config("server-" + dispatch + "-" + overflow + ".conf", "keysections:\n"
+                    + "\tserver\n"
+                    + "\tdispatch\n"
+                    + "\n"
+                    + "server:\n"
+                    + "\tenabled=true\n"
+                    + "\n"
+                    + "dispatch:\n"
+                    + "\tmode=" + dispatch + "\n"
+                    + "\tqueuesize=10000\n"
+                    + "\toverflow=" + overflow + "\n"));
+            server.begin();
+            final File directory = new File(Fixtures.getDirectory(), "handlers");
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalStateException("Unable to create " + directory);
+            }
+            directory.deleteOnExit();
+            for (int i = 0; i < scripts; i++) {
+                final File script = Fixtures.write("handlers/handlers" + i + ".js", SCRIPT);
+                if (!server.getScriptHandler().loadScript(script)) {
+                    throw new IllegalStateException("Unable to load benchmark script " + script);
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() throws Exception {
+            server.stop("Benchmark complete");
+        }
+    }
+
+    /**
+     * Create the parameters for a benchmark.
+     *
+     * @param name Name of the main parameter.
+     * @param value Value of the main parameter.
+     * @param scripts Number of scripts to load.
+     * @param dispatch Dispatch mode.
+     * @return Parameter map.
+     */
+    private static Map<String, String> params(final String name, final String value, final int scripts, final String dispatch) {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put(name, value);
+        params.put("scripts", Integer.toString(scripts));
+        params.put("dispatch", dispatch);
+        return params;
+    }
+
+    /**
+     * Create the benchmarks.
+     *
+     * @return List of benchmarks.
+     */
+    public static List<Benchmark> create() {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+        for (final String dispatch : new String[]{"sync", "pooled"}) {
+            for (final int scripts : SCRIPT_COUNTS) {
+                addDispatchBenchmarks(result, dispatch, scripts);
+            }
+            addCompletedBenchmark(result, dispatch);
+        }
+        return result;
+    }
+
+    /**
+     * Create the benchmark that calls a bound event in MANY_SCRIPTS scripts
+     * and waits for all the calls to finish.
+     *
+     * The block overflow policy is used so that no calls are dropped.
+     *
+     * @param result List to add the benchmark to.
+     * @param dispatch Dispatch mode.
+     */
+    private static void addCompletedBenchmark(final List<Benchmark> result, final String dispatch) {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("scripts", Integer.toString(MANY_SCRIPTS));
+        params.put("dispatch", dispatch);
+        result.add(new ServerBenchmark("ScriptHandler.callBound.completed", params, "block") {
+            /** Handler to call. */
+            private ScriptHandler handler;
+            /** Executors of the loaded scripts, empty for sync dispatch. */
+            private final List<ScriptExecutor> executors = new ArrayList<ScriptExecutor>();
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() throws Exception {
+                super.setUp();
+                handler = server.getScriptHandler();
+                for (final Script script : handler.getScripts()) {
+                    if (script.getExecutor() != null) {
+                        executors.add(script.getExecutor());
+                    }
+                }
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() {
+                handler.callBound("onTestEvent", "nick", "Hello there");
+                for (final ScriptExecutor executor : executors) {
+                    while (!executor.isIdle()) {
+                        Thread.yield();
+                    }
+                }
+                return handler;
+            }
+        });
+    }
+
+    /**
+     * Create the event and command benchmarks for the given settings.
+     *
+     * @param result List to add the benchmarks to.
+     * @param dispatch Dispatch mode.
+     * @param scripts Number of scripts to load.
+     */
+    private static void addDispatchBenchmarks(final List<Benchmark> result, final String dispatch, final int scripts) {
+        for (final String event : new String[]{"bound", "unbound"}) {
+            final String function = event.equals("bound") ? "onTestEvent" : "onUnboundEvent";
+            result.add(new ServerBenchmark("ScriptHandler.callBound", params("event", event, scripts, dispatch)) {
+                /** Handler to call. */
+                private ScriptHandler handler;
+
+                /** {@inheritDoc} */
+                @Override
+                public void setUp() throws Exception {
+                    super.setUp();
+                    handler = server.getScriptHandler();
+                }
+
+                /** {@inheritDoc} */
+                @Override
+                public Object run() {
+                    handler.callBound(function, "nick", "Hello there");
+                    return handler;
+                }
+            });
+        }
+
+        for (final String message : new String[]{"plain", "command"}) {
+            final String line = message.equals("plain") ? "just some chatter in the channel" : "!SEEN nick";
+            result.add(new ServerBenchmark("GlobalIRCScripter.onChannelMessage", params("message", message, scripts, dispatch)) {
+                /** Scripter to call. */
+                private GlobalIRCScripter scripter;
+                /** Parser to pass to the scripter. */
+                private Parser parser;
+                /** Date to pass to the scripter. */
+                private final Date date = new Date();
+
+                /** {@inheritDoc} */
+                @Override
+                public void setUp() throws Exception {
+                    super.setUp();
+                    scripter = server.getScriptHandler().getIRCScripter();
+                    parser = server.getParser();
+                }
+
+                /** {@inheritDoc} */
+                @Override
+                public Object run() {
+                    scripter.onChannelMessage(parser, date, null, null, line, "nick!user@host");
+                    return scripter;
+                }
+            });
+        }
+    }
+}
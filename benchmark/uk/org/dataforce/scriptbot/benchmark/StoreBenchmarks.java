@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import uk.org.dataforce.libs.store.LogStore;
+import uk.org.dataforce.libs.store.SyncPolicy;
+
+/**
+ * Benchmarks for the script key/value store.
+ *
+ * Each benchmark gets or puts one of a fixed set of keys, using one of:
+ *
+ * logstore - a LogStore, as used for bot.store
+ * file - one file per key, the way scripts stored data before bot.store
+ *
+ * Neither syncs after each put, syncing is left to the operating system.
+ */
+public final class StoreBenchmarks {
+    /** Number of keys in the store. */
+    private static final int KEYS = 1000;
+
+    /** Value that is stored. */
+    private static final String VALUE = "{\"nick\":\"someone\",\"seen\":1349772988000,\"channel\":\"#channel\"}";
+
+    /** Charset used by the file per key store. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Creates a new instance of StoreBenchmarks. */
+    private StoreBenchmarks() { }
+
+    /**
+     * Create the benchmarks.
+     *
+     * @return List of benchmarks.
+     */
+    public static List<Benchmark> create() {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+        for (final String operation : new String[]{"get", "put"}) {
+            for (final String impl : new String[]{"logstore", "file"}) {
+                result.add(create(operation, impl));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create a single benchmark.
+     *
+     * @param operation Operation to run, "get" or "put".
+     * @param impl Store to use, "logstore" or "file".
+     * @return The benchmark.
+     */
+    private static Benchmark create(final String operation, final String impl) {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("impl", impl);
+        return new Benchmark("Store." + operation, params) {
+            /** Keys to use. */
+            private final String[] keys = new String[KEYS];
+            /** Store to use. */
+            private KeyValueStore store;
+            /** Next key to use. */
+            private int next;
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() throws IOException {
+                final File directory = new File(Fixtures.getDirectory(), "store-" + operation + "-" + impl);
+                store = "logstore".equals(impl) ? new LogStoreAdapter(new File(directory, "bench.store")) : new FilePerKeyStore(directory);
+                for (int i = 0; i < KEYS; i++) {
+                    keys[i] = "seen." + i;
+                    store.put(keys[i], VALUE);
+                }
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() throws IOException {
+                final String key = keys[next];
+                next = (next + 1) % KEYS;
+                if ("get".equals(operation)) {
+                    return store.get(key);
+                }
+                store.put(key, VALUE);
+                return key;
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public void tearDown() throws IOException {
+                store.close();
+            }
+        };
+    }
+
+    /**
+     * A simple string key/value store.
+     */
+    private interface KeyValueStore {
+        /**
+         * Get a value.
+         *
+         * @param key Key to get.
+         * @return The value, or null.
+         * @throws IOException if the value can not be read.
+         */
+        String get(final String key) throws IOException;
+
+        /**
+         * Set a value.
+         *
+         * @param key Key to set.
+         * @param value Value to set.
+         * @throws IOException if the value can not be written.
+         */
+        void put(final String key, final String value) throws IOException;
+
+        /**
+         * Close the store and delete its files.
+         *
+         * @throws IOException if the files can not be deleted.
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * KeyValueStore using a LogStore.
+     */
+    private static final class LogStoreAdapter implements KeyValueStore {
+        /** Store to use. */
+        private final LogStore store;
+
+        /**
+         * Create a new LogStoreAdapter.
+         *
+         * @param file File to keep the store in.
+         * @throws IOException if the store can not be opened.
+         */
+        LogStoreAdapter(final File file) throws IOException {
+            store = new LogStore(file, SyncPolicy.NONE, 0);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String get(final String key) throws IOException {
+            return store.get(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void put(final String key, final String value) throws IOException {
+            store.put(key, value);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            store.close();
+            Files.deleteIfExists(store.getFile().toPath());
+        }
+    }
+
+    /**
+     * KeyValueStore that keeps each key in a file of its own.
+     */
+    private static final class FilePerKeyStore implements KeyValueStore {
+        /** Directory to keep files in. */
+        private final File directory;
+
+        /**
+         * Create a new FilePerKeyStore.
+         *
+         * @param directory Directory to keep files in.
+         * @throws IOException if the directory can not be created.
+         */
+        FilePerKeyStore(final File directory) throws IOException {
+            this.directory = directory;
+            Files.createDirectories(directory.toPath());
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String get(final String key) throws IOException {
+            try {
+                return new String(Files.readAllBytes(new File(directory, key).toPath()), UTF8);
+            } catch (final NoSuchFileException nsfe) {
+                return null;
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void put(final String key, final String value) throws IOException {
+            Files.write(new File(directory, key).toPath(), value.getBytes(UTF8));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+    }
+}
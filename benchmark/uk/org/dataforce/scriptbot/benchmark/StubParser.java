@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * An IRCParser that never connects to anything.
+ *
+ * The parser's own CallbackManager and StringConverter are used as normal,
+ * but as no data is ever read, callbacks only fire when a benchmark calls
+ * them directly.
+ */
+public class StubParser extends IRCParser {
+    /**
+     * Create a new StubParser.
+     *
+     * @throws URISyntaxException Never.
+     */
+    public StubParser() throws URISyntaxException {
+        super(createInfo(), new URI("irc://127.0.0.1:6667"));
+    }
+
+    /**
+     * Create the MyInfo for the parser.
+     *
+     * @return MyInfo for the parser.
+     */
+    private static MyInfo createInfo() {
+        final MyInfo info = new MyInfo();
+        info.setNickname("ScriptBot");
+        info.setAltNickname("ScriptBot`");
+        info.setUsername("ScriptBot");
+        info.setRealname("ScriptBot");
+        return info;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void connect() { }
+
+    /** {@inheritDoc} */
+    @Override
+    public void disconnect(final String message) { }
+
+    /** {@inheritDoc} */
+    @Override
+    public void quit(final String reason) { }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.benchmark;
+
+import com.dmdirc.parser.interfaces.Parser;
+import java.net.URISyntaxException;
+import uk.org.dataforce.scriptbot.Server;
+import uk.org.dataforce.scriptbot.config.Config;
+
+/**
+ * A Server that uses a StubParser, so that it can be started without
+ * connecting anywhere.
+ */
+public class StubServer extends Server {
+    /**
+     * Create a new StubServer.
+     *
+     * @param config Config for the server, this should not list any scripts.
+     */
+    public StubServer(final Config config) {
+        super(null, "benchmark", config);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Parser createParser() throws URISyntaxException {
+        return new StubParser();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import uk.org.dataforce.scriptbot.benchmark.Benchmark;
+import uk.org.dataforce.scriptbot.benchmark.Fixtures;
+
+/**
+ * Benchmarks for reading, writing and escaping config files.
+ *
+ * This is in the config package so that it can reach the escaping methods.
+ */
+public final class ConfigFileBenchmarks {
+    /** Number of key domains in the large config. */
+    private static final int KEY_DOMAINS = 200;
+
+    /** Number of flat domains in the large config. */
+    private static final int FLAT_DOMAINS = 50;
+
+    /** Number of entries in each domain of the large config. */
+    private static final int ENTRIES = 50;
+
+    /** A line that needs escaping. */
+    private static final String RAW = "channel=#foo:bar\\baz\nnext line=with\r\"quotes\"";
+
+    /** Creates a new instance of ConfigFileBenchmarks. */
+    private ConfigFileBenchmarks() { }
+
+    /**
+     * Create the contents of a large config file.
+     *
+     * @return Config file contents.
+     */
+    private static String createLargeConfig() {
+        final StringBuilder sb = new StringBuilder("keysections:\n");
+        for (int i = 0; i < KEY_DOMAINS; i++) {
+            sb.append("\tkeys").append(i).append('\n');
+        }
+        for (int i = 0; i < KEY_DOMAINS; i++) {
+            sb.append("\nkeys").append(i).append(":\n");
+            for (int j = 0; j < ENTRIES; j++) {
+                sb.append("\tsetting").append(j).append("=value ").append(i).append('.').append(j).append('\n');
+            }
+        }
+        for (int i = 0; i < FLAT_DOMAINS; i++) {
+            sb.append("\nflat").append(i).append(":\n");
+            for (int j = 0; j < ENTRIES; j++) {
+                sb.append("\t#channel").append(j).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Create the benchmarks.
+     *
+     * @return List of benchmarks.
+     */
+    public static List<Benchmark> create() {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new Benchmark("ConfigFile.read") {
+            /** File to read. */
+            private File file;
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() throws Exception {
+                file = Fixtures.write("large-read.conf", createLargeConfig());
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() throws Exception {
+                final ConfigFile config = new ConfigFile(file);
+                config.read();
+                return config;
+            }
+        });
+        result.add(new Benchmark("ConfigFile.write") {
+            /** Config to write. */
+            private ConfigFile config;
+
+            /** {@inheritDoc} */
+            @Override
+            public void setUp() throws Exception {
+                config = new ConfigFile(Fixtures.write("large-write.conf", createLargeConfig()));
+                config.read();
+            }
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() throws Exception {
+                config.write();
+                return config;
+            }
+        });
+        result.add(new Benchmark("ConfigFile.escape") {
+            /** {@inheritDoc} */
+            @Override
+            public Object run() {
+                return ConfigFile.escape(RAW);
+            }
+        });
+        result.add(new Benchmark("ConfigFile.unescape") {
+            /** Escaped line to unescape. */
+            private final String escaped = ConfigFile.escape(RAW);
+
+            /** {@inheritDoc} */
+            @Override
+            public Object run() {
+                return ConfigFile.unescape(escaped);
+            }
+        });
+        for (final String style : new String[]{"option", "view"}) {
+            result.add(new Benchmark("Config.getIntOption", "style", style) {
+                /** Config to read from. */
+                private Config config;
+                /** View of the option, for the view style. */
+                private OptionView<Integer> view;
+
+                /** {@inheritDoc} */
+                @Override
+                public void setUp() throws Exception {
+                    config = Fixtures.config("large-options.conf", createLargeConfig() + "\nkeys0:\n\tnumber=1234\n");
+                    view = config.getIntView("keys0", "number", 0);
+                }
+
+                /** {@inheritDoc} */
+                @Override
+                public Object run() {
+                    if ("view".equals(style)) {
+                        return view.get();
+                    }
+                    return config.getIntOption("keys0", "number", 0);
+                }
+            });
+        }
+        return result;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.util.OverflowPolicy;
+
+/**
+ * Writes log lines from a background thread.
+ *
+ * Loggers hand finished lines to a bounded queue rather than writing them
+ * themselves, and a single writer thread takes them off in batches and
+ * writes each batch to the console and the loggers' writers in one go.
+ * Output is flushed once enough lines are waiting, or once the oldest
+ * unflushed line is older than the flush interval.
+ */
+public class AsyncAppender implements Runnable {
+
+    /**
+     * A line waiting to be written.
+     */
+    private static class Record {
+        /** Logger that logged the line. */
+        final Logger logger;
+        /** Writer to write the line to as well as the console, or null. */
+        final BufferedWriter writer;
+        /** Line to write. */
+        final String line;
+
+        /**
+         * Create a new Record.
+         *
+         * @param logger Logger that logged the line.
+         * @param writer Writer to write the line to, or null.
+         * @param line Line to write.
+         */
+        Record(final Logger logger, final BufferedWriter writer, final String line) {
+            this.logger = logger;
+            this.writer = writer;
+            this.line = line;
+        }
+    }
+
+    /** Record queued by shutdown() to wake the writer thread. */
+    private static final Record STOP = new Record(null, null, null);
+
+    /** Queued lines. */
+    private final BlockingQueue<Record> queue;
+
+    /** What to do when the queue is full. */
+    private final OverflowPolicy policy;
+
+    /** Flush once this many lines are waiting. */
+    private final int flushLines;
+
+    /** Flush once the oldest waiting line is this many nanoseconds old. */
+    private final long flushNanos;
+
+    /** Thread that writes the lines. */
+    private final Thread thread;
+
+    /** Number of lines that have been dropped. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Number of dropped lines we have already reported. */
+    private long reportedDropped;
+
+    /** Are we still running? */
+    private volatile boolean running = true;
+
+    /**
+     * Create a new AsyncAppender and start its writer thread.
+     *
+     * @param capacity Maximum number of queued lines.
+     * @param policy What to do when the queue is full.
+     * @param flushLines Flush once this many lines are waiting.
+     * @param flushInterval Flush once the oldest waiting line is this many
+     *        milliseconds old.
+     */
+    public AsyncAppender(final int capacity, final OverflowPolicy policy, final int flushLines, final long flushInterval) {
+        this.queue = new ArrayBlockingQueue<Record>(Math.max(1, capacity));
+        this.policy = policy;
+        this.flushLines = Math.max(1, flushLines);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushInterval));
+
+        thread = new Thread(this, "Log Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a line to be written.
+     *
+     * @param logger Logger that logged the line.
+     * @param writer Writer to write the line to as well as the console, or null.
+     * @param line Line to write.
+     * @return False if we are no longer running and the caller should write
+     *         the line itself, else true (even if the line was dropped).
+     */
+    public boolean append(final Logger logger, final BufferedWriter writer, final String line) {
+        if (!running) { return false; }
+        final Record record = new Record(logger, writer, line);
+
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(record);
+                } catch (final InterruptedException ie) {
+                    dropped.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(record)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+            case DROP_OLDEST:
+            default:
+                while (!queue.offer(record)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of lines waiting to be written.
+     *
+     * @return Current queue depth.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of lines that were dropped because the queue was full.
+     *
+     * @return Number of lines dropped.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        final List<Record> batch = new ArrayList<Record>(flushLines);
+        final StringBuilder console = new StringBuilder();
+        final Set<BufferedWriter> dirty = new LinkedHashSet<BufferedWriter>();
+        int pending = 0;
+        long oldest = 0;
+
+        while (running || !queue.isEmpty()) {
+            try {
+                final long wait = pending == 0 ? flushNanos : Math.max(0, oldest + flushNanos - System.nanoTime());
+                final Record first = queue.poll(wait, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    if (pending == 0) { oldest = System.nanoTime(); }
+                    batch.add(first);
+                    queue.drainTo(batch, flushLines - 1);
+                    pending += batch.size();
+                    write(batch, console, dirty);
+                    batch.clear();
+                }
+                if (pending > 0 && (pending >= flushLines || System.nanoTime() - oldest >= flushNanos)) {
+                    flush(console, dirty);
+                    pending = 0;
+                }
+            } catch (final InterruptedException ie) {
+                /* Nothing interrupts us, carry on until stopped. */
+            }
+        }
+
+        flush(console, dirty);
+    }
+
+    /**
+     * Write a batch of lines to the console buffer and their writers.
+     *
+     * @param batch Lines to write.
+     * @param console Buffer for console output.
+     * @param dirty Writers that have been written to since the last flush.
+     */
+    private void write(final List<Record> batch, final StringBuilder console, final Set<BufferedWriter> dirty) {
+        final long droppedNow = dropped.get();
+        if (droppedNow != reportedDropped) {
+            console.append("[Logger] ").append(droppedNow - reportedDropped).append(" lines dropped.\n");
+            reportedDropped = droppedNow;
+        }
+
+        for (final Record record : batch) {
+            if (record == STOP) { continue; }
+            console.append(record.line).append('\n');
+            if (record.writer != null && record.logger.getWriter() == record.writer) {
+                try {
+                    synchronized (record.writer) {
+                        record.writer.append(record.line + "\n");
+                    }
+                    dirty.add(record.writer);
+                } catch (final IOException ioe) {
+                    // Writing failed, so abandon writer!
+                    record.logger.writerFailed(record.writer);
+                    dirty.remove(record.writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write out the console buffer and flush any written-to writers.
+     *
+     * @param console Buffer for console output.
+     * @param dirty Writers that have been written to since the last flush.
+     */
+    private void flush(final StringBuilder console, final Set<BufferedWriter> dirty) {
+        if (console.length() > 0) {
+            final PrintStream out = System.out;
+            out.print(console);
+            out.flush();
+            console.setLength(0);
+        }
+        for (final BufferedWriter writer : dirty) {
+            try {
+                writer.flush();
+            } catch (final IOException ioe) {
+                /* The logger will abandon it on the next write. */
+            }
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Stop accepting lines, and wait for any queued lines to be written.
+     *
+     * The writer thread is woken by queueing a marker rather than by
+     * interrupting it, as an interrupt during a write can close the file
+     * being written to. If the queue is full the thread will notice that
+     * we are stopping once it has written what is queued.
+     *
+     * Lines logged after this is called are returned to the logger to write
+     * itself.
+     *
+     * @param timeout Maximum time in milliseconds to wait.
+     * @return True if all queued lines were written.
+     */
+    public boolean shutdown(final long timeout) {
+        running = false;
+        queue.offer(STOP);
+        if (Thread.currentThread() == thread) { return false; }
+        try {
+            thread.join(Math.max(1, timeout));
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) { return false; }
+
+        // Anything that was blocked in append() while the thread was
+        // finishing may have been queued after it stopped.
+        final List<Record> batch = new ArrayList<Record>();
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            final StringBuilder console = new StringBuilder();
+            final Set<BufferedWriter> dirty = new LinkedHashSet<BufferedWriter>();
+            write(batch, console, dirty);
+            flush(console, dirty);
+        }
+        return true;
+    }
+}
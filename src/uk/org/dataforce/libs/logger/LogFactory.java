@@ -21,17 +21,70 @@
  */
 package uk.org.dataforce.libs.logger;
 
-import java.util.LinkedList;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 /**
  * Create and maintain loggers.
+ *
+ * Loggers are only weakly held, so a logger that is no longer used by
+ * anything (eg the logger of an unloaded script) is forgotten about.
+ *
+ * Named loggers use dotted names (eg "server.quakenet.script.foo.js") and take
+ * their level from the most specific level set for their name or one of its
+ * parents ("server.quakenet.script", "server.quakenet", "server"), falling
+ * back to the default level. The resolved level is cached in the logger and
+ * updated whenever levels are changed.
  */
 public class LogFactory {
     /** Current default log level. */
     private static LogLevel defaultLogLevel = LogLevel.DEBUG2;
 
-    private final static List<Logger> loggers = new LinkedList<Logger>();
+    /** All the loggers we have created that are still in use. */
+    private final static Set<Logger> loggers = Collections.newSetFromMap(new WeakHashMap<Logger, Boolean>());
+
+    /** Named loggers that may still be in use. */
+    private final static Map<String, NamedReference> namedLoggers = new HashMap<String, NamedReference>();
+
+    /** Queue that cleared references to named loggers are put on. */
+    private final static ReferenceQueue<Logger> clearedLoggers = new ReferenceQueue<Logger>();
+
+    /** Levels that have been set for names. */
+    private final static Map<String, LogLevel> levels = new TreeMap<String, LogLevel>();
+
+    /** Time in milliseconds to wait for a replaced AsyncAppender to finish. */
+    private static final long REPLACE_TIMEOUT = 5000;
+
+    /** Current AsyncAppender, or null if loggers write directly. */
+    private static AsyncAppender appender = null;
+
+    /**
+     * Weak reference to a named logger that remembers the name, so it can be
+     * removed from namedLoggers once cleared.
+     */
+    private static class NamedReference extends WeakReference<Logger> {
+        /** Name of the logger. */
+        private final String name;
+
+        /**
+         * Create a new NamedReference.
+         *
+         * @param logger Logger to reference.
+         */
+        NamedReference(final Logger logger) {
+            super(logger, clearedLoggers);
+            this.name = logger.getName();
+        }
+    }
 
     public static synchronized Logger getLogger() {
         return getLogger(defaultLogLevel);
@@ -39,10 +92,183 @@ public class LogFactory {
 
     public static synchronized Logger getLogger(final LogLevel level) {
         final Logger l = new Logger(level);
+        l.setAppender(appender);
+        loggers.add(l);
+        return l;
+    }
+
+    /**
+     * Get the logger with the given name, creating it if needed.
+     *
+     * The same logger is returned for the same name for as long as something
+     * is still using it.
+     *
+     * @param name Dotted name of the logger (eg "server.quakenet")
+     * @return The logger.
+     */
+    public static synchronized Logger getLogger(final String name) {
+        purgeCleared();
+        final NamedReference ref = namedLoggers.get(name);
+        final Logger existing = ref == null ? null : ref.get();
+        if (existing != null) { return existing; }
+
+        final Logger l = new Logger(name, resolveLevel(name));
+        l.setAppender(appender);
         loggers.add(l);
+        namedLoggers.put(name, new NamedReference(l));
         return l;
     }
 
+    /**
+     * Get the number of loggers that are still in use.
+     *
+     * @return Number of loggers.
+     */
+    public static synchronized int getLoggerCount() {
+        purgeCleared();
+        return loggers.size();
+    }
+
+    /**
+     * Forget any named loggers that are no longer in use.
+     */
+    private static void purgeCleared() {
+        Reference<? extends Logger> ref;
+        while ((ref = clearedLoggers.poll()) != null) {
+            final String name = ((NamedReference)ref).name;
+            if (namedLoggers.get(name) == ref) {
+                namedLoggers.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Get the level for the given name, from the most specific level set for
+     * it or one of its parents, or the default level.
+     *
+     * @param name Dotted name to resolve.
+     * @return Level for the name.
+     */
+    private static LogLevel resolveLevel(final String name) {
+        String current = name;
+        while (true) {
+            final LogLevel level = levels.get(current);
+            if (level != null) { return level; }
+            final int dot = current.lastIndexOf('.');
+            if (dot == -1) { return defaultLogLevel; }
+            current = current.substring(0, dot);
+        }
+    }
+
+    /**
+     * Set the level for the given name and everything under it that does not
+     * have its own level, and update any loggers that are affected.
+     *
+     * @param name Dotted name to set the level for (eg "server.quakenet")
+     * @param level New level, or null to go back to using the parent's level.
+     */
+    public static synchronized void setLevel(final String name, final LogLevel level) {
+        if (level == null) {
+            levels.remove(name);
+        } else {
+            levels.put(name, level);
+        }
+        purgeCleared();
+        for (final NamedReference ref : namedLoggers.values()) {
+            final Logger l = ref.get();
+            if (l != null && isUnder(l.getName(), name)) {
+                l.setLevel(resolveLevel(l.getName()));
+            }
+        }
+    }
+
+    /**
+     * Get the level set for the given name.
+     *
+     * @param name Dotted name to get the level for.
+     * @return Level for the name, taking parents and the default into account.
+     */
+    public static synchronized LogLevel getLevel(final String name) {
+        return resolveLevel(name);
+    }
+
+    /**
+     * Get the levels that have been set for names.
+     *
+     * @return Map of names to levels.
+     */
+    public static synchronized Map<String, LogLevel> getLevels() {
+        return new TreeMap<String, LogLevel>(levels);
+    }
+
+    /**
+     * Check if a name is the same as or under the given parent.
+     *
+     * @param name Name to check.
+     * @param parent Parent name.
+     * @return True if name is parent or one of its children.
+     */
+    private static boolean isUnder(final String name, final String parent) {
+        return name.equals(parent) || (name.startsWith(parent) && name.charAt(parent.length()) == '.');
+    }
+
+    /**
+     * Get a snapshot of the loggers still in use.
+     *
+     * @return List of loggers.
+     */
+    private static List<Logger> getLoggers() {
+        return new ArrayList<Logger>(loggers);
+    }
+
+    /**
+     * Make all loggers hand their output to the given AsyncAppender.
+     * Any previous appender is stopped once its queued output is written.
+     *
+     * @param newAppender New appender to use, or null to write directly.
+     */
+    public static void setAppender(final AsyncAppender newAppender) {
+        final AsyncAppender oldAppender;
+        synchronized (LogFactory.class) {
+            oldAppender = appender;
+            appender = newAppender;
+            for (final Logger l : getLoggers()) {
+                l.setAppender(newAppender);
+            }
+        }
+        if (oldAppender != null && oldAppender != newAppender) {
+            oldAppender.shutdown(REPLACE_TIMEOUT);
+        }
+    }
+
+    /**
+     * Get the AsyncAppender that loggers are using.
+     *
+     * @return The current appender, or null if loggers write directly.
+     */
+    public static synchronized AsyncAppender getAppender() {
+        return appender;
+    }
+
+    /**
+     * Stop the current AsyncAppender, waiting for any queued output to be
+     * written, and go back to writing directly.
+     *
+     * @param timeout Maximum time in milliseconds to wait.
+     * @return True if all queued output was written.
+     */
+    public static boolean stopAppender(final long timeout) {
+        final AsyncAppender oldAppender;
+        synchronized (LogFactory.class) {
+            oldAppender = appender;
+            appender = null;
+            for (final Logger l : getLoggers()) {
+                l.setAppender(null);
+            }
+        }
+        return oldAppender == null || oldAppender.shutdown(timeout);
+    }
+
     /**
      * Get the default log level.
      *
@@ -63,12 +289,14 @@ public class LogFactory {
 
     /**
      * Set the default log level and update all loggers.
+     * Any levels set for names are forgotten.
      *
      * @param level The new LogLevel.
      */
     public static synchronized  void setAllLevel(final LogLevel level) {
         defaultLogLevel = level;
-        for (final Logger l : loggers) {
+        levels.clear();
+        for (final Logger l : getLoggers()) {
             l.setLevel(level);
         }
     }
@@ -29,18 +29,26 @@ import java.io.BufferedWriter;
  */
 public class Logger {
     /** Current log level. */
-    private LogLevel logLevel = LogLevel.DEBUG2;
+    private volatile LogLevel logLevel = LogLevel.DEBUG2;
+
+    /** Name this logger was registered with, or "" if it is unnamed. */
+    private final String name;
 
     /** Optional Tag for log entries. */
     private String logTag = "";
 
     /** Optional BufferedWriter to write output to in addition to console. */
-    private BufferedWriter writer = null;
+    private volatile BufferedWriter writer = null;
+
+    /** Optional AsyncAppender to hand output to rather than writing it. */
+    private volatile AsyncAppender appender = null;
 
     /**
      * Create a new default Logger.
      */
-    public Logger() { }
+    public Logger() {
+        this.name = "";
+    }
 
     /**
      * Create a new logger at the given log level
@@ -48,9 +56,29 @@ public class Logger {
      * @param Logger
      */
     public Logger(final LogLevel logLevel) {
+        this("", logLevel);
+    }
+
+    /**
+     * Create a new named logger at the given log level
+     *
+     * @param name Name of the logger (eg "server.quakenet")
+     * @param logLevel Initial log level.
+     */
+    public Logger(final String name, final LogLevel logLevel) {
+        this.name = (name == null) ? "" : name;
         this.logLevel = logLevel;
     }
 
+    /**
+     * Get the name this logger was created with.
+     *
+     * @return The logger name, or "" if it is unnamed.
+     */
+    public String getName() {
+        return name;
+    }
+
     /**
      * Change the logTag for this logger.
      *
@@ -91,6 +119,38 @@ public class Logger {
         return writer;
     }
 
+    /**
+     * Called by an AsyncAppender when writing to our writer fails.
+     * This stops us trying this again every line.
+     *
+     * @param failedWriter Writer that failed.
+     */
+    void writerFailed(final BufferedWriter failedWriter) {
+        if (writer == failedWriter) {
+            writer = null;
+        }
+    }
+
+    /**
+     * Set an AsyncAppender to hand output to, rather than writing it on the
+     * calling thread.
+     * Setting this to null will go back to writing output directly.
+     *
+     * @param newAppender New appender to use.
+     */
+    public void setAppender(final AsyncAppender newAppender) {
+        appender = newAppender;
+    }
+
+    /**
+     * Get the current AsyncAppender we are using.
+     *
+     * @return The appender we are using, or null if output is written directly.
+     */
+    public AsyncAppender getAppender() {
+        return appender;
+    }
+
     /**
      * Log data at a customiseable log level.
      *
@@ -98,24 +158,104 @@ public class Logger {
      * @param data Information to log.
      */
     public void log(final LogLevel level, final String data) {
-        if (level.isLoggable(logLevel) && level != LogLevel.SILENT) {
+        if (isEnabled(level)) {
             final String output = data == null ? "" : String.format("[%s%s] %s", (logTag.isEmpty() ? "" : logTag + ":"), level, data);
+            final BufferedWriter currentWriter = writer;
+
+            final AsyncAppender currentAppender = appender;
+            if (currentAppender != null && currentAppender.append(this, currentWriter, output)) {
+                return;
+            }
 
             System.out.println(output);
-            if (writer != null) {
+            if (currentWriter != null) {
                 try {
-                    writer.append(output);
-                    writer.append("\n");
-                    writer.flush();
+                    // The writer may be shared with other loggers (eg a
+                    // server and its scripts) logging from other threads,
+                    // so the line must be written in one go.
+                    synchronized (currentWriter) {
+                        currentWriter.append(output + "\n");
+                        currentWriter.flush();
+                    }
                 } catch (final Exception e) {
                     // Writing failed, so abandon writer!
                     // This stops us trying this again every line.
-                    writer = null;
+                    writerFailed(currentWriter);
                 }
             }
         }
     }
 
+    /**
+     * Check if data at the given level would be logged.
+     *
+     * Use this to avoid building messages that would not be logged.
+     *
+     * @param level Level to check.
+     * @return True if data at the given level would be logged.
+     */
+    public boolean isEnabled(final LogLevel level) {
+        return level != LogLevel.SILENT && level.isLoggable(logLevel);
+    }
+
+    /**
+     * Log a formatted message at a customiseable log level.
+     * The message is only formatted if the level is enabled.
+     *
+     * @param level Level of this information.
+     * @param format Format string, as used by String.format.
+     * @param arg Argument for the format string.
+     */
+    public void log(final LogLevel level, final String format, final Object arg) {
+        if (isEnabled(level)) {
+            log(level, String.format(format, arg));
+        }
+    }
+
+    /**
+     * Log a formatted message at a customiseable log level.
+     * The message is only formatted if the level is enabled.
+     *
+     * @param level Level of this information.
+     * @param format Format string, as used by String.format.
+     * @param arg1 First argument for the format string.
+     * @param arg2 Second argument for the format string.
+     */
+    public void log(final LogLevel level, final String format, final Object arg1, final Object arg2) {
+        if (isEnabled(level)) {
+            log(level, String.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * Log a formatted message at a customiseable log level.
+     * The message is only formatted if the level is enabled, but the
+     * argument array is always created, so prefer the fixed argument versions
+     * on hot paths.
+     *
+     * @param level Level of this information.
+     * @param format Format string, as used by String.format.
+     * @param args Arguments for the format string.
+     */
+    public void log(final LogLevel level, final String format, final Object... args) {
+        if (isEnabled(level)) {
+            log(level, String.format(format, args));
+        }
+    }
+
+    /**
+     * Log a message at a customiseable log level.
+     * The message is only built if the level is enabled.
+     *
+     * @param level Level of this information.
+     * @param message Message to log.
+     */
+    public void log(final LogLevel level, final LogMessage message) {
+        if (isEnabled(level)) {
+            log(level, message.getMessage());
+        }
+    }
+
     /**
      * Log data at the error level.
      *
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A Writer that appends to a log file, and rotates the file by size and time.
+ *
+ * The file is written with a FileOutputStream rather than a FileChannel, as a
+ * FileChannel is closed if a thread writing to it is interrupted, which would
+ * stop all logging to the file.
+ *
+ * Rotation only happens when the writer is flushed, which Logger does after
+ * each line (or each batch of lines when using an AsyncAppender), so lines
+ * are never split between files. A rotated file is renamed to
+ * "name.yyyyMMdd-HHmmss" and a new file is started. Compressing the rotated
+ * file and deleting old ones is done on a background thread so that logging
+ * never waits for it.
+ */
+public class RotatingLogWriter extends Writer {
+    /** Charset that lines are written in. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Suffix for compressed files. */
+    private static final String GZIP_SUFFIX = ".gz";
+
+    /** Thread used to compress and delete rotated files. */
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        /** {@inheritDoc} */
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Log Compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /** File we are writing to. */
+    private final File file;
+
+    /** Current rotation policy. */
+    private volatile RotationPolicy policy;
+
+    /** Stream for the current file, or null if closed. */
+    private FileOutputStream out;
+
+    /** Bytes in the current file. */
+    private long size;
+
+    /** Time of the next time based rotation. */
+    private long nextRotation;
+
+    /** High surrogate left over from the last write, or 0. */
+    private char pendingSurrogate;
+
+    /**
+     * Create a new RotatingLogWriter that never rotates.
+     *
+     * @param file File to append to.
+     * @throws IOException if the file can not be opened.
+     */
+    public RotatingLogWriter(final File file) throws IOException {
+        this(file, RotationPolicy.NEVER);
+    }
+
+    /**
+     * Create a new RotatingLogWriter.
+     *
+     * Any rotated files left uncompressed by a previous run are compressed.
+     *
+     * @param file File to append to.
+     * @param policy When to rotate the file.
+     * @throws IOException if the file can not be opened.
+     */
+    public RotatingLogWriter(final File file, final RotationPolicy policy) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.policy = policy;
+        open();
+        cleanUp(null);
+    }
+
+    /**
+     * Change the rotation policy.
+     *
+     * @param newPolicy New policy.
+     */
+    public void setPolicy(final RotationPolicy newPolicy) {
+        synchronized (lock) {
+            policy = newPolicy;
+            nextRotation = newPolicy.getNextRotation(System.currentTimeMillis());
+        }
+        cleanUp(null);
+    }
+
+    /**
+     * Get the current rotation policy.
+     *
+     * @return Current policy.
+     */
+    public RotationPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the file we are writing to.
+     *
+     * @return Current log file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Open the log file for appending.
+     *
+     * @throws IOException if the file can not be opened.
+     */
+    private void open() throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        out = new FileOutputStream(file, true);
+        size = file.length();
+        nextRotation = policy.getNextRotation(System.currentTimeMillis());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        synchronized (lock) {
+            if (out == null) { throw new IOException("Log file is closed"); }
+            if (len == 0) { return; }
+
+            final CharBuffer chars;
+            if (pendingSurrogate == 0) {
+                chars = CharBuffer.wrap(cbuf, off, len);
+            } else {
+                chars = CharBuffer.allocate(len + 1);
+                chars.put(pendingSurrogate).put(cbuf, off, len).flip();
+                pendingSurrogate = 0;
+            }
+
+            // Don't split a surrogate pair between writes.
+            if (Character.isHighSurrogate(chars.get(chars.limit() - 1))) {
+                pendingSurrogate = chars.get(chars.limit() - 1);
+                chars.limit(chars.limit() - 1);
+            }
+
+            final ByteBuffer bytes = CHARSET.encode(chars);
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            size += bytes.remaining();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Once the data is written, the file is rotated if the policy says so.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            if (out == null) { return; }
+            final RotationPolicy current = policy;
+            final boolean bySize = current.getMaxSize() > 0 && size >= current.getMaxSize();
+            if (bySize || System.currentTimeMillis() >= nextRotation) {
+                rotate();
+            }
+        }
+    }
+
+    /**
+     * Rotate the log file now.
+     *
+     * @throws IOException if the new file can not be opened.
+     */
+    public void rotate() throws IOException {
+        final File rotated;
+        synchronized (lock) {
+            if (out == null) { return; }
+            out.close();
+            out = null;
+
+            if (size > 0) {
+                rotated = getRotatedName();
+                if (!file.renameTo(rotated)) {
+                    // Keep going with the same file rather than losing lines.
+                    open();
+                    return;
+                }
+            } else {
+                rotated = null;
+            }
+            open();
+        }
+        cleanUp(rotated);
+    }
+
+    /**
+     * Get an unused name for the current file once rotated.
+     *
+     * @return File to rename the current file to.
+     */
+    private File getRotatedName() {
+        final String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File result = new File(file.getPath() + "." + stamp);
+        for (int i = 1; result.exists() || new File(result.getPath() + GZIP_SUFFIX).exists(); i++) {
+            result = new File(file.getPath() + "." + stamp + "-" + i);
+        }
+        return result;
+    }
+
+    /**
+     * Compress rotated files and delete old ones, in the background.
+     *
+     * @param rotated File that was just rotated, or null to only check files
+     *        left by a previous rotation.
+     */
+    private void cleanUp(final File rotated) {
+        final RotationPolicy current = policy;
+        compressor.execute(new Runnable() {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                if (current.isCompress()) {
+                    if (rotated != null) { compress(rotated); }
+                    for (final File leftover : getRotatedFiles()) {
+                        if (!leftover.getName().endsWith(GZIP_SUFFIX)) {
+                            compress(leftover);
+                        }
+                    }
+                }
+                applyRetention(current);
+            }
+        });
+    }
+
+    /**
+     * Get the rotated files for our log file, oldest first.
+     *
+     * Files are ordered by the time they were last written to, which
+     * compression keeps.
+     *
+     * @return List of rotated files.
+     */
+    private List<File> getRotatedFiles() {
+        final String prefix = file.getName() + ".";
+        final File[] files = file.getParentFile().listFiles();
+        if (files == null) { return Collections.emptyList(); }
+
+        final List<File> result = new ArrayList<File>();
+        for (final File candidate : files) {
+            final String name = candidate.getName();
+            if (name.startsWith(prefix) && name.length() > prefix.length() && Character.isDigit(name.charAt(prefix.length())) && !name.endsWith(".tmp")) {
+                result.add(candidate);
+            }
+        }
+        Collections.sort(result, new Comparator<File>() {
+            /** {@inheritDoc} */
+            @Override
+            public int compare(final File o1, final File o2) {
+                final long modified1 = o1.lastModified();
+                final long modified2 = o2.lastModified();
+                if (modified1 != modified2) {
+                    return modified1 < modified2 ? -1 : 1;
+                }
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Gzip a rotated file, deleting the original once done.
+     *
+     * @param rotated File to compress.
+     */
+    private static void compress(final File rotated) {
+        final File compressed = new File(rotated.getPath() + GZIP_SUFFIX);
+        final File temp = new File(rotated.getPath() + GZIP_SUFFIX + ".tmp");
+        try {
+            final InputStream in = new FileInputStream(rotated);
+            try {
+                final OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024);
+                try {
+                    final byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            // Keep the time of the last line, so that retention works by it.
+            temp.setLastModified(rotated.lastModified());
+            if (temp.renameTo(compressed)) {
+                rotated.delete();
+            } else {
+                temp.delete();
+            }
+        } catch (final IOException ioe) {
+            // Leave the uncompressed file, we will try again next rotation.
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete rotated files that are beyond the retention limits.
+     *
+     * @param current Policy to apply.
+     */
+    private void applyRetention(final RotationPolicy current) {
+        final List<File> rotated = getRotatedFiles();
+        final long cutoff = current.getMaxAge() > 0 ? System.currentTimeMillis() - current.getMaxAge() : Long.MIN_VALUE;
+        final int excess = current.getKeep() > 0 ? rotated.size() - current.getKeep() : 0;
+        for (int i = 0; i < rotated.size(); i++) {
+            final File candidate = rotated.get(i);
+            if (i < excess || candidate.lastModified() < cutoff) {
+                candidate.delete();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
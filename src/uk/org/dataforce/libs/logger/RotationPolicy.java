@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import java.util.TimeZone;
+
+/**
+ * Settings for when a RotatingLogWriter rotates its file, and what happens
+ * to the rotated files.
+ */
+public class RotationPolicy {
+    /** Policy that never rotates. */
+    public static final RotationPolicy NEVER = new RotationPolicy(0, 0, 0, 0, false);
+
+    /** Rotate once the file is this many bytes, or 0 for no limit. */
+    private final long maxSize;
+
+    /** Rotate every this many milliseconds, or 0 for no limit. */
+    private final long interval;
+
+    /** Keep at most this many rotated files, or 0 for no limit. */
+    private final int keep;
+
+    /** Delete rotated files older than this many milliseconds, or 0 for no limit. */
+    private final long maxAge;
+
+    /** Compress rotated files? */
+    private final boolean compress;
+
+    /**
+     * Create a new RotationPolicy.
+     *
+     * @param maxSize Rotate once the file is this many bytes, or 0 for no limit.
+     * @param interval Rotate every this many milliseconds, or 0 for no limit.
+     *        Rotations happen on multiples of the interval in local time, so
+     *        a day rotates at midnight.
+     * @param keep Keep at most this many rotated files, or 0 for no limit.
+     * @param maxAge Delete rotated files older than this many milliseconds,
+     *        or 0 for no limit.
+     * @param compress Gzip rotated files?
+     */
+    public RotationPolicy(final long maxSize, final long interval, final int keep, final long maxAge, final boolean compress) {
+        this.maxSize = Math.max(0, maxSize);
+        this.interval = Math.max(0, interval);
+        this.keep = Math.max(0, keep);
+        this.maxAge = Math.max(0, maxAge);
+        this.compress = compress;
+    }
+
+    /**
+     * Get the size in bytes at which files are rotated.
+     *
+     * @return Maximum size, or 0 for no limit.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get how often files are rotated, in milliseconds.
+     *
+     * @return Rotation interval, or 0 for no limit.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Get the maximum number of rotated files to keep.
+     *
+     * @return Number of files, or 0 for no limit.
+     */
+    public int getKeep() {
+        return keep;
+    }
+
+    /**
+     * Get the age in milliseconds after which rotated files are deleted.
+     *
+     * @return Maximum age, or 0 for no limit.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Are rotated files compressed?
+     *
+     * @return True if rotated files are gzipped.
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * Get the time of the next rotation after the given time.
+     *
+     * @param now Current time in milliseconds.
+     * @return Time of the next rotation, or Long.MAX_VALUE if there is none.
+     */
+    public long getNextRotation(final long now) {
+        if (interval == 0) { return Long.MAX_VALUE; }
+        final long offset = TimeZone.getDefault().getOffset(now);
+        return ((now + offset) / interval + 1) * interval - offset;
+    }
+
+    /**
+     * Parse a size such as "500", "64k", "10M" or "1g" into bytes.
+     *
+     * @param value Value to parse.
+     * @param fallback Value to return if value can not be parsed.
+     * @return Size in bytes.
+     */
+    public static long parseSize(final String value, final long fallback) {
+        final String trimmed = value.trim().toLowerCase();
+        if (trimmed.isEmpty()) { return fallback; }
+        long multiplier = 1;
+        String number = trimmed;
+        switch (trimmed.charAt(trimmed.length() - 1)) {
+            case 'k': multiplier = 1024L; break;
+            case 'm': multiplier = 1024L * 1024; break;
+            case 'g': multiplier = 1024L * 1024 * 1024; break;
+            default: break;
+        }
+        if (multiplier != 1) { number = trimmed.substring(0, trimmed.length() - 1).trim(); }
+        try {
+            return Long.parseLong(number) * multiplier;
+        } catch (final NumberFormatException nfe) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,816 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * A persistent string key/value store kept in a single append-only file.
+ *
+ * Every put or remove appends a record to the end of a memory mapped file,
+ * and an in-memory index maps each key to the record holding its current
+ * value, so reads and writes are plain memory accesses. Records are
+ * checksummed, and when the file is opened it is replayed up to the first
+ * record that is incomplete or damaged, so a crash part way through a write
+ * only loses that write.
+ *
+ * Records that have been replaced or removed are left in the file until
+ * they make up more than half of it, at which point the file is compacted
+ * in the background by copying the live records to a new file and swapping
+ * it in. Reads and writes carry on while this happens.
+ *
+ * File format: a header (magic, version), then records of (crc32, key
+ * length, value length or -1 for a removal, key bytes, value bytes), with
+ * keys and values in UTF-8. The mapped file is grown in steps, so the space
+ * after the last record is always zero filled.
+ */
+public class LogStore implements Closeable {
+
+    /** Magic number at the start of every store file ("SBST"). */
+    private static final int MAGIC = 0x53425354;
+
+    /** Current file format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the file header. */
+    private static final int FILE_HEADER_SIZE = 8;
+
+    /** Size of the header before each record's key. */
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /** Smallest size that a store file is mapped with. */
+    private static final int MIN_CAPACITY = 64 * 1024;
+
+    /** Largest size that a store file can grow to. */
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /** Minimum bytes of dead records before the file is compacted. */
+    private static final long COMPACT_MIN_GARBAGE = 1024 * 1024;
+
+    /** Charset used for keys and values. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Logger to report problems to. */
+    private static final Logger logger = LogFactory.getLogger("store");
+
+    /** Thread used to sync and compact stores in the background. */
+    private static ScheduledExecutorService maintenance;
+
+    /** File that we store data in. */
+    private final File file;
+
+    /** When writes are forced to disk. */
+    private final SyncPolicy policy;
+
+    /** Checksum used for records, guarded by this. */
+    private final CRC32 crc = new CRC32();
+
+    /** Buffer for checksumming the lengths of a record, guarded by this. */
+    private final byte[] lengths = new byte[8];
+
+    /** Lock held while compacting, and by close() to wait for compaction. */
+    private final Object compactLock = new Object();
+
+    /** Lock held while syncing, and by close() to wait for a sync. */
+    private final Object syncLock = new Object();
+
+    /** Location of the current record for each key. */
+    private Map<String, Location> index = new HashMap<String, Location>();
+
+    /** The open data file, or null once closed. */
+    private MappedFile data;
+
+    /** Position that the next record will be written at. */
+    private int writePos;
+
+    /** Total size of the records in the index. */
+    private long liveBytes;
+
+    /** Have there been writes since the last sync? */
+    private boolean dirty;
+
+    /** Has a background compaction been queued? */
+    private boolean compactScheduled;
+
+    /** Has close() been called? */
+    private volatile boolean closed;
+
+    /** Task that syncs this store, if using SyncPolicy.INTERVAL. */
+    private ScheduledFuture<?> syncTask;
+
+    /** Task used to compact this store in the background. */
+    private final Runnable compactTask = new Runnable() {
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            try {
+                compact();
+            } catch (final IOException ioe) {
+                logger.error("Error compacting store '" + file + "': " + ioe.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Open a store, creating it if it does not exist.
+     *
+     * @param file File to store data in.
+     * @param policy When writes should be forced to disk.
+     * @param syncInterval Milliseconds between syncs for SyncPolicy.INTERVAL.
+     * @throws IOException if the store can not be opened, is not a store
+     *         file, or is already open.
+     */
+    public LogStore(final File file, final SyncPolicy policy, final long syncInterval) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.policy = policy;
+
+        final File directory = this.file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+
+        data = new MappedFile(this.file, MIN_CAPACITY);
+        try {
+            recover();
+        } catch (final IOException ioe) {
+            data.close(-1);
+            throw ioe;
+        }
+
+        if (policy == SyncPolicy.INTERVAL) {
+            final long interval = Math.max(1, syncInterval);
+            syncTask = getMaintenance().scheduleWithFixedDelay(new Runnable() {
+                /** {@inheritDoc} */
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get the thread used to sync and compact stores, creating it if needed.
+     *
+     * @return The maintenance thread.
+     */
+    private static synchronized ScheduledExecutorService getMaintenance() {
+        if (maintenance == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                /** {@inheritDoc} */
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "Store Maintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            maintenance = executor;
+        }
+        return maintenance;
+    }
+
+    /**
+     * Build the index by replaying the data file, stopping at the first
+     * record that is incomplete or damaged.
+     *
+     * @throws IOException if the file is not a store file.
+     */
+    private void recover() throws IOException {
+        final ByteBuffer buffer = data.buffer.duplicate();
+        final long length = data.initialLength;
+        if (length == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writePos = FILE_HEADER_SIZE;
+            return;
+        }
+        if (length < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a store file: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported store version " + buffer.getInt(4) + ": " + file);
+        }
+
+        int position = FILE_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= length) {
+            final int checksum = buffer.getInt(position);
+            final int keyLength = buffer.getInt(position + 4);
+            final int valueLength = buffer.getInt(position + 8);
+            if (keyLength <= 0 || valueLength < -1) { break; }
+            final long end = (long)position + recordLength(keyLength, valueLength);
+            if (end > length) { break; }
+
+            final byte[] key = new byte[keyLength];
+            final byte[] value = valueLength < 0 ? null : new byte[valueLength];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(key);
+            if (value != null) { buffer.get(value); }
+            if (checksum(key, value) != checksum) { break; }
+
+            final String name = new String(key, UTF8);
+            final Location old;
+            if (value == null) {
+                old = index.remove(name);
+            } else {
+                final Location location = new Location(position, keyLength, valueLength);
+                old = index.put(name, location);
+                liveBytes += location.recordLength();
+            }
+            if (old != null) { liveBytes -= old.recordLength(); }
+            position = (int)end;
+        }
+        writePos = position;
+
+        if (position < length) {
+            // Left over from a crash, clear it so that it can not be
+            // mistaken for records written after it.
+            logger.warning("Store '" + file + "' was not closed cleanly, discarding " + (length - position) + " bytes after the last good record.");
+            final byte[] zeros = new byte[8192];
+            buffer.position(position);
+            while (buffer.position() < length) {
+                buffer.put(zeros, 0, (int)Math.min(zeros.length, length - buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * Get the size of a record.
+     *
+     * @param keyLength Length of the key in bytes.
+     * @param valueLength Length of the value in bytes, or -1 for a removal.
+     * @return Size of the record in bytes.
+     */
+    private static int recordLength(final int keyLength, final int valueLength) {
+        return RECORD_HEADER_SIZE + keyLength + Math.max(0, valueLength);
+    }
+
+    /**
+     * Calculate the checksum for a record.
+     *
+     * @param key Key bytes.
+     * @param value Value bytes, or null for a removal.
+     * @return Checksum of the record.
+     */
+    private synchronized int checksum(final byte[] key, final byte[] value) {
+        final int valueLength = value == null ? -1 : value.length;
+        putInt(lengths, 0, key.length);
+        putInt(lengths, 4, valueLength);
+        crc.reset();
+        crc.update(lengths, 0, lengths.length);
+        crc.update(key, 0, key.length);
+        if (value != null) { crc.update(value, 0, value.length); }
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Write an int into a byte array, most significant byte first.
+     *
+     * @param bytes Array to write to.
+     * @param offset Offset to write at.
+     * @param value Value to write.
+     */
+    private static void putInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte)(value >>> 24);
+        bytes[offset + 1] = (byte)(value >>> 16);
+        bytes[offset + 2] = (byte)(value >>> 8);
+        bytes[offset + 3] = (byte)value;
+    }
+
+    /**
+     * Get the value for a key.
+     *
+     * @param key Key to look up.
+     * @return The value, or null if the key is not set.
+     * @throws IOException if the store is closed.
+     */
+    public synchronized String get(final String key) throws IOException {
+        checkOpen();
+        final Location location = index.get(key);
+        if (location == null) { return null; }
+
+        final byte[] value = new byte[location.valueLength];
+        data.buffer.position(location.position + RECORD_HEADER_SIZE + location.keyLength);
+        data.buffer.get(value);
+        return new String(value, UTF8);
+    }
+
+    /**
+     * Set the value for a key.
+     *
+     * @param key Key to set, this can not be empty.
+     * @param value Value to set.
+     * @throws IOException if the store is closed or full.
+     */
+    public synchronized void put(final String key, final String value) throws IOException {
+        checkOpen();
+        if (key.isEmpty()) { throw new IllegalArgumentException("Key can not be empty"); }
+
+        final byte[] keyBytes = key.getBytes(UTF8);
+        final byte[] valueBytes = value.getBytes(UTF8);
+        final Location location = new Location(append(keyBytes, valueBytes), keyBytes.length, valueBytes.length);
+        final Location old = index.put(key, location);
+        if (old != null) { liveBytes -= old.recordLength(); }
+        liveBytes += location.recordLength();
+        written();
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key Key to remove.
+     * @return True if the key was set.
+     * @throws IOException if the store is closed or full.
+     */
+    public synchronized boolean remove(final String key) throws IOException {
+        checkOpen();
+        if (!index.containsKey(key)) { return false; }
+
+        append(key.getBytes(UTF8), null);
+        liveBytes -= index.remove(key).recordLength();
+        written();
+        return true;
+    }
+
+    /**
+     * Check if a key is set.
+     *
+     * @param key Key to check.
+     * @return True if the key is set.
+     * @throws IOException if the store is closed.
+     */
+    public synchronized boolean contains(final String key) throws IOException {
+        checkOpen();
+        return index.containsKey(key);
+    }
+
+    /**
+     * Get all the keys that are set.
+     *
+     * @return A copy of the keys, in no particular order.
+     * @throws IOException if the store is closed.
+     */
+    public synchronized List<String> keys() throws IOException {
+        checkOpen();
+        return new ArrayList<String>(index.keySet());
+    }
+
+    /**
+     * Get the number of keys that are set.
+     *
+     * @return Number of keys.
+     * @throws IOException if the store is closed.
+     */
+    public synchronized int size() throws IOException {
+        checkOpen();
+        return index.size();
+    }
+
+    /**
+     * Get the number of bytes used in the data file, including records that
+     * are waiting to be compacted away.
+     *
+     * @return Size of the data in bytes.
+     */
+    public synchronized long getDataSize() {
+        return writePos;
+    }
+
+    /**
+     * Get the file that this store keeps its data in.
+     *
+     * @return Data file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Make sure that the store is still open.
+     *
+     * @throws IOException if the store has been closed.
+     */
+    private void checkOpen() throws IOException {
+        if (data == null) { throw new IOException("Store is closed: " + file); }
+    }
+
+    /**
+     * Append a record to the data file.
+     *
+     * @param key Key bytes.
+     * @param value Value bytes, or null for a removal.
+     * @return Position the record was written at.
+     * @throws IOException if the file is full or can not be grown.
+     */
+    private int append(final byte[] key, final byte[] value) throws IOException {
+        final int valueLength = value == null ? -1 : value.length;
+        final int length = recordLength(key.length, valueLength);
+        data.ensureCapacity((long)writePos + length);
+
+        final int position = writePos;
+        final MappedByteBuffer buffer = data.buffer;
+        buffer.position(position);
+        buffer.putInt(checksum(key, value)).putInt(key.length).putInt(valueLength).put(key);
+        if (value != null) { buffer.put(value); }
+        writePos = position + length;
+        return position;
+    }
+
+    /**
+     * Called after each write to sync it if needed, and to start compacting
+     * if enough of the file is dead records.
+     */
+    private void written() {
+        if (policy == SyncPolicy.ALWAYS) {
+            data.buffer.force();
+        } else {
+            dirty = true;
+        }
+
+        final long garbage = writePos - FILE_HEADER_SIZE - liveBytes;
+        if (!compactScheduled && garbage >= COMPACT_MIN_GARBAGE && garbage > liveBytes) {
+            compactScheduled = true;
+            getMaintenance().execute(compactTask);
+        }
+    }
+
+    /**
+     * Force any writes since the last sync to disk.
+     */
+    public void sync() {
+        synchronized (syncLock) {
+            final MappedByteBuffer buffer;
+            synchronized (this) {
+                if (data == null || !dirty) { return; }
+                dirty = false;
+                buffer = data.buffer;
+            }
+            // Done without holding our lock, so reads and writes can carry on.
+            buffer.force();
+        }
+    }
+
+    /**
+     * Rewrite the data file with only the live records.
+     *
+     * The live records are copied without holding our lock. Only the records
+     * written while that was happening are copied with it held, just before
+     * the new file replaces the old one.
+     *
+     * @throws IOException if the new file can not be written.
+     */
+    public void compact() throws IOException {
+        synchronized (compactLock) {
+            try {
+                doCompact();
+            } finally {
+                synchronized (this) {
+                    compactScheduled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the data file with only the live records.
+     *
+     * @throws IOException if the new file can not be written.
+     */
+    private void doCompact() throws IOException {
+        final long start = System.nanoTime();
+        final Map<String, Location> snapshot;
+        final ByteBuffer source;
+        final int end;
+        final long live;
+        synchronized (this) {
+            if (data == null || writePos - FILE_HEADER_SIZE == liveBytes) { return; }
+            snapshot = new HashMap<String, Location>(index);
+            source = data.buffer.duplicate();
+            end = writePos;
+            live = liveBytes;
+        }
+
+        final File temp = new File(file.getParentFile(), "." + file.getName() + ".compact");
+        Files.deleteIfExists(temp.toPath());
+        final MappedFile target = new MappedFile(temp, (int)Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, 2 * (FILE_HEADER_SIZE + live))));
+        boolean swapped = false;
+        try {
+            target.buffer.putInt(0, MAGIC);
+            target.buffer.putInt(4, VERSION);
+
+            final Map<String, Location> moved = new HashMap<String, Location>(snapshot.size() * 4 / 3 + 1);
+            int position = FILE_HEADER_SIZE;
+            for (final Map.Entry<String, Location> entry : snapshot.entrySet()) {
+                if (closed) { return; }
+                final Location location = entry.getValue();
+                copy(source, location.position, target, position, location.recordLength());
+                moved.put(entry.getKey(), location.moveTo(position));
+                position += location.recordLength();
+            }
+            if (policy != SyncPolicy.NONE) { target.buffer.force(); }
+
+            final int oldSize;
+            synchronized (this) {
+                if (data == null) { return; }
+
+                // Records written since we started are copied as they are,
+                // they are replayed after the live records when reopening.
+                final int tail = writePos - end;
+                copy(data.buffer.duplicate(), end, target, position, tail);
+                final int shift = position - end;
+                final Map<String, Location> newIndex = new HashMap<String, Location>(index.size() * 4 / 3 + 1);
+                for (final Map.Entry<String, Location> entry : index.entrySet()) {
+                    final Location location = entry.getValue();
+                    newIndex.put(entry.getKey(), location.position >= end ? location.moveTo(location.position + shift) : moved.get(entry.getKey()));
+                }
+                if (policy != SyncPolicy.NONE) { target.buffer.force(); }
+
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException amnse) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                syncDirectory(file.getParentFile());
+
+                oldSize = writePos;
+                data.close(-1);
+                data = target;
+                index = newIndex;
+                writePos = position + tail;
+                swapped = true;
+            }
+            logger.debug("Compacted store '" + file + "' from " + oldSize + " to " + (position + oldSize - end) + " bytes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        } finally {
+            if (!swapped) {
+                target.close(-1);
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+    }
+
+    /**
+     * Copy bytes from a buffer into a mapped file, growing it if needed.
+     *
+     * @param source Buffer to copy from, this must be our own duplicate.
+     * @param from Position to copy from.
+     * @param target File to copy to.
+     * @param to Position to copy to.
+     * @param length Number of bytes to copy.
+     * @throws IOException if the target can not be grown.
+     */
+    private static void copy(final ByteBuffer source, final int from, final MappedFile target, final int to, final int length) throws IOException {
+        target.ensureCapacity((long)to + length);
+        source.clear();
+        source.position(from);
+        source.limit(from + length);
+        final ByteBuffer out = target.buffer.duplicate();
+        out.position(to);
+        out.put(source);
+    }
+
+    /**
+     * Sync the given directory so that a rename inside it is on disk.
+     * Not all platforms allow this, so failures are ignored.
+     *
+     * @param directory Directory to sync.
+     */
+    private static void syncDirectory(final File directory) {
+        try {
+            final FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (final IOException ioe) {
+            /* Not supported here, the rename will still reach disk eventually. */
+        }
+    }
+
+    /**
+     * Close this store, syncing it first unless using SyncPolicy.NONE.
+     *
+     * This waits for any compaction in progress to stop.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (compactLock) {
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (data == null) { return; }
+                    if (syncTask != null) { syncTask.cancel(false); }
+                    if (policy != SyncPolicy.NONE) { data.buffer.force(); }
+                    data.close(writePos);
+                    data = null;
+                    index.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Where the current record for a key is in the data file.
+     */
+    private static final class Location {
+        /** Position of the record. */
+        private final int position;
+
+        /** Length of the key in bytes. */
+        private final int keyLength;
+
+        /** Length of the value in bytes. */
+        private final int valueLength;
+
+        /**
+         * Create a new Location.
+         *
+         * @param position Position of the record.
+         * @param keyLength Length of the key in bytes.
+         * @param valueLength Length of the value in bytes.
+         */
+        Location(final int position, final int keyLength, final int valueLength) {
+            this.position = position;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        /**
+         * Get the size of the record.
+         *
+         * @return Size of the record in bytes.
+         */
+        int recordLength() {
+            return LogStore.recordLength(keyLength, valueLength);
+        }
+
+        /**
+         * Get the location of this record after it has been moved.
+         *
+         * @param newPosition New position of the record.
+         * @return New Location.
+         */
+        Location moveTo(final int newPosition) {
+            return new Location(newPosition, keyLength, valueLength);
+        }
+    }
+
+    /**
+     * An open, locked and memory mapped data file.
+     */
+    private static final class MappedFile {
+        /** The file. */
+        private final File file;
+
+        /** The open file. */
+        private final RandomAccessFile raf;
+
+        /** Lock that stops the file being opened twice. */
+        private final FileLock lock;
+
+        /** Length of the file when it was opened. */
+        private final long initialLength;
+
+        /** Mapping of the whole file. */
+        private MappedByteBuffer buffer;
+
+        /** Size of the mapping. */
+        private int capacity;
+
+        /**
+         * Open and map a file.
+         *
+         * @param file File to open, this is created if needed.
+         * @param minCapacity Minimum size to map the file with.
+         * @throws IOException if the file can not be opened or is in use.
+         */
+        MappedFile(final File file, final int minCapacity) throws IOException {
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            boolean opened = false;
+            try {
+                lock = tryLock(raf.getChannel());
+                if (lock == null) {
+                    throw new IOException("Store is already in use: " + file);
+                }
+                initialLength = raf.length();
+                if (initialLength > MAX_CAPACITY) {
+                    throw new IOException("Store file is too large: " + file);
+                }
+                map(Math.max((int)initialLength, minCapacity));
+                opened = true;
+            } finally {
+                if (!opened) { raf.close(); }
+            }
+        }
+
+        /**
+         * Try to lock a file.
+         *
+         * @param channel Channel to lock.
+         * @return The lock, or null if the file is already locked.
+         * @throws IOException if the file can not be locked.
+         */
+        private static FileLock tryLock(final FileChannel channel) throws IOException {
+            try {
+                return channel.tryLock();
+            } catch (final OverlappingFileLockException ofle) {
+                return null;
+            }
+        }
+
+        /**
+         * Map the file with the given size, growing the file if needed.
+         *
+         * @param size Size to map.
+         * @throws IOException if the file can not be grown or mapped.
+         */
+        private void map(final int size) throws IOException {
+            if (raf.length() < size) { raf.setLength(size); }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            capacity = size;
+        }
+
+        /**
+         * Make sure the mapping is at least the given size, doubling it until
+         * it is.
+         *
+         * @param needed Size needed.
+         * @throws IOException if the file can not be grown.
+         */
+        void ensureCapacity(final long needed) throws IOException {
+            if (needed <= capacity) { return; }
+            if (needed > MAX_CAPACITY) {
+                throw new IOException("Store is full: " + file);
+            }
+            long size = Math.max(capacity, MIN_CAPACITY);
+            while (size < needed) { size *= 2; }
+            map((int)Math.min(size, MAX_CAPACITY));
+        }
+
+        /**
+         * Close the file.
+         *
+         * @param length Length to truncate the file to, or -1 to leave it.
+         */
+        void close(final int length) {
+            buffer = null;
+            try {
+                if (length >= 0) { raf.setLength(length); }
+            } catch (final IOException ioe) {
+                /* Some platforms can not truncate a mapped file, the zeros
+                 * after the last record are ignored when it is opened. */
+            }
+            try {
+                raf.close();
+            } catch (final IOException ioe) {
+                /* Nothing we can do. */
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.store;
+
+/**
+ * When a LogStore forces its writes to disk.
+ *
+ * Writes go to a memory mapped file, so they survive the process dying
+ * even with NONE, syncing only matters if the machine itself goes down.
+ */
+public enum SyncPolicy {
+    /** Never sync, leave it to the operating system. */
+    NONE,
+    /** Sync at most once per sync interval, batching all writes since. */
+    INTERVAL,
+    /** Sync after every write. */
+    ALWAYS;
+
+    /**
+     * Get the SyncPolicy for the given config value.
+     *
+     * @param value Config value (eg "interval")
+     * @param fallback Policy to use if value is not recognised.
+     * @return The matching SyncPolicy, or fallback.
+     */
+    public static SyncPolicy fromString(final String value, final SyncPolicy fallback) {
+        for (final SyncPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim())) {
+                return policy;
+            }
+        }
+        return fallback;
+    }
+}
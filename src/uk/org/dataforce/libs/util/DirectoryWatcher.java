@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories for files being created or changed.
+ *
+ * Editors often write a file in several steps, so changes are collected
+ * until no more have been seen for a quiet period, and each changed file is
+ * then passed to fileChanged() once.
+ */
+public abstract class DirectoryWatcher implements Runnable {
+
+    /** Service used to watch directories. */
+    private final WatchService watchService;
+
+    /** Directory that each watch key belongs to. */
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+    /** Time to wait for files to stop changing. */
+    private final long quietPeriod;
+
+    /** Thread that waits for changes. */
+    private final Thread thread;
+
+    /** Are we still running? */
+    private volatile boolean running = true;
+
+    /**
+     * Create a new DirectoryWatcher.
+     * Subclasses should call start() once they are ready.
+     *
+     * @param name Name for the watcher thread.
+     * @param quietPeriod Time in milliseconds that files must be left alone
+     *        for before they are passed on.
+     * @throws IOException If the platform can not watch files.
+     */
+    protected DirectoryWatcher(final String name, final long quietPeriod) throws IOException {
+        this.quietPeriod = Math.max(1, quietPeriod);
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Start the watcher thread.
+     */
+    protected void start() {
+        thread.start();
+    }
+
+    /**
+     * Start watching the given directory, if we are not already.
+     *
+     * @param directory Directory to watch.
+     * @throws IOException If the directory can not be watched.
+     */
+    protected synchronized void watchDirectory(final Path directory) throws IOException {
+        if (!directories.containsValue(directory)) {
+            final WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            directories.put(key, directory);
+        }
+    }
+
+    /**
+     * Stop watching the given directory.
+     *
+     * @param directory Directory to stop watching.
+     */
+    protected synchronized void unwatchDirectory(final Path directory) {
+        for (Map.Entry<WatchKey, Path> entry : directories.entrySet()) {
+            if (entry.getValue().equals(directory)) {
+                entry.getKey().cancel();
+                directories.remove(entry.getKey());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if we care about changes to the given file.
+     *
+     * @param file File that changed.
+     * @return True if fileChanged() should be called for it.
+     */
+    protected abstract boolean isWatched(final Path file);
+
+    /**
+     * Get all the files we care about, used when changes may have been
+     * missed.
+     *
+     * @return All watched files.
+     */
+    protected abstract Collection<Path> getWatchedFiles();
+
+    /**
+     * Called once a watched file has changed and been left alone for the
+     * quiet period.
+     *
+     * @param file File that changed.
+     */
+    protected abstract void fileChanged(final Path file);
+
+    /**
+     * Called when a directory is created inside a watched directory.
+     *
+     * @param directory Directory that was created.
+     */
+    protected void directoryCreated(final Path directory) {
+        /* Nothing by default. */
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        final Set<Path> changed = new LinkedHashSet<Path>();
+        while (running) {
+            final WatchKey key;
+            try {
+                key = changed.isEmpty() ? watchService.take() : watchService.poll(quietPeriod, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException ie) {
+                continue;
+            } catch (final ClosedWatchServiceException cwse) {
+                break;
+            }
+
+            if (key == null) {
+                // Quiet period is over.
+                for (Path file : changed) {
+                    if (!running) { break; }
+                    fileChanged(file);
+                }
+                changed.clear();
+                continue;
+            }
+
+            final Path directory;
+            synchronized (this) {
+                directory = directories.get(key);
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    changed.addAll(getWatchedFiles());
+                } else if (directory != null) {
+                    final Path file = directory.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                        directoryCreated(file);
+                    } else if (isWatched(file)) {
+                        changed.add(file);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                synchronized (this) {
+                    directories.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop watching for changes.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (final IOException ioe) { /* Nothing more we can do. */ }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.util;
+
+/**
+ * What to do when something is added to a bounded queue that is full.
+ */
+public enum OverflowPolicy {
+    /** Wait for room in the queue. */
+    BLOCK,
+    /** Discard the item being added. */
+    DROP_NEWEST,
+    /** Discard the oldest queued item to make room. */
+    DROP_OLDEST;
+
+    /**
+     * Get the OverflowPolicy for the given config value.
+     *
+     * @param value Config value (eg "dropoldest" or "drop_oldest")
+     * @param fallback Policy to use if value is not recognised.
+     * @return The matching OverflowPolicy, or fallback.
+     */
+    public static OverflowPolicy fromString(final String value, final OverflowPolicy fallback) {
+        final String name = value.replace("_", "").replace("-", "");
+        for (final OverflowPolicy policy : values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return fallback;
+    }
+}
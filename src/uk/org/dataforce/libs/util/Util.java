@@ -84,6 +84,21 @@ public final class Util {
         }
     }
 
+    /**
+     * Get the sha256 hash of some bytes.
+     *
+     * @param bytes Bytes to hash
+     * @return sha256 hash of given bytes
+     */
+    public static String sha256Hash(final byte[] bytes) {
+        try {
+            final MessageDigest m = MessageDigest.getInstance("SHA-256");
+            return new BigInteger(1, m.digest(bytes)).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            return "";
+        }
+    }
+
 
     /**
      * Below code from DMDirc DateUtils:
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.LogLevel;
+import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.scriptbot.scripts.Script;
+import uk.org.dataforce.scriptbot.scripts.ScriptExecutor;
+import uk.org.dataforce.scriptbot.scripts.ScriptHandler;
+import uk.org.dataforce.scriptbot.scripts.stats.InvocationStats;
+
+/**
+ * Reads operator commands from the console.
+ *
+ * Currently supported commands are:
+ *   stats [server]          - Dump the call stats for every script.
+ *   loglevel [name [level]] - Show or change the level of named loggers.
+ *   help                    - List the commands.
+ */
+public class ConsoleReader extends Thread {
+    /** The ScriptBot instance that this ConsoleReader is for. */
+    private final ScriptBot myBot;
+
+    /**
+     * Create the ConsoleReader.
+     *
+     * @param bot ScriptBot instance
+     */
+    public ConsoleReader(final ScriptBot bot) {
+        super("Console Reader");
+        myBot = bot;
+        setDaemon(true);
+    }
+
+    /**
+     * Read and handle commands until the console is closed.
+     */
+    @Override
+    public void run() {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                handleCommand(line.trim());
+            }
+        } catch (final IOException ioe) {
+            myBot.getLogger().error("Error reading from console: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Handle a line from the console.
+     *
+     * @param line Line to handle.
+     */
+    private void handleCommand(final String line) {
+        if (line.isEmpty()) { return; }
+
+        final String[] bits = line.split("\\s+");
+        final Logger logger = myBot.getLogger();
+        if (bits[0].equalsIgnoreCase("stats")) {
+            dumpStats(logger, bits.length > 1 ? bits[1] : null);
+        } else if (bits[0].equalsIgnoreCase("loglevel")) {
+            logLevel(logger, bits);
+        } else if (bits[0].equalsIgnoreCase("help")) {
+            logger.info("Console commands:");
+            logger.info("\tstats [server]          - Show call and queue stats for scripts.");
+            logger.info("\tloglevel [name [level]] - Show or change logger levels.");
+            logger.info("\t                          (eg: loglevel server.quakenet debug3)");
+            logger.info("\thelp                    - Show this help.");
+        } else {
+            logger.info("Unknown command '" + bits[0] + "', try 'help'.");
+        }
+    }
+
+    /**
+     * Show or change the level of named loggers.
+     *
+     * With no name this lists the levels that have been set. With a name it
+     * shows the level for that name. With a name and level it sets the level
+     * for that name and everything under it, "default" removes the level so
+     * that the parent's level is used again.
+     *
+     * @param logger Logger to reply to.
+     * @param bits Command and arguments.
+     */
+    private void logLevel(final Logger logger, final String[] bits) {
+        if (bits.length < 2) {
+            logger.info("Default level: " + LogFactory.getDefaultLevel());
+            for (final Map.Entry<String, LogLevel> entry : LogFactory.getLevels().entrySet()) {
+                logger.info("\t" + entry.getKey() + ": " + entry.getValue());
+            }
+            return;
+        }
+
+        final String name = bits[1];
+        if (bits.length > 2) {
+            if (bits[2].equalsIgnoreCase("default")) {
+                LogFactory.setLevel(name, null);
+            } else {
+                try {
+                    LogFactory.setLevel(name, LogLevel.valueOf(bits[2].toUpperCase()));
+                } catch (final IllegalArgumentException iae) {
+                    logger.info("Unknown level '" + bits[2] + "'.");
+                    return;
+                }
+            }
+        }
+        logger.info("Level for " + name + ": " + LogFactory.getLevel(name));
+    }
+
+    /**
+     * Dump the call stats for all the scripts on a server, or all servers.
+     * Scripts using async dispatch also show their queue depth and how many
+     * calls have been submitted and dropped.
+     *
+     * @param logger Logger to dump to.
+     * @param serverName Server to dump, or null for all servers.
+     */
+    private void dumpStats(final Logger logger, final String serverName) {
+        for (final Server server : myBot.getServerManager().getServers()) {
+            if (serverName != null && !server.getName().equalsIgnoreCase(serverName)) { continue; }
+
+            final ScriptHandler handler = server.getScriptHandler();
+            if (handler == null) { continue; }
+
+            for (final Script script : handler.getScripts()) {
+                logger.info("Stats for " + server.getName() + ">" + script.getFile().getName() + ":");
+                final ScriptExecutor executor = script.getExecutor();
+                if (executor != null) {
+                    logger.info("\tqueue: depth=" + executor.getQueueDepth() + " submitted=" + executor.getSubmittedCount() + " dropped=" + executor.getDroppedCount());
+                }
+                for (final InvocationStats stats : script.getStats().getAll()) {
+                    logger.info("\t" + stats);
+                }
+            }
+        }
+    }
+}
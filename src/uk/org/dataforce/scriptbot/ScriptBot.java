@@ -24,21 +24,30 @@ package uk.org.dataforce.scriptbot;
 import java.io.BufferedWriter;
 import uk.org.dataforce.scriptbot.config.BlackHoleConfig;
 import uk.org.dataforce.scriptbot.config.Config;
+import uk.org.dataforce.scriptbot.config.ConfigChangedListener;
+import uk.org.dataforce.scriptbot.config.ConfigWatcher;
 import uk.org.dataforce.scriptbot.config.InvalidConfigFileException;
+import uk.org.dataforce.scriptbot.scripts.ScriptWatcher;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import uk.org.dataforce.libs.cliparser.BooleanParam;
 import uk.org.dataforce.libs.cliparser.CLIParam;
 import uk.org.dataforce.libs.cliparser.CLIParser;
 import uk.org.dataforce.libs.cliparser.StringParam;
+import uk.org.dataforce.libs.logger.AsyncAppender;
 import uk.org.dataforce.libs.logger.LogFactory;
 import uk.org.dataforce.libs.logger.LogLevel;
 import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.logger.RotatingLogWriter;
+import uk.org.dataforce.libs.logger.RotationPolicy;
+import uk.org.dataforce.libs.util.OverflowPolicy;
 
 /**
  * Main Bot Class.
@@ -59,12 +68,44 @@ public class ScriptBot {
     /** The config file name */
     private String configFile = "ScriptBot.conf";
 
+    /** Time in milliseconds to wait for queued log lines when shutting down. */
+    private static final long SHUTDOWN_LOG_TIMEOUT = 5000;
+
+    /** Default time in milliseconds allowed for stopping all servers. */
+    private static final long SHUTDOWN_SERVER_TIMEOUT = 5000;
+
     /** The time that the bot was started at */
     public static final Long startTime = System.currentTimeMillis();
 
     /** Global config. */
     private Config config;
 
+    /** Main log file, or null if there is none. */
+    private RotatingLogWriter logFileWriter;
+
+    /** Rotation policy for log files. */
+    private RotationPolicy logRotation = RotationPolicy.NEVER;
+
+    /** Directory for per-server log files, or null if they are disabled. */
+    private File serverLogDirectory;
+
+    /** Watches config files for changes, or null if we are not watching. */
+    private ConfigWatcher configWatcher;
+
+    /** Watches script files for changes, or null if we are not watching. */
+    private ScriptWatcher scriptWatcher;
+
+    /** Starts and stops servers when "serverConfigs" changes. */
+    private final ConfigChangedListener serverConfigsListener = new ConfigChangedListener() {
+        /** {@inheritDoc} */
+        @Override
+        public void configChanged(final String domain, final String setting) {
+            if (domain == null || domain.equals("serverConfigs")) {
+                updateServers();
+            }
+        }
+    };
+
     /** Shutdown hook. */
     private ShutdownHook shutdownHook;
 
@@ -88,7 +129,7 @@ public class ScriptBot {
      */
     private ScriptBot() {
         LogFactory.setDefaultLevel(LogLevel.INFO);
-        logger = LogFactory.getLogger();
+        logger = LogFactory.getLogger("scriptbot");
         cli = new CLIParser(logger);
         serverManager = new ServerManager(this);
     }
@@ -205,22 +246,19 @@ public class ScriptBot {
             System.exit(1);
         }
 
+        setupAsyncLogging();
+        setupLogRotation();
+        setupConfigWatcher();
+
         if (cli.getParamNumber("-scriptdir") > 0) { scriptsDirectory = cli.getParam("-scriptdir").getStringValue(); }
         logger.info("Scripts are located at: " + getScriptsDirectory());
 
         // By now, we will have forked if required.
 
         logger.info("Loading Servers");
-        final Map<String,String> configs = config.getOptionDomain("serverConfigs");
-
-        for (Map.Entry<String,String> entry : configs.entrySet()) {
-            final Server server = serverManager.loadServer(entry.getKey() , configDirectory + File.separator + entry.getValue());
-            if (server.begin()) {
-                logger.info("\tServer running.");
-            } else {
-                logger.info("\tServer failed to start.");
-            }
-        }
+        updateServers();
+        config.addListener(serverConfigsListener);
+        setupScriptWatcher();
 
         if (ScriptBotDaemon.canFork() && daemon.isDaemonized()) {
             logger.info("Forked and running! (PID: " + ScriptBotDaemon.getPID() +")");
@@ -232,6 +270,9 @@ public class ScriptBot {
             }
         } else {
             logger.info("Running!");
+            if (System.console() != null) {
+                new ConsoleReader(this).start();
+            }
         }
     }
 
@@ -252,16 +293,10 @@ public class ScriptBot {
         final CLIParam logFile = cli.getParam("-logfile");
         if (!logFile.getStringValue().isEmpty()) {
             final File file = new File(logFile.getStringValue());
-            if (!file.exists()) {
-                try {
-                    file.createNewFile();
-                } catch (final IOException ex) {
-                    logger.error("Unable to create log file: " + ex);
-                }
-            }
 
             try {
-                final BufferedWriter bw = new BufferedWriter(new FileWriter(file, true));
+                logFileWriter = new RotatingLogWriter(file);
+                final BufferedWriter bw = new BufferedWriter(logFileWriter);
                 final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
                 if (!logger.getTag().isEmpty()) {
                     bw.append("[");
@@ -280,6 +315,194 @@ public class ScriptBot {
         }
     }
 
+    /**
+     * Set up log rotation and per-server log files from the config.
+     *
+     * Rotation applies to the main log file (if any) and the per-server log
+     * files, which are written to the "serverlogs" directory if one is set.
+     */
+    private void setupLogRotation() {
+        final long maxSize = RotationPolicy.parseSize(config.getOption("logging", "rotatesize", "0"), 0);
+        final long interval = TimeUnit.MINUTES.toMillis(config.getLongOption("logging", "rotateinterval", 0));
+        final int keep = config.getIntOption("logging", "keep", 0);
+        final long maxAge = TimeUnit.DAYS.toMillis(config.getLongOption("logging", "maxage", 0));
+        final boolean compress = config.getBoolOption("logging", "compress", true);
+        logRotation = new RotationPolicy(maxSize, interval, keep, maxAge, compress);
+
+        if (logFileWriter != null) {
+            logFileWriter.setPolicy(logRotation);
+        }
+
+        final String serverLogs = config.getOption("logging", "serverlogs", "");
+        serverLogDirectory = serverLogs.isEmpty() ? null : new File(serverLogs);
+        if (serverLogDirectory != null) {
+            logger.info("Server logs are located at: " + serverLogDirectory);
+        }
+    }
+
+    /**
+     * Watch the config files for changes if the config asks for it.
+     *
+     * Changed files are re-read and only the differences are applied, so
+     * servers, channels and scripts that were not touched keep running.
+     */
+    private void setupConfigWatcher() {
+        if (!config.getBoolOption("config", "watch", true)) { return; }
+
+        try {
+            configWatcher = new ConfigWatcher(config.getLongOption("config", "watchdelay", 500));
+            configWatcher.watch(config);
+            logger.info("Watching config files for changes.");
+        } catch (final IOException ex) {
+            logger.error("Unable to watch config files for changes: " + ex);
+            configWatcher = null;
+        }
+    }
+
+    /**
+     * Watch the scripts directory for changes if the config asks for it.
+     *
+     * Scripts whose contents change are reloaded in every server that has
+     * them loaded, other scripts are left alone.
+     */
+    private void setupScriptWatcher() {
+        if (!config.getBoolOption("config", "watchscripts", false)) { return; }
+
+        try {
+            scriptWatcher = new ScriptWatcher(serverManager, getScriptsDirectory(), config.getLongOption("config", "watchdelay", 500));
+            logger.info("Watching scripts for changes.");
+        } catch (final IOException ex) {
+            logger.error("Unable to watch scripts for changes: " + ex);
+            scriptWatcher = null;
+        }
+    }
+
+    /**
+     * Start or stop servers so that the running servers match the
+     * "serverConfigs" domain.
+     *
+     * Servers whose entry is unchanged are left alone, a server whose config
+     * file has changed name is restarted using the new file. New servers are
+     * started in parallel.
+     */
+    private synchronized void updateServers() {
+        final Map<String, String> configs = new HashMap<String, String>(config.getOptionDomain("serverConfigs"));
+
+        for (Server server : serverManager.getServers()) {
+            final String file = configs.get(server.getName());
+            if (file == null || !getServerConfigFile(file).getAbsoluteFile().equals(server.getConfig().getFile().getAbsoluteFile())) {
+                stopServer(server);
+            }
+        }
+
+        final Map<String, File> toStart = new LinkedHashMap<String, File>();
+        for (Map.Entry<String, String> entry : configs.entrySet()) {
+            if (serverManager.getServer(entry.getKey()) == null) {
+                toStart.put(entry.getKey(), getServerConfigFile(entry.getValue()));
+            }
+        }
+
+        final int threads = config.getIntOption("startup", "threads", Runtime.getRuntime().availableProcessors());
+        new ServerStarter(serverManager, logger, threads) {
+            /** {@inheritDoc} */
+            @Override
+            protected void serverLoaded(final Server server) {
+                setupServer(server);
+            }
+        }.start(toStart);
+    }
+
+    /**
+     * Get the file for the given "serverConfigs" entry.
+     *
+     * @param name Config file name, relative to the config directory.
+     * @return The config file.
+     */
+    private File getServerConfigFile(final String name) {
+        return new File(configDirectory + File.separator + name);
+    }
+
+    /**
+     * Set up logging and config watching for a server that has just been
+     * loaded.
+     *
+     * @param server Server to set up.
+     */
+    private void setupServer(final Server server) {
+        setupServerLogging(server);
+        if (configWatcher != null) {
+            try {
+                configWatcher.watch(server.getConfig());
+            } catch (final IOException ex) {
+                logger.error("Unable to watch config for '" + server.getName() + "': " + ex);
+            }
+        }
+    }
+
+    /**
+     * Stop and unload a server that is no longer in the config.
+     *
+     * @param server Server to stop.
+     */
+    private void stopServer(final Server server) {
+        logger.info("Server '" + server.getName() + "' removed from config, stopping.");
+        server.stop("Server removed.");
+        serverManager.unloadServer(server.getName());
+        if (configWatcher != null) {
+            configWatcher.unwatch(server.getConfig());
+        }
+        closeServerLogging(server);
+    }
+
+    /**
+     * Close the given server's own log file, if it has one.
+     *
+     * @param server Server to close log file for.
+     */
+    private void closeServerLogging(final Server server) {
+        final BufferedWriter serverLog = server.getLogger().getWriter();
+        if (serverLog != null) {
+            server.getLogger().setWriter(null);
+            try {
+                serverLog.close();
+            } catch (final IOException ioe) { /** Oh well. */ }
+        }
+    }
+
+    /**
+     * Give the given server its own log file, if per-server logs are enabled.
+     *
+     * @param server Server to set up.
+     */
+    private void setupServerLogging(final Server server) {
+        if (serverLogDirectory == null) { return; }
+        final File file = new File(serverLogDirectory, server.getName() + ".log");
+        try {
+            server.getLogger().setWriter(new BufferedWriter(new RotatingLogWriter(file, logRotation)));
+        } catch (final IOException ex) {
+            logger.error("Unable to open log file for " + server.getName() + ": " + ex);
+        }
+    }
+
+    /**
+     * Set up asynchronous logging if the config asks for it.
+     *
+     * When enabled, log lines are handed to a background thread that writes
+     * them to the console and log file in batches, rather than being written
+     * on the thread that logged them.
+     */
+    private void setupAsyncLogging() {
+        if (!config.getBoolOption("logging", "async", false)) { return; }
+
+        final int queueSize = config.getIntOption("logging", "queuesize", 8192);
+        final OverflowPolicy policy = OverflowPolicy.fromString(config.getOption("logging", "overflow", "block"), OverflowPolicy.BLOCK);
+        final int flushLines = config.getIntOption("logging", "flushlines", 256);
+        final long flushInterval = config.getLongOption("logging", "flushinterval", 100);
+
+        LogFactory.setAppender(new AsyncAppender(queueSize, policy, flushLines, flushInterval));
+        logger.info("Using asynchronous logging (Queue: " + queueSize + ", Overflow: " + policy + ")");
+    }
+
     /**
      * Load the version info from the jar file if present.
      */
@@ -344,17 +567,21 @@ public class ScriptBot {
         logger.info("---------------------");
         logger.info("Shuting down.");
 
-        logger.info("Closing servers...");
-        for (Server server : serverManager.getServers()) {
-            logger.info("Shutting down '" + server.getName() + "'... ");
-            if (server.stop("Shutting down.")) {
-                logger.info(" Done!");
-            } else {
-                logger.info(" Failed!");
-            }
+        if (configWatcher != null) {
+            configWatcher.shutdown();
+            configWatcher = null;
+        }
+        if (scriptWatcher != null) {
+            scriptWatcher.shutdown();
+            scriptWatcher = null;
         }
 
-        if (config != null) {
+        logger.info("Closing servers...");
+        final long timeout = config == null ? SHUTDOWN_SERVER_TIMEOUT : config.getLongOption("shutdown", "timeout", SHUTDOWN_SERVER_TIMEOUT);
+        new ServerStopper(logger, timeout).stop(serverManager.getServers(), "Shutting down.");
+
+        Config.flushPendingSaves();
+        if (config != null && config.isDirty()) {
             logger.info("Saving config to '"+configFile+"'");
             config.save();
         }
@@ -367,6 +594,15 @@ public class ScriptBot {
             }
         }
 
+        // Write out anything still queued before the log file is closed.
+        if (!LogFactory.stopAppender(SHUTDOWN_LOG_TIMEOUT)) {
+            logger.warning("Timed out writing queued log lines.");
+        }
+
+        for (Server server : serverManager.getServers()) {
+            closeServerLogging(server);
+        }
+
         final BufferedWriter bw = logger.getWriter();
         if (bw != null) {
             logger.info("Closing log file");
@@ -393,6 +629,15 @@ public class ScriptBot {
         }
     }
 
+    /**
+     * Get the server manager.
+     *
+     * @return The server manager.
+     */
+    public ServerManager getServerManager() {
+        return serverManager;
+    }
+
     /**
      * Get a file object pointing at the scripts directory.
      *
@@ -402,6 +647,16 @@ public class ScriptBot {
         return new File(new File(configDirectory), scriptsDirectory);
     }
 
+    /**
+     * Get a file object pointing at the directory that script stores are
+     * kept in.
+     *
+     * @return File object pointing at the store directory.
+     */
+    public File getStoreDirectory() {
+        return new File(new File(configDirectory), "store");
+    }
+
     /**
      * Get the name of the configfile
      *
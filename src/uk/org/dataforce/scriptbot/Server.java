@@ -23,6 +23,7 @@ package uk.org.dataforce.scriptbot;
 
 import uk.org.dataforce.scriptbot.scripts.ScriptHandler;
 import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.Parser;
 import com.dmdirc.parser.interfaces.callbacks.DataInListener;
 import com.dmdirc.parser.interfaces.callbacks.DataOutListener;
@@ -34,16 +35,21 @@ import com.dmdirc.parser.irc.IRCParser;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.LogLevel;
 import uk.org.dataforce.libs.logger.Logger;
 import uk.org.dataforce.scriptbot.config.Config;
+import uk.org.dataforce.scriptbot.config.ConfigChangedListener;
 import uk.org.dataforce.scriptbot.scripts.ParserBridge;
 
 /**
  * Class that represents an individual server.
  */
-public class Server implements ServerReadyListener, DataInListener, DataOutListener, DebugInfoListener, NickInUseListener, NumericListener {
+public class Server implements ServerReadyListener, DataInListener, DataOutListener, DebugInfoListener, NickInUseListener, NumericListener, ConfigChangedListener {
 
     /** My Manager. */
     private final ServerManager manager;
@@ -55,13 +61,13 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
     private final Config configFile;
 
     /** My Parser */
-    private Parser myParser;
+    private volatile Parser myParser;
 
     /** My Script Handler */
-    private ScriptHandler myScriptHandler;
+    private volatile ScriptHandler myScriptHandler;
 
     /** My Parser Bridge */
-    private ParserBridge myParserBridge;
+    private volatile ParserBridge myParserBridge;
 
     /** My logger. */
     private Logger logger;
@@ -75,6 +81,15 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
     /** What nickname do we think we have? (Used for nickinuse) */
     private String thinkNickname;
 
+    /** Have we been told the server is ready? (Used for autojoin) */
+    private boolean serverReady = false;
+
+    /** Scripts loaded from the "scripts" domain. */
+    private List<String> configScripts = Collections.<String>emptyList();
+
+    /** Channels joined from the "autojoin" domain. */
+    private List<String> autojoinChannels = Collections.<String>emptyList();
+
     /**
      * Create a new Server
      *
@@ -85,8 +100,9 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
         this.manager = manager;
         this.name = name;
         this.configFile = configFile;
-        logger = LogFactory.getLogger();
+        logger = LogFactory.getLogger("server." + name);
         logger.setTag(name);
+        configFile.addListener(this);
     }
 
     /**
@@ -143,13 +159,22 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
         return myScriptHandler;
     }
 
+    /**
+     * Get the parser bridge for this Server
+     *
+     * @return The parser bridge for this Server
+     */
+    public ParserBridge getParserBridge() {
+        return myParserBridge;
+    }
+
     /**
      * Create a new parser based on the config file.
      *
      * @return New PARSER instance based on the config file.
      * @throw URISyntaxException if the settings for the parser are invalid.
      */
-    private Parser createParser() throws URISyntaxException {
+    protected Parser createParser() throws URISyntaxException {
         Parser parser = null;
         final String parserType = configFile.getOption("server", "type", "").toLowerCase();
 
@@ -186,9 +211,26 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
     /**
      * Run this server.
      *
+     * This is the same as calling prepare(), loading each of the scripts
+     * from getConfigScripts() and then calling connect().
+     *
      * @return True if the server started running.
      */
-    public boolean begin() {
+    public synchronized boolean begin() {
+        if (!prepare()) { return false; }
+        for (final String script : configScripts) {
+            loadScript(script);
+        }
+        return connect();
+    }
+
+    /**
+     * Get ready to run this server, by creating the parser and script
+     * handler. Scripts are not loaded and we do not connect yet.
+     *
+     * @return True if the server is ready to have its scripts loaded.
+     */
+    public synchronized boolean prepare() {
         if (myParser != null) { return false; }
         if (!configFile.getBoolOption("server", "enabled", false)) {
             logger.error("Server not enabled, aborting.");
@@ -201,19 +243,36 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
             logger.error("Error creating parser: " + use);
             return false;
         }
-        myScriptHandler = new ScriptHandler(this);
-        if (configFile.hasFlatDomain("scripts")) {
-            for (final String script : configFile.getFlatDomain("scripts")) {
-                final File scriptFile = new File(manager.getBot().getScriptsDirectory(), script);
-                logger.info("Loading script: " + scriptFile.toString());
-                if (scriptFile.exists()) {
-                    myScriptHandler.loadScript(scriptFile);
-                }
-            }
+        if (myParser == null) {
+            logger.error("Unknown server type: " + configFile.getOption("server", "type", ""));
+            return false;
         }
+        myScriptHandler = new ScriptHandler(this);
+        configScripts = getConfigList("scripts");
+        return true;
+    }
+
+    /**
+     * Get the scripts that this server loads from the "scripts" domain.
+     *
+     * @return Names of the scripts, relative to the scripts directory.
+     */
+    public synchronized List<String> getConfigScripts() {
+        return new ArrayList<String>(configScripts);
+    }
+
+    /**
+     * Connect to the server, once prepare() has been called and the scripts
+     * have been loaded.
+     *
+     * @return True if we started connecting.
+     */
+    public synchronized boolean connect() {
+        if (myParser == null || myParserBridge != null) { return false; }
 
         got001 = false;
         triedAlt = false;
+        serverReady = false;
         myParser.getCallbackManager().addAllCallback(this);
         myParserBridge = new ParserBridge(this);
 
@@ -222,12 +281,59 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
         return true;
     }
 
+    /**
+     * Stop this server, first giving calls already queued for our scripts
+     * up to the given time to run, so that anything they send goes out
+     * before we quit.
+     *
+     * Scripts stop getting new events while we wait.
+     *
+     * @param reason Reason for stopping.
+     * @param timeout Maximum time to wait for queued calls, in milliseconds.
+     * @return True if the server stopped running.
+     */
+    public boolean stop(final String reason, final long timeout) {
+        final ScriptHandler handler = myScriptHandler;
+        if (handler != null && timeout > 0) {
+            synchronized (this) {
+                if (myParser != null) {
+                    if (myParserBridge != null) { myParserBridge.clear(); }
+                    handler.detach();
+                }
+            }
+            if (!handler.awaitIdle(timeout)) {
+                logger.warning("Timed out waiting for queued script calls, discarding them.");
+            }
+        }
+        return stop(reason);
+    }
+
+    /**
+     * Force this server to close, without waiting for a stop() that is in
+     * progress.
+     *
+     * Queued script calls are discarded and the connection is closed. This
+     * is used when a server does not stop in time, stop() should still be
+     * used where possible.
+     *
+     * @param reason Reason for closing.
+     */
+    public void forceStop(final String reason) {
+        final ScriptHandler handler = myScriptHandler;
+        if (handler != null) { handler.cancelQueuedCalls(); }
+        final Parser parser = myParser;
+        if (parser != null) { parser.disconnect(reason); }
+    }
+
     /**
      * Stop this server.
      *
+     * Any calls still queued for our scripts are discarded.
+     *
+     * @param reason Reason for stopping.
      * @return True if the server stopped running.
      */
-    public boolean stop(final String reason) {
+    public synchronized boolean stop(final String reason) {
         if (myParser == null) { return false; }
 
         if (myParser instanceof IRCParser) {
@@ -240,17 +346,129 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
         myParserBridge = null;
         myScriptHandler = null;
         myParser = null;
+        configScripts = Collections.<String>emptyList();
+        autojoinChannels = Collections.<String>emptyList();
+        serverReady = false;
         return true;
     }
 
+    /**
+     * Get the contents of a flat domain from our config.
+     *
+     * @param domain Domain to get.
+     * @return The items in the domain, or an empty list.
+     */
+    private List<String> getConfigList(final String domain) {
+        return configFile.hasFlatDomain(domain) ? configFile.getFlatDomain(domain) : Collections.<String>emptyList();
+    }
+
+    /**
+     * Load a script from the scripts directory.
+     *
+     * This does not lock the server, so the scripts for a server can be
+     * loaded in parallel between prepare() and connect().
+     *
+     * @param script Name of the script.
+     * @return True if the script loaded.
+     */
+    public boolean loadScript(final String script) {
+        final ScriptHandler handler = myScriptHandler;
+        if (handler == null) { return false; }
+
+        final File scriptFile = new File(manager.getBot().getScriptsDirectory(), script);
+        logger.info("Loading script: " + scriptFile.toString());
+        return scriptFile.exists() && handler.loadScript(scriptFile);
+    }
+
     /** {@inheritDoc} */
     @Override
-    public void onServerReady(final Parser parser, final Date date) {
-         if (configFile.hasFlatDomain("autojoin")) {
-            for (final String channel : configFile.getFlatDomain("autojoin")) {
-                parser.joinChannel(channel);
+    public void configChanged(final String domain, final String setting) {
+        if (domain == null || domain.equals("server")) {
+            if (setting == null || setting.equals("enabled")) {
+                updateEnabled();
+            } else {
+                logger.info("Setting 'server." + setting + "' changed, this will be used when the server next connects.");
+            }
+        }
+        if (domain == null || domain.equals("scripts")) {
+            updateScripts();
+        }
+        if (domain == null || domain.equals("autojoin")) {
+            updateAutojoin();
+        }
+    }
+
+    /**
+     * Start or stop this server if the "enabled" setting has changed.
+     */
+    private synchronized void updateEnabled() {
+        final boolean enabled = configFile.getBoolOption("server", "enabled", false);
+        if (enabled && myParser == null) {
+            logger.info("Server has been enabled, starting.");
+            begin();
+        } else if (!enabled && myParser != null) {
+            logger.info("Server has been disabled, stopping.");
+            stop("Server disabled.");
+        }
+    }
+
+    /**
+     * Load or unload scripts that have been added to or removed from the
+     * "scripts" domain, leaving all other scripts alone.
+     */
+    private synchronized void updateScripts() {
+        if (myScriptHandler == null) { return; }
+
+        final List<String> wanted = new ArrayList<String>(getConfigList("scripts"));
+        for (final String script : configScripts) {
+            if (!wanted.contains(script)) {
+                logger.info("Unloading script: " + script);
+                myScriptHandler.unloadScript(new File(manager.getBot().getScriptsDirectory(), script));
             }
         }
+        for (final String script : wanted) {
+            if (!configScripts.contains(script)) {
+                loadScript(script);
+            }
+        }
+        configScripts = wanted;
+    }
+
+    /**
+     * Join or part channels that have been added to or removed from the
+     * "autojoin" domain.
+     *
+     * If we are not connected yet, the channels will be joined as normal
+     * once the server is ready.
+     */
+    private synchronized void updateAutojoin() {
+        if (myParser == null || !serverReady) { return; }
+
+        final List<String> wanted = new ArrayList<String>(getConfigList("autojoin"));
+        for (final String channel : autojoinChannels) {
+            if (!wanted.contains(channel)) {
+                final ChannelInfo channelInfo = myParser.getChannel(channel);
+                if (channelInfo != null) {
+                    channelInfo.part("Removed from autojoin.");
+                }
+            }
+        }
+        for (final String channel : wanted) {
+            if (!autojoinChannels.contains(channel)) {
+                myParser.joinChannel(channel);
+            }
+        }
+        autojoinChannels = wanted;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void onServerReady(final Parser parser, final Date date) {
+        serverReady = true;
+        autojoinChannels = new ArrayList<String>(getConfigList("autojoin"));
+        for (final String channel : autojoinChannels) {
+            parser.joinChannel(channel);
+        }
     }
 
 
@@ -284,19 +502,19 @@ public class Server implements ServerReadyListener, DataInListener, DataOutListe
     /** {@inheritDoc} */
     @Override
     public void onDataIn(final Parser parser, final Date date, final String data) {
-        logger.debug3(String.format("[ IN] %s", data));
+        logger.log(LogLevel.DEBUG3, "[ IN] %s", data);
     }
 
     /** {@inheritDoc} */
     @Override
     public void onDataOut(final Parser parser, final Date date, final String data, final boolean fromParser) {
-        logger.debug3(String.format("[OUT] %s", data));
+        logger.log(LogLevel.DEBUG3, "[OUT] %s", data);
     }
 
     /** {@inheritDoc} */
     @Override
     public void onDebugInfo(final Parser parser, final Date date, final int level, final String data) {
-        logger.debug4(String.format("%d: %s", level, data));
+        logger.log(LogLevel.DEBUG4, "%d: %s", level, data);
     }
 
 }
@@ -24,9 +24,10 @@ package uk.org.dataforce.scriptbot;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import uk.org.dataforce.libs.logger.Logger;
 import uk.org.dataforce.scriptbot.config.Config;
 import uk.org.dataforce.scriptbot.config.InvalidConfigFileException;
@@ -37,7 +38,7 @@ import uk.org.dataforce.scriptbot.config.InvalidConfigFileException;
 public class ServerManager {
 
     /** Map of servers. */
-    final Map<String, Server> serverList = new HashMap<String, Server>();
+    final ConcurrentMap<String, Server> serverList = new ConcurrentHashMap<String, Server>();
 
     /** My Bot. */
     final ScriptBot myBot;
@@ -81,6 +82,7 @@ public class ServerManager {
 
     /**
      * Load a server.
+     * This is safe to call for different servers at the same time.
      *
      * @param serverName Name of server
      * @param configFileName Config file for server
@@ -90,7 +92,10 @@ public class ServerManager {
         if (!serverList.containsKey(serverName)) {
             try {
                 final Server server = new Server(this, serverName, createDefaultConfig(configFileName));
-                serverList.put(serverName, server);
+                if (serverList.putIfAbsent(serverName, server) != null) {
+                    server.getConfig().removeListener(server);
+                    return null;
+                }
                 ScriptBot.getBot().getLogger().info("Loaded server '" + serverName + "'");
                 return server;
             } catch (final IOException ioe) {
@@ -102,6 +107,22 @@ public class ServerManager {
         return null;
     }
 
+    /**
+     * Unload a server.
+     * The server should already have been stopped.
+     *
+     * @param serverName Name of server
+     * @return The server that was unloaded, or null if it was not loaded.
+     */
+    public Server unloadServer(final String serverName) {
+        final Server server = serverList.remove(serverName);
+        if (server != null) {
+            server.getConfig().removeListener(server);
+            ScriptBot.getBot().getLogger().info("Unloaded server '" + serverName + "'");
+        }
+        return server;
+    }
+
     /**
      * Get the default settings.
      *
@@ -122,6 +143,7 @@ public class ServerManager {
         // if (!defaults.hasOption("server", "realname")) { defaults.setOption("server", "realname", "ScriptBot"); }
         if (!defaults.hasOption("server", "enabled")) { defaults.setBoolOption("server", "enabled", false); }
 
+        // Only writes anything if one of the defaults above was missing.
         defaults.save();
         return defaults;
     }
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Loads and starts a set of servers in parallel.
+ *
+ * Each server's config is loaded and its parser created as one task, then
+ * each of its scripts is compiled as a task of its own. A server connects
+ * as soon as its own scripts are ready, without waiting for the others, so
+ * startup takes about as long as the slowest server rather than the sum of
+ * all of them.
+ */
+abstract class ServerStarter {
+
+    /** Manager to load servers with. */
+    private final ServerManager manager;
+
+    /** Logger to report progress to. */
+    private final Logger logger;
+
+    /** Number of threads to use. */
+    private final int threads;
+
+    /** Time spent loading configs, in nanoseconds. */
+    private final AtomicLong configTime = new AtomicLong();
+
+    /** Time spent creating parsers, in nanoseconds. */
+    private final AtomicLong parserTime = new AtomicLong();
+
+    /** Time spent loading scripts, in nanoseconds. */
+    private final AtomicLong scriptTime = new AtomicLong();
+
+    /** Number of scripts loaded. */
+    private final AtomicInteger scriptCount = new AtomicInteger();
+
+    /** Number of servers that started. */
+    private final AtomicInteger started = new AtomicInteger();
+
+    /**
+     * Create a new ServerStarter.
+     *
+     * @param manager Manager to load servers with.
+     * @param logger Logger to report progress to.
+     * @param threads Maximum number of threads to use.
+     */
+    ServerStarter(final ServerManager manager, final Logger logger, final int threads) {
+        this.manager = manager;
+        this.logger = logger;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Called once a server has been loaded, before it is started.
+     * This may be called from several threads at once.
+     *
+     * @param server Server that was loaded.
+     */
+    protected abstract void serverLoaded(final Server server);
+
+    /**
+     * Load and start the given servers, and wait until each has either
+     * started connecting or failed.
+     *
+     * @param servers Map of server name to config file.
+     */
+    public void start(final Map<String, File> servers) {
+        if (servers.isEmpty()) { return; }
+
+        final long start = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(servers.size());
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            /** Number of threads created so far. */
+            private final AtomicInteger count = new AtomicInteger();
+
+            /** {@inheritDoc} */
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Server Startup " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            for (final Map.Entry<String, File> entry : servers.entrySet()) {
+                pool.execute(new Runnable() {
+                    /** {@inheritDoc} */
+                    @Override
+                    public void run() {
+                        startServer(entry.getKey(), entry.getValue(), pool, done);
+                    }
+                });
+            }
+            done.await();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+
+        logger.info(String.format("Started %d of %d servers in %d ms using %d threads (time spent loading configs: %d ms, creating parsers: %d ms, loading %d scripts: %d ms)",
+                started.get(), servers.size(), millis(System.nanoTime() - start), threads,
+                millis(configTime.get()), millis(parserTime.get()), scriptCount.get(), millis(scriptTime.get())));
+    }
+
+    /**
+     * Load a server and get it ready, then queue loading its scripts.
+     *
+     * @param name Name of the server.
+     * @param file Config file for the server.
+     * @param pool Pool to queue script loading in.
+     * @param done Latch to count down once the server is finished with.
+     */
+    private void startServer(final String name, final File file, final ExecutorService pool, final CountDownLatch done) {
+        final long start = System.nanoTime();
+        final Server server;
+        final List<String> scripts;
+        try {
+            server = manager.loadServer(name, file.getPath());
+            if (server == null) {
+                done.countDown();
+                return;
+            }
+            serverLoaded(server);
+            final long loaded = System.nanoTime();
+            configTime.addAndGet(loaded - start);
+
+            final boolean prepared = server.prepare();
+            parserTime.addAndGet(System.nanoTime() - loaded);
+            if (!prepared) {
+                logger.info("\tServer '" + name + "' failed to start.");
+                done.countDown();
+                return;
+            }
+            scripts = server.getConfigScripts();
+        } catch (final RuntimeException re) {
+            logger.error("Error starting server '" + name + "': " + re);
+            done.countDown();
+            return;
+        }
+
+        if (scripts.isEmpty()) {
+            connect(server, start, done);
+            return;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(scripts.size());
+        for (final String script : scripts) {
+            pool.execute(new Runnable() {
+                /** {@inheritDoc} */
+                @Override
+                public void run() {
+                    final long scriptStart = System.nanoTime();
+                    try {
+                        if (server.loadScript(script)) {
+                            scriptCount.incrementAndGet();
+                        }
+                    } catch (final RuntimeException re) {
+                        server.getLogger().error("Error loading script '" + script + "': " + re);
+                    } finally {
+                        scriptTime.addAndGet(System.nanoTime() - scriptStart);
+                        if (remaining.decrementAndGet() == 0) {
+                            connect(server, start, done);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Connect a server whose scripts are ready.
+     *
+     * @param server Server to connect.
+     * @param start Time the server started loading, from System.nanoTime().
+     * @param done Latch to count down once the server is finished with.
+     */
+    private void connect(final Server server, final long start, final CountDownLatch done) {
+        try {
+            if (server.connect()) {
+                started.incrementAndGet();
+                logger.info("\tServer '" + server.getName() + "' running (ready in " + millis(System.nanoTime() - start) + " ms).");
+            } else {
+                logger.info("\tServer '" + server.getName() + "' failed to start.");
+            }
+        } catch (final RuntimeException re) {
+            logger.error("Error connecting server '" + server.getName() + "': " + re);
+        } finally {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Convert nanoseconds to milliseconds.
+     *
+     * @param nanos Time in nanoseconds.
+     * @return Time in milliseconds.
+     */
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
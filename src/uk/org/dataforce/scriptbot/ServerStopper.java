@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.org.dataforce.libs.logger.Logger;
+
+/**
+ * Stops a set of servers in parallel, within one overall deadline.
+ *
+ * Every server is stopped on a thread of its own, so shutdown takes about as
+ * long as the slowest server rather than the sum of all of them. Servers
+ * that have not stopped by the deadline are forced closed and left behind.
+ */
+class ServerStopper {
+
+    /** Logger to report progress to. */
+    private final Logger logger;
+
+    /** Overall time allowed for stopping, in milliseconds. */
+    private final long timeout;
+
+    /**
+     * Create a new ServerStopper.
+     *
+     * @param logger Logger to report progress to.
+     * @param timeout Overall time allowed for stopping, in milliseconds.
+     */
+    ServerStopper(final Logger logger, final long timeout) {
+        this.logger = logger;
+        this.timeout = Math.max(0, timeout);
+    }
+
+    /**
+     * Stop the given servers, and wait until they have all stopped or the
+     * deadline has passed.
+     *
+     * Queued script calls are given until half way to the deadline to run,
+     * leaving the rest of the time for quitting and unloading scripts.
+     *
+     * @param servers Servers to stop.
+     * @param reason Reason for stopping.
+     * @return True if every server stopped before the deadline.
+     */
+    public boolean stop(final List<Server> servers, final String reason) {
+        if (servers.isEmpty()) { return true; }
+
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final long drainTimeout = timeout / 2;
+        final ExecutorService pool = Executors.newFixedThreadPool(servers.size(), new ThreadFactory() {
+            /** Number of threads created so far. */
+            private final AtomicInteger count = new AtomicInteger();
+
+            /** {@inheritDoc} */
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Server Shutdown " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final Map<Server, Future<Boolean>> tasks = new LinkedHashMap<Server, Future<Boolean>>();
+        for (final Server server : servers) {
+            tasks.put(server, pool.submit(new Callable<Boolean>() {
+                /** {@inheritDoc} */
+                @Override
+                public Boolean call() {
+                    final long serverStart = System.nanoTime();
+                    final boolean stopped = server.stop(reason, drainTimeout);
+                    if (stopped) {
+                        logger.info("\tServer '" + server.getName() + "' stopped in " + millis(System.nanoTime() - serverStart) + " ms.");
+                    }
+                    return stopped;
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int stopped = 0;
+        final List<String> forced = new ArrayList<String>();
+        for (final Map.Entry<Server, Future<Boolean>> entry : tasks.entrySet()) {
+            final Server server = entry.getKey();
+            try {
+                if (entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    stopped++;
+                }
+            } catch (final TimeoutException te) {
+                forced.add(server.getName());
+                forceStop(server, reason);
+            } catch (final ExecutionException ee) {
+                logger.error("Error stopping server '" + server.getName() + "': " + ee.getCause());
+                forced.add(server.getName());
+                forceStop(server, reason);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                forced.add(server.getName());
+                forceStop(server, reason);
+            }
+        }
+        pool.shutdownNow();
+
+        if (!forced.isEmpty()) {
+            logger.warning("Servers not stopped within " + timeout + " ms, forced closed: " + forced);
+        }
+        logger.info(String.format("Stopped %d of %d servers in %d ms (%d forced closed).",
+                stopped, servers.size(), millis(System.nanoTime() - start), forced.size()));
+        return forced.isEmpty();
+    }
+
+    /**
+     * Force a server closed, making sure that a failure does not stop us
+     * closing the others.
+     *
+     * @param server Server to close.
+     * @param reason Reason for closing.
+     */
+    private void forceStop(final Server server, final String reason) {
+        try {
+            server.forceStop(reason);
+        } catch (final RuntimeException re) {
+            logger.error("Error forcing server '" + server.getName() + "' closed: " + re);
+        }
+    }
+
+    /**
+     * Convert nanoseconds to milliseconds.
+     *
+     * @param nanos Time in nanoseconds.
+     * @return Time in milliseconds.
+     */
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -27,13 +27,28 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import com.dmdirc.util.collections.WeakList;
 import uk.org.dataforce.scriptbot.ScriptBot;
 
 /**
  * Configuration Files.
+ *
+ * Options may be read from any thread while they are changed by setOption
+ * or reload() on another, so every access to the underlying ConfigFile is
+ * made while holding its lock. Readers that look an option up on every
+ * event should use an OptionView rather than calling getOption each time.
  */
 public class Config {
 
@@ -43,6 +58,39 @@ public class Config {
     /** Config Changed Listeners. */
     private final List<ConfigChangedListener> changeListeners = new WeakList<ConfigChangedListener>();
 
+    /** How long after a change to wait before saving, in milliseconds. */
+    private static final long SAVE_DELAY = 2000;
+
+    /** Thread that runs write-behind saves for all configs. */
+    private static ScheduledExecutorService saver;
+
+    /** Configs that have a write-behind save scheduled. */
+    private static final Set<Config> PENDING_SAVES = new LinkedHashSet<Config>();
+
+    /** Has anything changed since the config was read or last saved? */
+    private volatile boolean dirty;
+
+    /** Lock held while saving, so that saves are written in order. */
+    private final Object saveLock = new Object();
+
+    /** Modification time of the file when we last wrote it. */
+    private volatile long savedModified = -1;
+
+    /** Length of the file when we last wrote it. */
+    private volatile long savedLength = -1;
+
+    /** Task used to run a write-behind save. */
+    private final Runnable saveTask = new Runnable() {
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            synchronized (Config.class) {
+                PENDING_SAVES.remove(Config.this);
+            }
+            save();
+        }
+    };
+
     /**
      * Creates a new config based on the specified file.
      *
@@ -105,6 +153,10 @@ public class Config {
                 throw new IOException("Unable to create config file.");
             }
         }
+        if (config.getFile() != null) {
+            savedModified = config.getFile().lastModified();
+            savedLength = config.getFile().length();
+        }
         config.read();
         config.setAutomake(true);
     }
@@ -141,24 +193,37 @@ public class Config {
         changeListeners.remove(listener);
     }
 
+    /**
+     * Get the file this config was read from.
+     *
+     * @return The file for this config, or null if it was read from a stream.
+     */
+    public File getFile() {
+        return config.getFile();
+    }
+
     /**
      * Get option domain from the config
      *
      * @param domain Domain for option
-     * @return the requested option domain, or null
+     * @return a copy of the requested option domain
      */
     public Map<String, String> getOptionDomain(final String domain) {
-        return config.getKeyDomain(domain);
+        synchronized (config) {
+            return new HashMap<String, String>(config.getKeyDomain(domain));
+        }
     }
 
     /**
      * Get flat domain from the config
      *
      * @param domain Domain for option
-     * @return the requested option domain, or null
+     * @return a copy of the requested flat domain
      */
     public List<String> getFlatDomain(final String domain) {
-        return new ArrayList<String>(config.getFlatDomain(domain));
+        synchronized (config) {
+            return new ArrayList<String>(config.getFlatDomain(domain));
+        }
     }
 
     /**
@@ -168,7 +233,9 @@ public class Config {
      * @return true or false
      */
     public boolean hasFlatDomain(final String domain) {
-        return config.hasDomain(domain) && config.isFlatDomain(domain);
+        synchronized (config) {
+            return config.hasDomain(domain) && config.isFlatDomain(domain);
+        }
     }
 
     /**
@@ -178,13 +245,19 @@ public class Config {
      * @param items Items to include.
      */
     public void setFlatDomain(final String domain, final List<String> items) {
-        if (!config.hasDomain(domain)) {
-            config.addDomain(domain, items);
-        } else {
-            final List<String> list = config.getFlatDomain(domain);
-            list.clear();
-            list.addAll(items);
+        synchronized (config) {
+            if (!config.hasDomain(domain)) {
+                config.addDomain(domain, items);
+            } else {
+                final List<String> list = config.getFlatDomain(domain);
+                if (list == null || list.equals(items)) { return; }
+                list.clear();
+                list.addAll(items);
+            }
+            dirty = true;
         }
+        handleSettingChange(domain, null);
+        scheduleSave();
     }
 
     /**
@@ -196,7 +269,12 @@ public class Config {
      * @return the requested option, or the fallback value if not defined
      */
     public String getOption(final String domain, final String key, final String fallback) {
-        final String value = config.getKeyDomain(domain).get(key);
+        final String value;
+        synchronized (config) {
+            // Don't use getKeyDomain here, reading should never create domains.
+            final Map<String, String> keyDomain = config.getKeyDomains().get(domain);
+            value = keyDomain == null ? null : keyDomain.get(key);
+        }
         if (value == null) {
             return fallback;
         } else {
@@ -212,8 +290,17 @@ public class Config {
      * @param value Value for option
      */
     public void setOption(final String domain, final String key, final String value) {
-        config.getKeyDomain(domain).put(key, value);
+        synchronized (config) {
+            final Map<String, String> keyDomain = config.getKeyDomain(domain);
+            final String oldValue = keyDomain.get(key);
+            if (oldValue == null ? value == null && keyDomain.containsKey(key) : oldValue.equals(value)) {
+                return;
+            }
+            keyDomain.put(key, value);
+            dirty = true;
+        }
         handleSettingChange(domain, key);
+        scheduleSave();
     }
 
     /**
@@ -224,7 +311,10 @@ public class Config {
      * @return True if the option exists, else false
      */
     public boolean hasOption(final String domain, final String key) {
-        return config.hasDomain(domain) != false && config.getKeyDomain(domain).containsKey(key);
+        synchronized (config) {
+            final Map<String, String> keyDomain = config.getKeyDomains().get(domain);
+            return keyDomain != null && keyDomain.containsKey(key);
+        }
     }
 
     /**
@@ -485,13 +575,295 @@ public class Config {
     }
 
     /**
-     * Saves this config to disk.
+     * Get a cached view of a String option.
+     *
+     * @param domain Domain for option
+     * @param key key for Option
+     * @param fallback Value to use if key is not found
+     * @return View of the option.
+     */
+    public OptionView<String> getStringView(final String domain, final String key, final String fallback) {
+        return new OptionView<String>(this, domain, key, fallback) {
+            /** {@inheritDoc} */
+            @Override
+            protected String parse(final String raw) {
+                return raw;
+            }
+        };
+    }
+
+    /**
+     * Get a cached view of an Integer option.
+     *
+     * @param domain Domain for option
+     * @param key key for Option
+     * @param fallback Value to use if key is not found or is not a number
+     * @return View of the option.
+     */
+    public OptionView<Integer> getIntView(final String domain, final String key, final int fallback) {
+        return new OptionView<Integer>(this, domain, key, fallback) {
+            /** {@inheritDoc} */
+            @Override
+            protected Integer parse(final String raw) {
+                return Integer.valueOf(raw.trim());
+            }
+        };
+    }
+
+    /**
+     * Get a cached view of a Long option.
+     *
+     * @param domain Domain for option
+     * @param key key for Option
+     * @param fallback Value to use if key is not found or is not a number
+     * @return View of the option.
+     */
+    public OptionView<Long> getLongView(final String domain, final String key, final long fallback) {
+        return new OptionView<Long>(this, domain, key, fallback) {
+            /** {@inheritDoc} */
+            @Override
+            protected Long parse(final String raw) {
+                return Long.valueOf(raw.trim());
+            }
+        };
+    }
+
+    /**
+     * Get a cached view of a Boolean option.
+     *
+     * @param domain Domain for option
+     * @param key key for Option
+     * @param fallback Value to use if key is not found
+     * @return View of the option.
+     */
+    public OptionView<Boolean> getBoolView(final String domain, final String key, final boolean fallback) {
+        return new OptionView<Boolean>(this, domain, key, fallback) {
+            /** {@inheritDoc} */
+            @Override
+            protected Boolean parse(final String raw) {
+                return Boolean.valueOf(raw.trim());
+            }
+        };
+    }
+
+    /**
+     * Get a cached view of a List option.
+     * The list returned by the view can not be modified.
+     *
+     * @param domain Domain for option
+     * @param key key for Option
+     * @param fallback List to use if key is not found
+     * @return View of the option.
+     */
+    public OptionView<List<String>> getListView(final String domain, final String key, final List<String> fallback) {
+        return new OptionView<List<String>>(this, domain, key, fallback == null ? null : Collections.unmodifiableList(new ArrayList<String>(fallback))) {
+            /** {@inheritDoc} */
+            @Override
+            protected List<String> parse(final String raw) {
+                if (raw.isEmpty()) { return null; }
+                return Collections.unmodifiableList(Arrays.asList(raw.split("\n")));
+            }
+        };
+    }
+
+    /**
+     * Check if this config has changes that have not been saved yet.
+     *
+     * @return True if there are unsaved changes.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Saves this config to disk now, if it has changed since it was read or
+     * last saved.
      */
     public void save() {
         try {
-            config.write();
+            writeIfDirty();
         } catch (IOException ex) {
             ScriptBot.getBot().getLogger().error("Unable to save config: " + ex.getMessage());
         }
     }
+
+    /**
+     * Write the config to disk if it has changed.
+     *
+     * The contents are copied while holding the config lock so that setOption
+     * is not held up by disk access, and saveLock makes sure that an older
+     * copy can never be written over a newer one.
+     *
+     * @throws IOException If the write failed, the config is left dirty.
+     */
+    private void writeIfDirty() throws IOException {
+        if (!config.isWritable()) { return; }
+
+        synchronized (saveLock) {
+            final List<String> lines;
+            synchronized (config) {
+                if (!dirty) { return; }
+                lines = config.getOutputLines();
+                dirty = false;
+            }
+
+            try {
+                config.writeLines(lines);
+            } catch (final IOException ioe) {
+                dirty = true;
+                throw ioe;
+            }
+            savedModified = config.getFile().lastModified();
+            savedLength = config.getFile().length();
+        }
+    }
+
+    /**
+     * Check if the file on disk may differ from what we last wrote to it.
+     *
+     * @return False if the file is exactly as our last save left it.
+     */
+    boolean isChangedOnDisk() {
+        final File file = config.getFile();
+        return file == null || file.lastModified() != savedModified || file.length() != savedLength;
+    }
+
+    /**
+     * Re-read this config from disk and apply any differences to it.
+     *
+     * Only options and domains that actually differ are changed, and
+     * listeners are told about each of them, so anything watching this
+     * config only sees what was edited. The file on disk wins over any
+     * unsaved changes.
+     *
+     * @return True if anything changed.
+     * @throws IOException If the file could not be read
+     * @throws InvalidConfigFileException If the file is not valid, in which
+     *         case nothing is changed.
+     */
+    public boolean reload() throws IOException, InvalidConfigFileException {
+        if (!config.isWritable()) { return false; }
+
+        // Note what we are reading first, so an edit made while we read the
+        // file is not mistaken for the version we have.
+        final long modified = config.getFile().lastModified();
+        final long length = config.getFile().length();
+        final ConfigFile fresh = new ConfigFile(config.getFile());
+        fresh.read();
+
+        final List<String[]> changes = new ArrayList<String[]>();
+        synchronized (saveLock) {
+            synchronized (config) {
+                for (String domain : new ArrayList<String>(config.getKeyDomains().keySet())) {
+                    if (!fresh.isKeyDomain(domain)) {
+                        for (String key : config.getKeyDomain(domain).keySet()) {
+                            changes.add(new String[]{domain, key});
+                        }
+                        config.removeDomain(domain);
+                    }
+                }
+                for (String domain : new ArrayList<String>(config.getFlatDomains())) {
+                    if (!fresh.isFlatDomain(domain)) {
+                        config.removeDomain(domain);
+                        changes.add(new String[]{domain, null});
+                    }
+                }
+
+                for (Map.Entry<String, Map<String, String>> entry : fresh.getKeyDomains().entrySet()) {
+                    final String domain = entry.getKey();
+                    if (!config.isKeyDomain(domain)) {
+                        config.addDomain(domain, new HashMap<String, String>());
+                    }
+                    final Map<String, String> live = config.getKeyDomain(domain);
+                    for (Iterator<Map.Entry<String, String>> it = live.entrySet().iterator(); it.hasNext();) {
+                        final String key = it.next().getKey();
+                        if (!entry.getValue().containsKey(key)) {
+                            it.remove();
+                            changes.add(new String[]{domain, key});
+                        }
+                    }
+                    for (Map.Entry<String, String> option : entry.getValue().entrySet()) {
+                        if (!option.getValue().equals(live.get(option.getKey()))) {
+                            live.put(option.getKey(), option.getValue());
+                            changes.add(new String[]{domain, option.getKey()});
+                        }
+                    }
+                }
+
+                for (String domain : fresh.getFlatDomains()) {
+                    final List<String> items = fresh.getFlatDomain(domain);
+                    if (!config.isFlatDomain(domain)) {
+                        config.addDomain(domain, new ArrayList<String>(items));
+                        changes.add(new String[]{domain, null});
+                    } else if (!config.getFlatDomain(domain).equals(items)) {
+                        final List<String> live = config.getFlatDomain(domain);
+                        live.clear();
+                        live.addAll(items);
+                        changes.add(new String[]{domain, null});
+                    }
+                }
+
+                dirty = false;
+                savedModified = modified;
+                savedLength = length;
+            }
+        }
+
+        for (String[] change : changes) {
+            handleSettingChange(change[0], change[1]);
+        }
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Schedule a write-behind save of this config.
+     *
+     * Changes made before the save runs are all written by it, so a burst of
+     * setOption calls results in a single write.
+     */
+    private void scheduleSave() {
+        if (!config.isWritable()) { return; }
+
+        synchronized (Config.class) {
+            if (PENDING_SAVES.add(this)) {
+                getSaver().schedule(saveTask, SAVE_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Get the thread used for write-behind saves, creating it if needed.
+     *
+     * @return The save thread.
+     */
+    private static synchronized ScheduledExecutorService getSaver() {
+        if (saver == null) {
+            saver = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                /** {@inheritDoc} */
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "Config Saver");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return saver;
+    }
+
+    /**
+     * Save every config that has a write-behind save waiting, without waiting
+     * for the save delay. This should be called before exiting.
+     */
+    public static void flushPendingSaves() {
+        final List<Config> pending;
+        synchronized (Config.class) {
+            pending = new ArrayList<Config>(PENDING_SAVES);
+            PENDING_SAVES.clear();
+        }
+
+        for (Config pendingConfig : pending) {
+            pendingConfig.save();
+        }
+    }
 }
@@ -27,5 +27,13 @@ package uk.org.dataforce.scriptbot.config;
  * @author shane
  */
 public interface ConfigChangedListener {
+    /**
+     * Called when a setting in the config changes.
+     *
+     * @param domain Domain that changed, or null if the whole config may have
+     *        changed.
+     * @param setting Setting that changed, or null if the whole domain may
+     *        have changed.
+     */
     void configChanged(final String domain, final String setting);
 }
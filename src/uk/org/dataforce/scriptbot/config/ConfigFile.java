@@ -32,6 +32,7 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Reads and writes a standard DMDirc config file.
@@ -151,6 +152,15 @@ public class ConfigFile extends TextFile {
             throw new UnsupportedOperationException("Cannot write to a file that isn't writable");
         }
 
+        writeLines(getOutputLines());
+    }
+
+    /**
+     * Generates the lines that make up the contents of this ConfigFile.
+     *
+     * @return The lines that write() would write to disk
+     */
+    protected List<String> getOutputLines() {
         final List<String> lines = new ArrayList<String>();
 
         lines.add("# This is a DMDirc configuration file.");
@@ -178,7 +188,7 @@ public class ConfigFile extends TextFile {
             }
         }
 
-        writeLines(lines);
+        return lines;
     }
 
     /**
@@ -211,6 +221,15 @@ public class ConfigFile extends TextFile {
         return keydomains;
     }
 
+    /**
+     * Retrieves the names of all the flat domains in this config file.
+     *
+     * @return This config file's flat domain names
+     */
+    public Set<String> getFlatDomains() {
+        return flatdomains.keySet();
+    }
+
     /**
      * Retrieves the key/values of the specified key domain.
      *
@@ -290,6 +309,17 @@ public class ConfigFile extends TextFile {
         keydomains.put(name, data);
     }
 
+    /**
+     * Removes a domain from this config file.
+     *
+     * @param name The name of the domain to be removed
+     */
+    public void removeDomain(final String name) {
+        domains.remove(name);
+        keydomains.remove(name);
+        flatdomains.remove(name);
+    }
+
     /**
      * Unescapes any escaped characters in the specified input string.
      *
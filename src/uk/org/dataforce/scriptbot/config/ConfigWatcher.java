@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.config;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.util.DirectoryWatcher;
+
+/**
+ * Watches the files behind a set of Configs and reloads them when they are
+ * changed on disk.
+ *
+ * Changes made by our own saves are recognised and ignored.
+ */
+public class ConfigWatcher extends DirectoryWatcher {
+
+    /** Configs being watched, by file. */
+    private final Map<Path, Config> configs = new HashMap<Path, Config>();
+
+    /** Logger to report reloads to. */
+    private final Logger logger = LogFactory.getLogger("config.watcher");
+
+    /**
+     * Create a new ConfigWatcher and start its thread.
+     *
+     * @param quietPeriod Time in milliseconds that a file must be left alone
+     *        for before it is reloaded.
+     * @throws IOException If the platform can not watch files.
+     */
+    public ConfigWatcher(final long quietPeriod) throws IOException {
+        super("Config Watcher", quietPeriod);
+        start();
+    }
+
+    /**
+     * Start watching the file for the given config.
+     *
+     * @param config Config to watch.
+     * @throws IOException If the config's directory can not be watched.
+     */
+    public synchronized void watch(final Config config) throws IOException {
+        final Path file = getPath(config);
+        if (file == null) { return; }
+
+        watchDirectory(file.getParent());
+        configs.put(file, config);
+    }
+
+    /**
+     * Stop watching the file for the given config.
+     *
+     * @param config Config to stop watching.
+     */
+    public synchronized void unwatch(final Config config) {
+        final Path file = getPath(config);
+        if (file == null || configs.get(file) != config) { return; }
+        configs.remove(file);
+
+        for (Path watched : configs.keySet()) {
+            if (watched.getParent().equals(file.getParent())) { return; }
+        }
+        unwatchDirectory(file.getParent());
+    }
+
+    /**
+     * Get the normalised path of the file for the given config.
+     *
+     * @param config Config to get path for.
+     * @return The path, or null if the config has no file.
+     */
+    private static Path getPath(final Config config) {
+        if (config.getFile() == null) { return null; }
+        return config.getFile().getAbsoluteFile().toPath().normalize();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized boolean isWatched(final Path file) {
+        return configs.containsKey(file);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized Collection<Path> getWatchedFiles() {
+        return new ArrayList<Path>(configs.keySet());
+    }
+
+    /**
+     * Reload the config for the given file if it has really changed.
+     *
+     * @param file File that changed.
+     */
+    @Override
+    protected void fileChanged(final Path file) {
+        final Config config;
+        synchronized (this) {
+            config = configs.get(file);
+        }
+        if (config == null || !config.isChangedOnDisk() || !config.getFile().exists()) { return; }
+
+        try {
+            if (config.reload()) {
+                logger.info("Reloaded config file: " + file);
+            }
+        } catch (final IOException ioe) {
+            logger.error("Unable to reload config file " + file + ": " + ioe.getMessage());
+        } catch (final InvalidConfigFileException icfe) {
+            logger.error("Not reloading invalid config file " + file + ": " + icfe.getMessage());
+        } catch (final RuntimeException re) {
+            logger.error("Error applying changes from config file " + file + ": " + re);
+        }
+    }
+}
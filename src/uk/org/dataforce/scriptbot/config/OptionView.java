@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.config;
+
+/**
+ * A typed, cached view of a single config option.
+ *
+ * The option is read and parsed the first time it is needed, and the parsed
+ * value is then returned until the config says that the option (or its
+ * domain) has changed. Views are only weakly held by their Config, so they
+ * can be created freely and should be kept by whatever reads them.
+ *
+ * @param <T> Type of the option.
+ */
+public abstract class OptionView<T> implements ConfigChangedListener {
+    /**
+     * A parsed value and the version of the option it was parsed from.
+     *
+     * @param <T> Type of the value.
+     */
+    private static class Cached<T> {
+        /** Parsed value. */
+        private final T value;
+        /** Version of the option the value was parsed from. */
+        private final int version;
+
+        /**
+         * Create a new Cached.
+         *
+         * @param value Parsed value.
+         * @param version Version of the option the value was parsed from.
+         */
+        private Cached(final T value, final int version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    /** Config the option is in. */
+    private final Config config;
+
+    /** Domain of the option. */
+    private final String domain;
+
+    /** Key of the option. */
+    private final String key;
+
+    /** Value to use if the option is not set or can not be parsed. */
+    private final T fallback;
+
+    /** Incremented whenever the option changes. */
+    private volatile int version;
+
+    /** Last parsed value, or null if it has not been read yet. */
+    private volatile Cached<T> cached;
+
+    /**
+     * Create a new OptionView and start listening for changes.
+     *
+     * @param config Config the option is in.
+     * @param domain Domain of the option.
+     * @param key Key of the option.
+     * @param fallback Value to use if the option is not set or can not be
+     *        parsed.
+     */
+    protected OptionView(final Config config, final String domain, final String key, final T fallback) {
+        this.config = config;
+        this.domain = domain;
+        this.key = key;
+        this.fallback = fallback;
+        config.addListener(this);
+    }
+
+    /**
+     * Get the value of the option.
+     *
+     * @return The parsed value, or the fallback if the option is not set or
+     *         can not be parsed.
+     */
+    public T get() {
+        final Cached<T> current = cached;
+        final int currentVersion = version;
+        if (current != null && current.version == currentVersion) {
+            return current.value;
+        }
+
+        final String raw = config.getOption(domain, key, null);
+        T value = null;
+        if (raw != null) {
+            try {
+                value = parse(raw);
+            } catch (final RuntimeException re) {
+                value = null;
+            }
+        }
+        if (value == null) {
+            value = fallback;
+        }
+        // If the option changed while we were reading, the version will have
+        // moved on and the next get() will read it again.
+        cached = new Cached<T>(value, currentVersion);
+        return value;
+    }
+
+    /**
+     * Parse the raw value of the option.
+     *
+     * @param raw Raw value from the config.
+     * @return Parsed value, or null to use the fallback.
+     * @throws RuntimeException if the value can not be parsed, in which case
+     *         the fallback is used.
+     */
+    protected abstract T parse(final String raw);
+
+    /**
+     * Get the domain of the option.
+     *
+     * @return Option domain.
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * Get the key of the option.
+     *
+     * @return Option key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void configChanged(final String changedDomain, final String setting) {
+        if (changedDomain == null || (changedDomain.equals(domain) && (setting == null || setting.equals(key)))) {
+            version++;
+        }
+    }
+}
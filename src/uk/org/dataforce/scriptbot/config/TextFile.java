@@ -26,11 +26,17 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import uk.org.dataforce.libs.logger.Logger;
@@ -156,6 +162,11 @@ public class TextFile {
     /**
      * Writes the specified list of lines to the file.
      *
+     * The lines are written to a temporary file in the same directory, which
+     * is synced to disk and then renamed over the real file, so a crash part
+     * way through will leave either the old or the new contents, never a
+     * truncated file.
+     *
      * @param lines The lines to be written
      * @throws IOException if an I/O exception occurs
      */
@@ -165,14 +176,54 @@ public class TextFile {
                     "opened with an InputStream");
         }
 
-        final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-
-        for (String line : lines) {
-            writer.write(line);
-            writer.newLine();
+        final File target = file.getAbsoluteFile();
+        final File temp = File.createTempFile("." + target.getName() + ".", ".tmp", target.getParentFile());
+        boolean moved = false;
+        try {
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                writer.flush();
+                out.getChannel().force(true);
+            } finally {
+                out.close();
+            }
+
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException amnse) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            syncDirectory(target.getParentFile());
+        } finally {
+            if (!moved && !temp.delete()) {
+                temp.deleteOnExit();
+            }
         }
+    }
 
-        writer.close();
+    /**
+     * Sync the given directory so that a rename inside it is on disk.
+     * Not all platforms allow this, so failures are ignored.
+     *
+     * @param directory Directory to sync.
+     */
+    private static void syncDirectory(final File directory) {
+        try {
+            final FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (final IOException ioe) {
+            /* Not supported here, the rename will still reach disk eventually. */
+        }
     }
 
     /**
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts;
+
+/**
+ * Class representing a BoundMethod for an event, along with the script that
+ * it should be called in.
+ *
+ * These are held in the ScriptHandler's event index, and are never changed
+ * once created.
+ */
+public class BoundEvent {
+    /** Script that the binding belongs to. */
+    public final Script script;
+    /** Method that is bound. */
+    public final BoundMethod boundMethod;
+
+    /**
+     * Create a new BoundEvent
+     *
+     * @param script Script that owns the binding.
+     * @param boundMethod Method that is bound.
+     */
+    public BoundEvent(final Script script, final BoundMethod boundMethod) {
+        this.script = script;
+        this.boundMethod = boundMethod;
+    }
+}
@@ -23,63 +23,128 @@ package uk.org.dataforce.scriptbot.scripts;
 
 import com.dmdirc.parser.common.CallbackManager;
 import com.dmdirc.parser.interfaces.callbacks.CallbackInterface;
-import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import uk.org.dataforce.scriptbot.Server;
 
 /**
- * This class handles calling all callbacks as script events.
+ * This class handles calling callbacks as script events.
+ *
+ * Callbacks are only registered with the parser for events that at least one
+ * script has bound to, and are removed again once nothing is bound.
  */
 public class ParserBridge {
 
+    /** Package that the parser callback interfaces live in. */
+    private static final String CALLBACK_PACKAGE = "com.dmdirc.parser.interfaces.callbacks.";
+
     /** My Server */
     private Server myServer;
 
-    /** Map of callbacks we have created. */
+    /** Map of event names to the callback type we have registered for them. */
     @SuppressWarnings("rawtypes")
-    final Map<Class, CallbackInterface> callbacks = new HashMap<Class, CallbackInterface>();
+    private final Map<String, Class> callbackTypes = new HashMap<String, Class>();
+
+    /** Map of event names to the callbacks we have registered for them. */
+    private final Map<String, CallbackInterface> callbacks = new HashMap<String, CallbackInterface>();
+
+    /** Events that scripts have bound to that we have no callback for. */
+    private final Set<String> unknownEvents = new HashSet<String>();
 
     /**
      * Create a new ParserBridge for the given server.
+     *
+     * @param server Server that owns this bridge.
      */
-    @SuppressWarnings({"unchecked", "rawtypes"})
     public ParserBridge(final Server server) {
-        try {
-            myServer = server;
+        myServer = server;
+        setBoundEvents(myServer.getScriptHandler().getBoundEvents());
+    }
 
+    /**
+     * Update the callbacks we have registered with the parser to match the
+     * given bound events.
+     *
+     * Callbacks are added for any newly bound events, and removed for any
+     * events that are no longer bound.
+     *
+     * @param events Names of all the events scripts are bound to.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setBoundEvents(final Collection<String> events) {
+        synchronized (callbacks) {
             final CallbackManager cbm = myServer.getParser().getCallbackManager();
 
-            // Bind everything to the ScriptInvocationHandler so that scripts
-            // can bind to events.
-            final Field field = cbm.getClass().getDeclaredField("CLASSES");
-            field.setAccessible(true);
-            final Class[] classes = (Class[])field.get(null);
+            for (final String event : new ArrayList<String>(callbacks.keySet())) {
+                if (!events.contains(event)) {
+                    cbm.delCallback(callbackTypes.remove(event), callbacks.remove(event));
+                }
+            }
 
-            for (final Class clazz : classes) {
-                if (CallbackInterface.class.isAssignableFrom(clazz)) {
-                    final CallbackInterface i = ScriptInvocationHandler.getProxy(clazz, this);
+            for (final String event : events) {
+                if (callbacks.containsKey(event) || unknownEvents.contains(event)) { continue; }
 
-                    callbacks.put(clazz, i);
+                final Class clazz = getCallbackType(event);
+                if (clazz == null) {
+                    myServer.getLogger().warning("Scripts are bound to unknown event: " + event);
+                    unknownEvents.add(event);
+                } else {
+                    final CallbackInterface i = ScriptInvocationHandler.getProxy(clazz, this);
+                    callbackTypes.put(event, clazz);
+                    callbacks.put(event, i);
                     cbm.addCallback(clazz, i);
                 }
             }
-        } catch (final IllegalArgumentException ex) {
-        } catch (final IllegalAccessException ex) {
-        } catch (final NoSuchFieldException ex) {
-        } catch (final SecurityException ex) {
         }
     }
 
+    /**
+     * Find the callback interface that fires the given event.
+     *
+     * Parser callbacks follow the convention that the "onSomething" event is
+     * the only method of the SomethingListener interface.
+     *
+     * @param event Event name.
+     * @return The CallbackInterface class for the event, or null if unknown.
+     */
+    @SuppressWarnings("rawtypes")
+    private Class getCallbackType(final String event) {
+        if (event.length() < 3 || !event.startsWith("on")) { return null; }
+
+        try {
+            final Class clazz = Class.forName(CALLBACK_PACKAGE + event.substring(2) + "Listener");
+            if (CallbackInterface.class.isAssignableFrom(clazz)) {
+                for (final Method method : clazz.getMethods()) {
+                    if (method.getName().equals(event)) {
+                        return clazz;
+                    }
+                }
+            }
+        } catch (final ClassNotFoundException ex) {
+            /* Not a known callback. */
+        }
+
+        return null;
+    }
+
     /**
      * Clear all callbacks.
      */
     @SuppressWarnings({"unchecked", "rawtypes"})
     public void clear() {
-        // Clear our bindings.
-        for (Map.Entry<Class, CallbackInterface> entry : callbacks.entrySet()) {
+        synchronized (callbacks) {
             final CallbackManager cbm = myServer.getParser().getCallbackManager();
-            cbm.delCallback(entry.getKey(), entry.getValue());
+            for (Map.Entry<String, CallbackInterface> entry : callbacks.entrySet()) {
+                cbm.delCallback(callbackTypes.get(entry.getKey()), entry.getValue());
+            }
+            callbacks.clear();
+            callbackTypes.clear();
+            unknownEvents.clear();
         }
     }
 
@@ -21,18 +21,31 @@
  */
 package uk.org.dataforce.scriptbot.scripts;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.script.Invocable;
 import javax.script.ScriptException;
 import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.LogLevel;
 import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.store.LogStore;
+import uk.org.dataforce.libs.store.SyncPolicy;
+import uk.org.dataforce.libs.util.OverflowPolicy;
+import uk.org.dataforce.libs.util.Util;
+import uk.org.dataforce.scriptbot.ScriptBot;
+import uk.org.dataforce.scriptbot.ServerManager;
 import uk.org.dataforce.scriptbot.config.Config;
 import uk.org.dataforce.scriptbot.scripts.irc.IRCScripter;
+import uk.org.dataforce.scriptbot.scripts.rhinosandbox.CompiledScriptCache;
 import uk.org.dataforce.scriptbot.scripts.rhinosandbox.RhinoScriptEngine;
+import uk.org.dataforce.scriptbot.scripts.stats.ScriptStats;
 
 /**
  * This class represents a script.
@@ -44,16 +57,26 @@ public class Script {
     private ScriptHandler myHandler;
 
     /** My Logger. */
-    private Logger myLogger = LogFactory.getLogger();
+    private Logger myLogger;
 
-    /** My current script engine. */
-    private ScriptBotEngine myEngine;
+    /**
+     * My current engine, script bridge and IRC Scripter.
+     * These are always replaced together, so a call never sees a mix of old
+     * and new.
+     */
+    private volatile ScriptState myState;
+
+    /** Executor for calls when using async dispatch, or null to call directly. */
+    private final ScriptExecutor myExecutor;
 
-    /** My script bridge. */
-    private ScriptBridge myScriptBridge = new ScriptBridge(this);
+    /** Number of times a call to this script was aborted for exceeding its budget. */
+    private final AtomicLong overruns = new AtomicLong();
 
-    /** IRC Scripter. */
-    private IRCScripter myIRCScripter;
+    /** Stats for calls to this script. */
+    private final ScriptStats myStats = new ScriptStats();
+
+    /** Persistent store for this script, or null if not opened yet. */
+    private ScriptStore myStore;
 
     /** My config file. */
     private Config myConfig;
@@ -75,13 +98,38 @@ public class Script {
      */
     public Script(final ScriptHandler handler, final File file, final String type, final Config config) throws ScriptException {
         myHandler = handler;
-        myIRCScripter = new IRCScripter(myHandler.getIRCScripter(), this);
         myFile = file;
-        myLogger.setTag(myHandler.getServer().getName() + ">" + file.getName());
+        final String path = getRelativePath();
+        myLogger = LogFactory.getLogger("server." + myHandler.getServer().getName() + ".script." + path);
+        myLogger.setTag(myHandler.getServer().getName() + ">" + path);
+        myLogger.setWriter(myHandler.getServer().getLogger().getWriter());
         myType = type;
         myConfig = config;
 
-        myEngine = initEngine();
+        myState = new ScriptState(initEngine(), new ScriptBridge(this), new IRCScripter(myHandler.getIRCScripter(), this), null);
+        myExecutor = createExecutor();
+    }
+
+    /**
+     * Create the executor to run calls with, based on the "dispatch" settings
+     * in the config.
+     *
+     * @return ScriptExecutor to use, or null if calls should be synchronous.
+     */
+    private ScriptExecutor createExecutor() {
+        final String mode = myConfig.getOption("dispatch", "mode", "sync");
+        if (mode.equalsIgnoreCase("async")) {
+            final int queueSize = myConfig.getIntOption("dispatch", "queuesize", 1000);
+            final OverflowPolicy policy = OverflowPolicy.fromString(myConfig.getOption("dispatch", "overflow", "dropoldest"), OverflowPolicy.DROP_OLDEST);
+            return new ScriptExecutor("Script: " + myLogger.getTag(), queueSize, policy, myLogger);
+        } else if (mode.equalsIgnoreCase("pooled")) {
+            final int queueSize = myConfig.getIntOption("dispatch", "queuesize", 1000);
+            final OverflowPolicy policy = OverflowPolicy.fromString(myConfig.getOption("dispatch", "overflow", "dropoldest"), OverflowPolicy.DROP_OLDEST);
+            final int poolSize = myConfig.getIntOption("dispatch", "poolsize", Runtime.getRuntime().availableProcessors() * 2);
+            return new ScriptExecutor(ScriptExecutor.getSharedPool(poolSize), queueSize, policy, myLogger);
+        }
+
+        return null;
     }
 
     private ScriptBotEngine initEngine() throws ScriptException {
@@ -92,12 +140,12 @@ public class Script {
                 myHandler.getLogger().error("Unable to find ScriptEngine for: '" + myFile + "' (No file extension found)");
             }
             final String extension = myFile.getName().substring(myFile.getName().lastIndexOf('.') + 1);
-            newEngine = ScriptFactory.getEngineByExtension(extension, myConfig);
+            newEngine = ScriptFactory.getEngineByExtension(extension, myConfig, myFile, getRelativePath());
             if (newEngine == null) {
                 throw new ScriptException("Unable to find ScriptEngine for: '" + myFile + "' (Extension: '" + extension + "')");
             }
         } else {
-            newEngine = ScriptFactory.getEngineByType(myType, myConfig);
+            newEngine = ScriptFactory.getEngineByType(myType, myConfig, myFile, getRelativePath());
             if (newEngine == null) {
                 throw new ScriptException("Unable to find ScriptEngine for: '" + myFile + "' (Type: '" + myType + "')");
             }
@@ -112,7 +160,11 @@ public class Script {
      * @return True if script loaded.
      */
     public boolean load() {
-        return load(myEngine, myScriptBridge, myIRCScripter);
+        final ScriptState state = myState;
+        final String hash = load(state.engine, state.bridge, state.ircScripter);
+        if (hash == null) { return false; }
+        myState = new ScriptState(state.engine, state.bridge, state.ircScripter, hash);
+        return true;
     }
 
     /**
@@ -130,26 +182,45 @@ public class Script {
      * @param engine Engine to use.
      * @param bridge Bridge to use.
      * @param ircscripter IRCScripter to use.
-     * @return True if script loaded.
+     * @return Hash of the contents that were loaded, or null if the script
+     *         failed to load.
      */
-    private boolean load(final ScriptBotEngine engine, final ScriptBridge bridge, final IRCScripter ircscripter) {
+    private String load(final ScriptBotEngine engine, final ScriptBridge bridge, final IRCScripter ircscripter) {
         try {
+            // Read the file once, so the hash matches exactly what we ran.
+            final byte[] contents = Files.readAllBytes(myFile.toPath());
+            final String hash = Util.sha256Hash(contents);
             engine.put("bot", bridge);
             engine.put("irc", ircscripter);
-            engine.eval(new FileReader(myFile));
+            engine.eval(new InputStreamReader(new ByteArrayInputStream(contents), Charset.defaultCharset()), hash);
             getLogger().info("Loaded script '" + getFilePath(myFile) + "'");
             // call("onScriptLoaded");
-            return true;
-        } catch (final FileNotFoundException ex) {
+            return hash;
+        } catch (final IOException ex) {
             getLogger().error("Error loading script '" + getFilePath(myFile) + "': " + ex.getMessage());
         } catch (final ScriptException ex) {
             getLogger().error("Error loading script '" + getFilePath(myFile) + "': " + ex.getMessage());
         }
-        return false;
+        return null;
+    }
+
+    /**
+     * Get the hash of the contents this script was last loaded from.
+     *
+     * @return Hash of the loaded contents, or null if the script has not been
+     *         loaded.
+     */
+    public String getContentHash() {
+        return myState.contentHash;
     }
 
     /**
      * Reload this script.
+     *
+     * The new engine is built and the script run in it on the calling
+     * thread, without touching the running script. If that works, the new
+     * engine and bridges are swapped in together and the event index is
+     * rebuilt, otherwise the old script carries on.
      */
     public void reload() throws ScriptException {
         // call("onScriptUnloaded");
@@ -159,14 +230,24 @@ public class Script {
             final ScriptBridge bridge = new ScriptBridge(this);
             final IRCScripter ircscripter = new IRCScripter(myHandler.getIRCScripter(), this);
 
-            if (load(engine, bridge, ircscripter)) {
-                myHandler.getIRCScripter().unbindScripter(myIRCScripter);
-                myScriptBridge.unbindAll();
-                myScriptBridge = bridge;
-                myIRCScripter = ircscripter;
-                myEngine.put("bot", null);
-                myEngine.put("irc", null);
-                myEngine = engine;
+            final String hash = load(engine, bridge, ircscripter);
+            if (hash != null) {
+                final ScriptState oldState;
+                synchronized (this) {
+                    oldState = myState;
+                    if (oldState.engine == null) {
+                        // Unloaded while we were loading.
+                        bridge.unbindAll();
+                        myHandler.getIRCScripter().unbindScripter(ircscripter);
+                        return;
+                    }
+                    myState = new ScriptState(engine, bridge, ircscripter, hash);
+                }
+                myHandler.getIRCScripter().unbindScripter(oldState.ircScripter);
+                oldState.bridge.unbindAll();
+                myHandler.rebuildEventIndex();
+                // The old engine is left alone, as calls that started before
+                // the swap may still be running in it.
                 getLogger().info("Reloading script '" + getFilePath(myFile) + "' was successful, new script is active.");
             } else {
                 getLogger().info("Reloading script '" + getFilePath(myFile) + "' failed, keeping old script.");
@@ -182,12 +263,23 @@ public class Script {
     public void unload() {
         // call("onScriptUnloaded");
         getLogger().info("Unloaded script '" + getFilePath(myFile) + "'");
-        myScriptBridge.unbindAll();
-        myHandler.getIRCScripter().unbindScripter(myIRCScripter);
-        myEngine.put("bot", null);
-        myEngine.put("irc", null);
-        myEngine = null;
-        myScriptBridge = new ScriptBridge(this);
+        final ScriptState oldState;
+        final ScriptStore oldStore;
+        synchronized (this) {
+            oldState = myState;
+            myState = new ScriptState(null, new ScriptBridge(this), oldState.ircScripter, null);
+            oldStore = myStore;
+            myStore = null;
+        }
+        oldState.bridge.unbindAll();
+        myHandler.getIRCScripter().unbindScripter(oldState.ircScripter);
+        if (oldState.engine != null) {
+            oldState.engine.put("bot", null);
+            oldState.engine.put("irc", null);
+        }
+        if (myExecutor != null) { myExecutor.shutdown(); }
+        if (oldStore != null) { oldStore.__close(); }
+        CompiledScriptCache.evict(myFile, null);
         myLogger = null;
     }
 
@@ -204,13 +296,56 @@ public class Script {
     /**
      * Call a function of an object in this script.
      *
+     * If this script uses async dispatch the call is queued and this returns
+     * immediately, otherwise the call happens on the current thread.
+     *
      * @param obj Object
      * @param function Function name
      * @param args Arguments for functions.
      */
     public void call(final Object obj, final Object function, final Object... args) {
-        if (myEngine instanceof Invocable) {
-            final Invocable iEngine = (Invocable)myEngine;
+        callNamed(function instanceof String ? (String)function : "<anonymous>", obj, function, args);
+    }
+
+    /**
+     * Call a function of an object in this script, recording stats for the
+     * call under the given name.
+     *
+     * If this script uses async dispatch the call is queued and this returns
+     * immediately, otherwise the call happens on the current thread.
+     *
+     * @param name Name to record stats under (eg the event or command name)
+     * @param obj Object
+     * @param function Function name
+     * @param args Arguments for functions.
+     */
+    public void callNamed(final String name, final Object obj, final Object function, final Object... args) {
+        if (myExecutor == null) {
+            invoke(name, obj, function, args);
+        } else {
+            myExecutor.execute(new Runnable() {
+                /** {@inheritDoc} */
+                @Override
+                public void run() {
+                    invoke(name, obj, function, args);
+                }
+            });
+        }
+    }
+
+    /**
+     * Invoke a function of an object in this script on the current thread.
+     *
+     * @param name Name to record stats under.
+     * @param obj Object
+     * @param function Function name
+     * @param args Arguments for functions.
+     */
+    private void invoke(final String name, final Object obj, final Object function, final Object... args) {
+        final ScriptBotEngine engine = myState.engine;
+        if (engine instanceof Invocable) {
+            final Invocable iEngine = (Invocable)engine;
+            final long start = System.nanoTime();
             try {
                 if (function instanceof String) {
                     if (obj != null) {
@@ -218,14 +353,20 @@ public class Script {
                     } else {
                         iEngine.invokeFunction((String)function, args);
                     }
-                } else if (myEngine instanceof RhinoScriptEngine) {
-                    ((RhinoScriptEngine)myEngine).invokeMethod(obj, function, args);
+                } else if (engine instanceof RhinoScriptEngine) {
+                    ((RhinoScriptEngine)engine).invokeMethod(obj, function, args);
                 }
+                myStats.get(name).recordSuccess(System.nanoTime() - start);
             } catch (final NoSuchMethodException ex) {
                 /** Ignore. */
+            } catch (final ScriptBudgetException sbe) {
+                myStats.get(name).recordTimeout(System.nanoTime() - start);
+                overruns.incrementAndGet();
+                getLogger().log(LogLevel.WARNING, "Call to '%s' aborted: %s", function, sbe.getMessage());
             } catch (final ScriptException se) {
+                myStats.get(name).recordError(System.nanoTime() - start);
                 getLogger().error("Error in script:");
-                getLogger().error(String.format("\t%s %s<%s>: %s", se.getFileName(), se.getLineNumber(), se.getColumnNumber(), se.getMessage()));
+                getLogger().log(LogLevel.ERROR, "\t%s %s<%s>: %s", se.getFileName(), se.getLineNumber(), se.getColumnNumber(), se.getMessage());
             }
         }
     }
@@ -239,13 +380,105 @@ public class Script {
         return myLogger;
     }
 
+    /**
+     * Get the number of calls to this script that have been aborted for
+     * exceeding the script's budget.
+     *
+     * @return Number of aborted calls.
+     */
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    /**
+     * Get the file this script was loaded from.
+     *
+     * @return File for this script.
+     */
+    public File getFile() {
+        return myFile;
+    }
+
+    /**
+     * Get the stats for calls to this script.
+     *
+     * @return Stats for this script.
+     */
+    public ScriptStats getStats() {
+        return myStats;
+    }
+
+    /**
+     * Get the executor used to run calls for this script.
+     *
+     * @return ScriptExecutor for this script, or null if calls are synchronous.
+     */
+    public ScriptExecutor getExecutor() {
+        return myExecutor;
+    }
+
+    /**
+     * Get the persistent store for this script, opening it if needed.
+     *
+     * The store is kept open until the script is unloaded, so it is shared
+     * between reloads of the script.
+     *
+     * @return ScriptStore for this script.
+     * @throws IOException if the store can not be opened, or the script has
+     *         been unloaded.
+     */
+    public synchronized ScriptStore getStore() throws IOException {
+        if (myStore == null) {
+            if (myState.engine == null) {
+                throw new IOException("Script '" + getFilePath(myFile) + "' has been unloaded.");
+            }
+            final SyncPolicy policy = SyncPolicy.fromString(myConfig.getOption("store", "sync", "interval"), SyncPolicy.INTERVAL);
+            myStore = new ScriptStore(new LogStore(getStoreFile(), policy, myConfig.getLongOption("store", "syncinterval", 1000)));
+        }
+        return myStore;
+    }
+
+    /**
+     * Get the path of this script within the scripts directory, using "/"
+     * as the separator. Scripts outside the scripts directory, or on a
+     * server that is not managed by a bot, just use their file name.
+     *
+     * @return Relative path of this script.
+     */
+    private String getRelativePath() {
+        final ServerManager manager = myHandler.getServer().getManager();
+        if (manager == null) {
+            return myFile.getName();
+        }
+        final Path scripts = manager.getBot().getScriptsDirectory().getAbsoluteFile().toPath().normalize();
+        final Path script = myFile.getAbsoluteFile().toPath().normalize();
+        if (!script.startsWith(scripts)) {
+            return myFile.getName();
+        }
+        return scripts.relativize(script).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Get the file that this script's store is kept in.
+     *
+     * This is the script's path within the scripts directory, under a
+     * directory for the server in the store directory, so each script on
+     * each server has its own namespace.
+     *
+     * @return Store file for this script.
+     */
+    private File getStoreFile() {
+        final ScriptBot bot = myHandler.getServer().getManager().getBot();
+        return new File(new File(bot.getStoreDirectory(), myHandler.getServer().getName()), getRelativePath() + ".store");
+    }
+
     /**
      * Get the ScriptBridge related to this script.
      *
      * @return ScriptBridge for this script.
      */
     public ScriptBridge getBridge() {
-        return myScriptBridge;
+        return myState.bridge;
     }
 
     /**
@@ -254,7 +487,7 @@ public class Script {
      * @return IRCScripter for this script.
      */
     public IRCScripter getIRCScripter() {
-        return myIRCScripter;
+        return myState.ircScripter;
     }
 
     /**
@@ -272,4 +505,33 @@ public class Script {
             return file.getAbsolutePath();
         }
     }
+
+    /**
+     * The engine and bridges for one load of a script.
+     */
+    private static final class ScriptState {
+        /** Engine the script is running in, or null once unloaded. */
+        final ScriptBotEngine engine;
+        /** Script bridge given to the engine as "bot". */
+        final ScriptBridge bridge;
+        /** IRC Scripter given to the engine as "irc". */
+        final IRCScripter ircScripter;
+        /** Hash of the contents that were loaded, or null. */
+        final String contentHash;
+
+        /**
+         * Create a new ScriptState.
+         *
+         * @param engine Engine the script is running in.
+         * @param bridge Script bridge given to the engine.
+         * @param ircScripter IRC Scripter given to the engine.
+         * @param contentHash Hash of the contents that were loaded.
+         */
+        ScriptState(final ScriptBotEngine engine, final ScriptBridge bridge, final IRCScripter ircScripter, final String contentHash) {
+            this.engine = engine;
+            this.bridge = bridge;
+            this.ircScripter = ircScripter;
+            this.contentHash = contentHash;
+        }
+    }
 }
@@ -21,7 +21,7 @@
  */
 package uk.org.dataforce.scriptbot.scripts;
 
-import java.io.FileReader;
+import java.io.Reader;
 import javax.script.ScriptException;
 
 /**
@@ -29,12 +29,23 @@ import javax.script.ScriptException;
  */
 public interface ScriptBotEngine {
     /**
-     * Evaluate the given filereader as script.
+     * Evaluate the given reader as script.
      *
-     * @param fileReader reader to evaluate.
+     * @param reader reader to evaluate.
      * @throw ScriptException if there was an exception when evaluating.
      */
-    public void eval(final FileReader fileReader) throws ScriptException;
+    public void eval(final Reader reader) throws ScriptException;
+
+    /**
+     * Evaluate the given reader as script, when the hash of its contents is
+     * already known.
+     *
+     * @param reader reader to evaluate.
+     * @param hash SHA-256 hash of the contents, used to cache anything
+     *             compiled from them.
+     * @throw ScriptException if there was an exception when evaluating.
+     */
+    public void eval(final Reader reader, final String hash) throws ScriptException;
 
     /**
      * Put the given object into global scope with the given variable name.
@@ -21,10 +21,14 @@
  */
 package uk.org.dataforce.scriptbot.scripts;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import uk.org.dataforce.libs.logger.LogLevel;
 
 /**
@@ -34,6 +38,15 @@ import uk.org.dataforce.libs.logger.LogLevel;
  */
 public class ScriptBridge implements ScriptObject {
 
+    /** Log levels by name, ignoring case. */
+    private static final Map<String, LogLevel> LEVELS = new TreeMap<String, LogLevel>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        for (final LogLevel level : LogLevel.values()) {
+            LEVELS.put(level.name(), level);
+        }
+    }
+
     /** The script that owns this bridge. */
     private Script myScript;
 
@@ -61,16 +74,55 @@ public class ScriptBridge implements ScriptObject {
     /**
      * Used by scripts to write a line to the logger.
      *
+     * Unknown levels are logged at INFO with the level name in the line.
+     *
+     * @param level Level to log at (eg "debug")
      * @param line Line to log.
      */
     public void log(final String level, final String line) {
-        try {
-            myScript.getLogger().log(LogLevel.valueOf(level.toUpperCase()), line);
-        } catch (final IllegalArgumentException iae) {
-            myScript.getLogger().log(LogLevel.INFO, "[" + level.toUpperCase() + "] " + line);
+        final LogLevel logLevel = LEVELS.get(level);
+        if (logLevel != null) {
+            myScript.getLogger().log(logLevel, line);
+        } else {
+            myScript.getLogger().log(LogLevel.INFO, "[%s] %s", level.toUpperCase(), line);
         }
     }
 
+    /**
+     * Used by scripts to check if a line logged at the given level would be
+     * written, so that they can skip building lines that would not be.
+     *
+     * @param level Level to check (eg "debug")
+     * @return True if lines at the given level would be logged.
+     */
+    public boolean isLogEnabled(final String level) {
+        final LogLevel logLevel = LEVELS.get(level);
+        return myScript.getLogger().isEnabled(logLevel == null ? LogLevel.INFO : logLevel);
+    }
+
+    /**
+     * Used by scripts to get the call stats for this script.
+     *
+     * The result maps each event or command name (commands are prefixed with
+     * "command:") to its invocation, error and timeout counts and its latency
+     * percentiles in microseconds.
+     *
+     * @return Map of stats.
+     */
+    public Map<String, Map<String, Long>> stats() {
+        return myScript.getStats().toMap();
+    }
+
+    /**
+     * Used by scripts to get their persistent key/value store, as bot.store.
+     *
+     * @return Store for this script.
+     * @throws IOException if the store can not be opened.
+     */
+    public ScriptStore getStore() throws IOException {
+        return myScript.getStore();
+    }
+
     /**
      * Used by scripts to bind to a parser event.
      *
@@ -90,6 +142,7 @@ public class ScriptBridge implements ScriptObject {
      * @return BoundMethod.
      */
     public BoundMethod bindEvent(final String event, final Object object, final Object method) {
+        final BoundMethod result;
         synchronized (bindings) {
             if (!bindings.containsKey(event)) {
                 bindings.put(event, new LinkedHashSet<BoundMethod>());
@@ -97,8 +150,10 @@ public class ScriptBridge implements ScriptObject {
             final Set<BoundMethod> items = bindings.get(event);
             final BoundMethod boundMethod = new BoundMethod(null, object, method);
             items.add(boundMethod);
-            return boundMethod;
+            result = boundMethod;
         }
+        myScript.getHandler().bindingsChanged(myScript, this);
+        return result;
     }
 
     /**
@@ -131,6 +186,7 @@ public class ScriptBridge implements ScriptObject {
                 items.remove(new BoundMethod(null, object, method));
             }
         }
+        myScript.getHandler().bindingsChanged(myScript, this);
     }
 
     /**
@@ -147,19 +203,24 @@ public class ScriptBridge implements ScriptObject {
             final Set<BoundMethod> items = bindings.get(event);
             items.remove(boundMethod);
         }
+        myScript.getHandler().bindingsChanged(myScript, this);
     }
 
     /**
-     * Used by bot to find scripts bound to a parser event.
+     * Used by the ScriptHandler to build its index of bound events.
      * Begins with __ so can't be accessed by script.
      *
-     * @param event Event to get bindings for
-     * @return All bindings for the given event.
+     * @return A copy of all bindings, in the order they were bound.
      */
-    public Set<BoundMethod> __getBindings(final String event) {
+    public Map<String, List<BoundMethod>> __getAllBindings() {
         synchronized (bindings) {
-            final Set<BoundMethod> s = bindings.get(event);
-            return (s == null) ? new LinkedHashSet<BoundMethod>() :new LinkedHashSet<BoundMethod>(s);
+            final Map<String, List<BoundMethod>> result = new HashMap<String, List<BoundMethod>>();
+            for (final Map.Entry<String, Set<BoundMethod>> entry : bindings.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    result.put(entry.getKey(), new ArrayList<BoundMethod>(entry.getValue()));
+                }
+            }
+            return result;
         }
     }
 
@@ -167,7 +228,10 @@ public class ScriptBridge implements ScriptObject {
      * Remove all bindings.
      */
     public void unbindAll() {
-        bindings.clear();
+        synchronized (bindings) {
+            bindings.clear();
+        }
+        myScript.getHandler().bindingsChanged(myScript, this);
     }
 
     /**
@@ -21,7 +21,6 @@
  */
 package uk.org.dataforce.scriptbot.scripts;
 
-import java.io.FileReader;
 import java.io.Reader;
 import javax.script.Compilable;
 import javax.script.CompiledScript;
@@ -53,8 +52,14 @@ class ScriptEngineWrapper implements ScriptBotEngine, Compilable, Invocable {
 
     /** {@inheritDoc} */
     @Override
-    public void eval(final FileReader fileReader) throws ScriptException {
-        myEngine.eval(fileReader);
+    public void eval(final Reader reader) throws ScriptException {
+        myEngine.eval(reader);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void eval(final Reader reader, final String hash) throws ScriptException {
+        myEngine.eval(reader);
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.util.OverflowPolicy;
+
+/**
+ * This class runs calls for a single script away from the parser thread.
+ *
+ * Calls are queued in a bounded queue and run in order, so a slow script only
+ * delays itself. The queue is either run by a worker thread owned by this
+ * executor, or by a thread pool shared between all scripts, in which case at
+ * most one pool thread will be running calls for this script at a time.
+ *
+ * With the BLOCK overflow policy, calls submitted from a thread that is
+ * itself running script calls are dropped instead of waiting, so scripts can
+ * not deadlock each other.
+ */
+public class ScriptExecutor implements Executor, Runnable {
+
+    /** Queued calls. */
+    private final BlockingQueue<Runnable> queue;
+
+    /** What to do when the queue is full. */
+    private final OverflowPolicy policy;
+
+    /** Logger to report failures to. */
+    private final Logger logger;
+
+    /** Call queued by shutdown to wake the worker thread, never run. */
+    private static final Runnable STOP = new Runnable() {
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            /* Do nothing. */
+        }
+    };
+
+    /** Maximum calls to run in one go from the shared pool before yielding. */
+    private static final int POOL_BATCH_SIZE = 100;
+
+    /** Shared pool used by all pooled executors. */
+    private static ExecutorService sharedPool;
+
+    /** Thread that runs the queued calls, or null if we use the shared pool. */
+    private final Thread worker;
+
+    /** Shared pool that runs the queued calls, or null if we have a worker. */
+    private final Executor pool;
+
+    /** Is there a task in the pool draining our queue? */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /** Task submitted to the pool to drain our queue. */
+    private final Runnable drainTask = new Runnable() {
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /** Thread currently running calls for this executor. */
+    private volatile Thread runningThread;
+
+    /** Number of calls that have been submitted. */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /** Number of calls that have been dropped. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Number of queued calls that have not yet finished running. */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /** How often awaitIdle checks if we are idle, in milliseconds. */
+    private static final long IDLE_POLL_INTERVAL = 10;
+
+    /** Are we still running? */
+    private volatile boolean running = true;
+
+    /**
+     * Create a new ScriptExecutor and start its worker thread.
+     *
+     * @param name Name for the worker thread.
+     * @param capacity Maximum number of queued calls.
+     * @param policy What to do when the queue is full.
+     * @param logger Logger to report failures to.
+     */
+    public ScriptExecutor(final String name, final int capacity, final OverflowPolicy policy, final Logger logger) {
+        this.queue = new ArrayBlockingQueue<Runnable>(Math.max(1, capacity));
+        this.policy = policy;
+        this.logger = logger;
+        this.pool = null;
+
+        worker = new ExecutorThread(this, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Create a new ScriptExecutor that runs its calls using the given pool.
+     *
+     * @param pool Pool to run calls with.
+     * @param capacity Maximum number of queued calls.
+     * @param policy What to do when the queue is full.
+     * @param logger Logger to report failures to.
+     */
+    public ScriptExecutor(final Executor pool, final int capacity, final OverflowPolicy policy, final Logger logger) {
+        this.queue = new ArrayBlockingQueue<Runnable>(Math.max(1, capacity));
+        this.policy = policy;
+        this.logger = logger;
+        this.pool = pool;
+        this.worker = null;
+    }
+
+    /**
+     * Get the thread pool shared by all pooled executors, creating it if
+     * needed.
+     *
+     * The pool is created by the first caller, so later calls with a
+     * different size will not change it.
+     *
+     * @param threads Number of threads to create the pool with.
+     * @return The shared pool.
+     */
+    public static synchronized Executor getSharedPool(final int threads) {
+        if (sharedPool == null) {
+            sharedPool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                /** Number of threads created so far. */
+                private final AtomicInteger count = new AtomicInteger();
+
+                /** {@inheritDoc} */
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new ExecutorThread(r, "Script Pool " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Queue the given call.
+     *
+     * Calls submitted from the thread currently running this script (eg
+     * events caused by the script sending data) are run immediately, as the
+     * script is already running and waiting on the queue could deadlock.
+     *
+     * @param command Call to queue.
+     */
+    @Override
+    public void execute(final Runnable command) {
+        if (!running) { return; }
+        submitted.incrementAndGet();
+
+        if (Thread.currentThread() == runningThread) {
+            runCall(command);
+            return;
+        }
+
+        outstanding.incrementAndGet();
+        switch (policy) {
+            case BLOCK:
+                if (Thread.currentThread() instanceof ExecutorThread) {
+                    // Threads running script calls must never wait on each
+                    // other, or two scripts sending to each other's full
+                    // queues would deadlock.
+                    if (!queue.offer(command)) {
+                        callDropped();
+                    }
+                    break;
+                }
+                try {
+                    queue.put(command);
+                } catch (final InterruptedException ie) {
+                    callDropped();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(command)) {
+                    callDropped();
+                }
+                break;
+            case DROP_OLDEST:
+            default:
+                while (!queue.offer(command)) {
+                    if (queue.poll() != null) {
+                        callDropped();
+                    }
+                }
+                break;
+        }
+
+        if (pool != null) { schedule(); }
+    }
+
+    /**
+     * Record that a queued or submitted call was dropped without running.
+     */
+    private void callDropped() {
+        dropped.incrementAndGet();
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Make sure that a task is queued in the pool to drain our queue.
+     */
+    private void schedule() {
+        if (running && !queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            pool.execute(drainTask);
+        }
+    }
+
+    /**
+     * Run queued calls from a pool thread.
+     *
+     * This runs at most POOL_BATCH_SIZE calls before giving the thread back
+     * to the pool, so that busy scripts can not starve the others.
+     */
+    private void drain() {
+        runningThread = Thread.currentThread();
+        try {
+            for (int i = 0; i < POOL_BATCH_SIZE && running; i++) {
+                final Runnable command = queue.poll();
+                if (command == null) { break; }
+                runQueuedCall(command);
+            }
+        } finally {
+            runningThread = null;
+            scheduled.set(false);
+        }
+        schedule();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        runningThread = Thread.currentThread();
+        while (running) {
+            try {
+                final Runnable command = queue.take();
+                if (command != STOP) { runQueuedCall(command); }
+            } catch (final InterruptedException ie) {
+                /* Nothing interrupts us, carry on until stopped. */
+            }
+        }
+        runningThread = null;
+    }
+
+    /**
+     * Run a single call, making sure that a failing call does not stop us.
+     *
+     * Errors are caught as well as exceptions, as a script can easily cause
+     * a StackOverflowError, and letting it escape would kill the worker
+     * thread and leave the rest of the queue unrun.
+     *
+     * @param command Call to run.
+     */
+    private void runCall(final Runnable command) {
+        try {
+            command.run();
+        } catch (final Throwable t) {
+            logger.error("Error in script call: " + t);
+        }
+    }
+
+    /**
+     * Run a call that was taken from the queue.
+     *
+     * @param command Call to run.
+     */
+    private void runQueuedCall(final Runnable command) {
+        try {
+            runCall(command);
+        } finally {
+            outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * Thread used to run script calls, either as a worker or in the shared
+     * pool.
+     */
+    private static class ExecutorThread extends Thread {
+        /**
+         * Create a new ExecutorThread.
+         *
+         * @param target Runnable to run.
+         * @param name Name of the thread.
+         */
+        public ExecutorThread(final Runnable target, final String name) {
+            super(target, name);
+        }
+    }
+
+    /**
+     * Get the number of calls waiting to be run.
+     *
+     * @return Current queue depth.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of calls that have been submitted.
+     *
+     * @return Number of calls submitted.
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Get the number of calls that were dropped because the queue was full.
+     *
+     * @return Number of calls dropped.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Check if there are no calls queued or running.
+     *
+     * @return True if we are idle.
+     */
+    public boolean isIdle() {
+        return outstanding.get() <= 0;
+    }
+
+    /**
+     * Wait until all calls that have been queued have finished running.
+     *
+     * Calls queued while waiting are also waited for, so callers should
+     * stop submitting calls first.
+     *
+     * @param timeout Maximum time to wait in milliseconds.
+     * @return True if we became idle, false if the timeout passed first.
+     */
+    public boolean awaitIdle(final long timeout) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (running && !isIdle()) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) { return false; }
+            try {
+                Thread.sleep(Math.min(remaining, IDLE_POLL_INTERVAL));
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the worker thread, any queued calls are discarded.
+     *
+     * The worker is woken with a STOP call rather than interrupted, as an
+     * interrupt landing while a call is using the script store would close
+     * the store's file channel.
+     */
+    public void shutdown() {
+        running = false;
+        queue.clear();
+        outstanding.set(0);
+        if (worker != null) { queue.offer(STOP); }
+    }
+}
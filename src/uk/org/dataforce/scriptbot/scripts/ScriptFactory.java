@@ -21,6 +21,7 @@
  */
 package uk.org.dataforce.scriptbot.scripts;
 
+import java.io.File;
 import javax.script.ScriptEngineManager;
 import uk.org.dataforce.scriptbot.config.Config;
 import uk.org.dataforce.scriptbot.scripts.rhinosandbox.RhinoScriptEngine;
@@ -30,20 +31,25 @@ import uk.org.dataforce.scriptbot.scripts.rhinosandbox.RhinoScriptEngine;
  */
 public class ScriptFactory {
 
-    /** Static ScriptEngineManager. */
-    private static ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
+    /** Static ScriptEngineManager, servers may start in parallel so lock it when used. */
+    private static final ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
 
     /**
      * Get a ScriptEngine based on a file extension
      *
      * @param extension Extension that engine must support.
+     * @param config Config for the engine.
+     * @param file File that the engine will run.
+     * @param name Path of the script within the scripts directory.
      */
-    public static ScriptBotEngine getEngineByExtension(final String extension, final Config config) {
+    public static ScriptBotEngine getEngineByExtension(final String extension, final Config config, final File file, final String name) {
         if (extension.equalsIgnoreCase("js")) {
             // We need to emulate a proper ScriptEngine/Factory.. but untill then...
-            return new RhinoScriptEngine(config);
+            return new RhinoScriptEngine(config, file, name);
         } else {
-            return new ScriptEngineWrapper(scriptEngineManager.getEngineByExtension(extension), config);
+            synchronized (scriptEngineManager) {
+                return new ScriptEngineWrapper(scriptEngineManager.getEngineByExtension(extension), config);
+            }
         }
     }
 
@@ -51,13 +57,18 @@ public class ScriptFactory {
      * Get a ScriptEngine based on a type
      *
      * @param type Type of engine to get.
+     * @param config Config for the engine.
+     * @param file File that the engine will run.
+     * @param name Path of the script within the scripts directory.
      */
-    public static ScriptBotEngine getEngineByType(final String type, final Config config) {
+    public static ScriptBotEngine getEngineByType(final String type, final Config config, final File file, final String name) {
         if (type.equalsIgnoreCase("javascript")) {
             // We need to emulate a proper ScriptEngine/Factory.. but untill then...
-            return new RhinoScriptEngine(config);
+            return new RhinoScriptEngine(config, file, name);
         } else {
-            return new ScriptEngineWrapper(scriptEngineManager.getEngineByName(type), config);
+            synchronized (scriptEngineManager) {
+                return new ScriptEngineWrapper(scriptEngineManager.getEngineByName(type), config);
+            }
         }
     }
 }
\ No newline at end of file
@@ -24,10 +24,13 @@ package uk.org.dataforce.scriptbot.scripts;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.script.ScriptException;
 import uk.org.dataforce.libs.logger.Logger;
 import uk.org.dataforce.scriptbot.Server;
@@ -47,6 +50,17 @@ public class ScriptHandler {
     /** Store Script State Name,Engine */
     private final Map<String, Script> scripts = new HashMap<String,Script>();
 
+    /** Paths of scripts that are being loaded, guarded by scripts. */
+    private final Set<String> loading = new HashSet<String>();
+
+    /**
+     * Index of event name to all the bindings for it across every script.
+     *
+     * This map is never modified once published, a new one is built by
+     * rebuildEventIndex() whenever bindings change.
+     */
+    private volatile Map<String, BoundEvent[]> eventIndex = new HashMap<String, BoundEvent[]>();
+
     /**
      * Create a new ScriptHandler.
      *
@@ -57,6 +71,15 @@ public class ScriptHandler {
         server.getParser().getCallbackManager().addAllCallback(ircScripter);
     }
 
+    /**
+     * Stop passing parser events to the command table, so that no more
+     * commands are queued for our scripts. Events bound with bindEvent come
+     * through the server's ParserBridge, which must be cleared separately.
+     */
+    public void detach() {
+        myServer.getParser().getCallbackManager().delAllCallback(ircScripter);
+    }
+
     /**
      * Get the server that owns this handler.
      *
@@ -88,40 +111,83 @@ public class ScriptHandler {
     /**
      * Load a script using the given type.
      *
+     * Scripts may be loaded from several threads at once (eg when servers
+     * start in parallel, or by the script watcher), so the path is reserved
+     * before the script is created, and a second load of the same file fails
+     * rather than creating a script that would never be unloaded.
+     *
      * @param file File to load.
      * @param type Script type.
      * @return True if script loaded.
      */
     public boolean loadScript(final File file, final String type) {
-        if (file.exists() && getScript(file) == null) {
-            try {
-                final Script script = new Script(this, file, type, myServer.getConfig());
-                if (script.load()) {
-                    synchronized (scripts) {
-                        scripts.put(getFilePath(file), script);
-                    }
-                    return true;
-                }
-            } catch (final ScriptException se) {
-                getLogger().error(se.getMessage());
+        if (!file.exists()) { return false; }
+        final String path = getFilePath(file);
+        synchronized (scripts) {
+            if (scripts.containsKey(path) || !loading.add(path)) { return false; }
+        }
+
+        try {
+            final Script script = new Script(this, file, type, myServer.getConfig());
+            if (!script.load()) {
+                script.unload();
+                return false;
+            }
+            synchronized (scripts) {
+                scripts.put(path, script);
+            }
+            rebuildEventIndex();
+            return true;
+        } catch (final ScriptException se) {
+            getLogger().error(se.getMessage());
+            return false;
+        } finally {
+            synchronized (scripts) {
+                loading.remove(path);
             }
         }
-        return false;
     }
 
     /**
-     * Load a script and guess the type using the file extension.
+     * Unload a single script.
      *
-     * @param file File to load.
-     * @return True if script loaded.
+     * @param file File of the script to unload.
+     * @return True if the script was loaded and has been unloaded.
+     */
+    public boolean unloadScript(final File file) {
+        final Script script;
+        synchronized (scripts) {
+            script = scripts.remove(getFilePath(file));
+        }
+        if (script == null) { return false; }
+
+        script.unload();
+        rebuildEventIndex();
+        return true;
+    }
+
+    /**
+     * Get the loaded script for the given file.
+     *
+     * @param file File to look for.
+     * @return The script, or null if it is not loaded.
      */
     public Script getScript(final File file) {
         final String filename = getFilePath(file);
-        if (scripts.containsKey(filename)) {
+        synchronized (scripts) {
             return scripts.get(filename);
         }
+    }
 
-        return null;
+    /**
+     * Get all the scripts currently loaded.
+     *
+     * @return List of loaded scripts.
+     */
+    public List<Script> getScripts() {
+        synchronized (scripts) {
+            return new ArrayList<Script>(scripts.values());
+        }
     }
 
     /**
@@ -147,14 +213,74 @@ public class ScriptHandler {
      * @param args Arguments for functions.
      */
     public void callBound(final String function, final Object... args) {
-        for (final Script script : new ArrayList<Script>(scripts.values())) {
-            final Set<BoundMethod> bound = script.getBridge().__getBindings(function);
-            for (BoundMethod b : bound) {
-                script.call(b.object, b.method, args);
+        final BoundEvent[] bound = eventIndex.get(function);
+        if (bound == null) { return; }
+
+        for (final BoundEvent b : bound) {
+            b.script.callNamed(function, b.boundMethod.object, b.boundMethod.method, args);
+        }
+    }
+
+    /**
+     * Called by a ScriptBridge when its bindings have changed.
+     *
+     * Changes to bridges that are not currently active (eg a bridge for a
+     * script that is still being loaded or reloaded) are ignored, the index
+     * will be rebuilt once the script becomes active.
+     *
+     * @param script Script that owns the bridge.
+     * @param bridge Bridge that changed.
+     */
+    public void bindingsChanged(final Script script, final ScriptBridge bridge) {
+        if (script.getBridge() != bridge) { return; }
+
+        synchronized (scripts) {
+            if (!scripts.containsValue(script)) { return; }
+        }
+        rebuildEventIndex();
+    }
+
+    /**
+     * Rebuild the index of bound events from the currently active bridge of
+     * every loaded script.
+     */
+    public void rebuildEventIndex() {
+        final Map<String, List<BoundEvent>> building = new HashMap<String, List<BoundEvent>>();
+        synchronized (scripts) {
+            for (final Script script : scripts.values()) {
+                for (final Map.Entry<String, List<BoundMethod>> entry : script.getBridge().__getAllBindings().entrySet()) {
+                    if (!building.containsKey(entry.getKey())) {
+                        building.put(entry.getKey(), new ArrayList<BoundEvent>());
+                    }
+                    final List<BoundEvent> events = building.get(entry.getKey());
+                    for (final BoundMethod bm : entry.getValue()) {
+                        events.add(new BoundEvent(script, bm));
+                    }
+                }
+            }
+
+            final Map<String, BoundEvent[]> newIndex = new HashMap<String, BoundEvent[]>();
+            for (final Map.Entry<String, List<BoundEvent>> entry : building.entrySet()) {
+                newIndex.put(entry.getKey(), entry.getValue().toArray(new BoundEvent[entry.getValue().size()]));
+            }
+            eventIndex = newIndex;
+
+            final ParserBridge parserBridge = myServer.getParserBridge();
+            if (parserBridge != null) {
+                parserBridge.setBoundEvents(newIndex.keySet());
             }
         }
     }
 
+    /**
+     * Get the names of all the events that scripts are currently bound to.
+     *
+     * @return Names of all bound events.
+     */
+    public Collection<String> getBoundEvents() {
+        return eventIndex.keySet();
+    }
+
     /**
      * Get the Logger for this ScriptHandler
      *
@@ -166,27 +292,86 @@ public class ScriptHandler {
 
     /**
      * Reload all scripts, order of loading is not guaranteed.
+     *
+     * Scripts are reloaded one at a time without holding the scripts lock,
+     * so events keep being delivered while the new versions are compiled.
      */
     public void reloadAll() {
+        for (final Script script : getScripts()) {
+            reloadScript(script);
+        }
+    }
+
+    /**
+     * Reload the given script if its file no longer has the given contents.
+     *
+     * @param file File of the script to reload.
+     * @param hash Hash of the file's current contents.
+     * @return True if the script is loaded here and was reloaded
+     *         successfully.
+     */
+    public boolean reloadIfChanged(final File file, final String hash) {
+        final Script script;
         synchronized (scripts) {
-            for (final Script script : new ArrayList<Script>(scripts.values())) {
-                try {
-                    script.reload();
-                } catch (final ScriptException se) { /* Ignore, it will have been logged */ }
-            }
+            script = getScript(file);
         }
+        if (script == null || hash.equals(script.getContentHash())) { return false; }
+
+        reloadScript(script);
+        return hash.equals(script.getContentHash());
+    }
+
+    /**
+     * Reload a single script.
+     *
+     * @param script Script to reload.
+     */
+    private void reloadScript(final Script script) {
+        try {
+            script.reload();
+        } catch (final ScriptException se) { /* Ignore, it will have been logged */ }
     }
 
     /**
      * Unload all scripts.
      */
     public void unload() {
+        final List<Script> oldScripts;
         synchronized (scripts) {
-            final List<Script> oldScripts = new ArrayList<Script>(scripts.values());
+            oldScripts = new ArrayList<Script>(scripts.values());
             scripts.clear();
-            for (final Script script : oldScripts) {
-                script.unload();
+        }
+        rebuildEventIndex();
+        for (final Script script : oldScripts) {
+            script.unload();
+        }
+    }
+
+    /**
+     * Wait for the calls queued for our scripts to finish running.
+     *
+     * @param timeout Maximum time to wait in milliseconds.
+     * @return True if all queued calls finished in time.
+     */
+    public boolean awaitIdle(final long timeout) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (final Script script : getScripts()) {
+            final ScriptExecutor executor = script.getExecutor();
+            if (executor != null && !executor.awaitIdle(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Discard any calls queued for our scripts and stop their worker
+     * threads, without waiting for running calls to finish.
+     */
+    public void cancelQueuedCalls() {
+        for (final Script script : getScripts()) {
+            final ScriptExecutor executor = script.getExecutor();
+            if (executor != null) { executor.shutdown(); }
+        }
     }
 }
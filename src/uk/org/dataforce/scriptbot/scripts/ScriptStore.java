@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts;
+
+import java.io.IOException;
+import java.util.List;
+import uk.org.dataforce.libs.store.LogStore;
+
+/**
+ * Persistent key/value storage for a script, available to scripts as
+ * bot.store.
+ *
+ * Keys and values are strings, scripts wanting to store anything else
+ * should use JSON. The store belongs to the script rather than its engine,
+ * so it is kept when the script is reloaded, and is saved to disk so it is
+ * kept when the bot is restarted.
+ */
+public class ScriptStore {
+    /** Store holding our data. */
+    private final LogStore store;
+
+    /**
+     * Create a new ScriptStore.
+     *
+     * @param store Store holding our data.
+     */
+    public ScriptStore(final LogStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Used by scripts to get a value.
+     *
+     * @param key Key to get.
+     * @return The value, or null if the key is not set.
+     * @throws IOException if the store has been closed.
+     */
+    public String get(final String key) throws IOException {
+        return store.get(key);
+    }
+
+    /**
+     * Used by scripts to get a value, or a default if it is not set.
+     *
+     * @param key Key to get.
+     * @param fallback Value to return if the key is not set.
+     * @return The value, or fallback if the key is not set.
+     * @throws IOException if the store has been closed.
+     */
+    public String get(final String key, final String fallback) throws IOException {
+        final String value = store.get(key);
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * Used by scripts to set a value.
+     *
+     * @param key Key to set, this can not be empty.
+     * @param value Value to set, or null to remove the key.
+     * @throws IOException if the store has been closed or is full.
+     */
+    public void put(final String key, final String value) throws IOException {
+        if (value == null) {
+            store.remove(key);
+        } else {
+            store.put(key, value);
+        }
+    }
+
+    /**
+     * Used by scripts to remove a value.
+     *
+     * @param key Key to remove.
+     * @return True if the key was set.
+     * @throws IOException if the store has been closed or is full.
+     */
+    public boolean remove(final String key) throws IOException {
+        return store.remove(key);
+    }
+
+    /**
+     * Used by scripts to check if a key is set.
+     *
+     * @param key Key to check.
+     * @return True if the key is set.
+     * @throws IOException if the store has been closed.
+     */
+    public boolean contains(final String key) throws IOException {
+        return store.contains(key);
+    }
+
+    /**
+     * Used by scripts to get all the keys that are set.
+     *
+     * @return List of keys, in no particular order.
+     * @throws IOException if the store has been closed.
+     */
+    public List<String> keys() throws IOException {
+        return store.keys();
+    }
+
+    /**
+     * Used by scripts to get the number of keys that are set.
+     *
+     * @return Number of keys.
+     * @throws IOException if the store has been closed.
+     */
+    public int size() throws IOException {
+        return store.size();
+    }
+
+    /**
+     * Used by scripts to force everything they have stored to disk now,
+     * rather than waiting for the configured sync policy.
+     */
+    public void sync() {
+        store.sync();
+    }
+
+    /**
+     * Close the store, this is done when the script is unloaded.
+     * Begins with __ so can't be accessed by script.
+     */
+    public void __close() {
+        store.close();
+    }
+}
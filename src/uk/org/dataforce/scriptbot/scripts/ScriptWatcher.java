@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.util.DirectoryWatcher;
+import uk.org.dataforce.libs.util.Util;
+import uk.org.dataforce.scriptbot.Server;
+import uk.org.dataforce.scriptbot.ServerManager;
+
+/**
+ * Watches the scripts directory and reloads scripts when their files change.
+ *
+ * Only scripts whose contents really changed are reloaded, in every server
+ * that has them loaded. The new version is compiled on the watcher thread
+ * and swapped in once it has loaded, so events keep being handled by the old
+ * version until then.
+ */
+public class ScriptWatcher extends DirectoryWatcher {
+
+    /** Server manager to find loaded scripts with. */
+    private final ServerManager manager;
+
+    /** Logger to report reloads to. */
+    private final Logger logger = LogFactory.getLogger("scripts.watcher");
+
+    /**
+     * Create a new ScriptWatcher and start its thread.
+     *
+     * @param manager Server manager to find loaded scripts with.
+     * @param directory Scripts directory to watch, including subdirectories.
+     * @param quietPeriod Time in milliseconds that a file must be left alone
+     *        for before it is reloaded.
+     * @throws IOException If the directory can not be watched.
+     */
+    public ScriptWatcher(final ServerManager manager, final File directory, final long quietPeriod) throws IOException {
+        super("Script Watcher", quietPeriod);
+        this.manager = manager;
+        watchTree(directory.getAbsoluteFile().toPath().normalize());
+        start();
+    }
+
+    /**
+     * Watch the given directory and everything below it.
+     *
+     * @param root Directory to watch.
+     * @throws IOException If the directory can not be watched.
+     */
+    private void watchTree(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            /** {@inheritDoc} */
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                watchDirectory(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void directoryCreated(final Path directory) {
+        try {
+            watchTree(directory);
+        } catch (final IOException ioe) {
+            logger.error("Unable to watch script directory " + directory + ": " + ioe.getMessage());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isWatched(final Path file) {
+        return getWatchedFiles().contains(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This is every file that a script is currently loaded from, in any
+     * server.
+     */
+    @Override
+    protected Collection<Path> getWatchedFiles() {
+        final Set<Path> files = new HashSet<Path>();
+        for (Server server : manager.getServers()) {
+            final ScriptHandler handler = server.getScriptHandler();
+            if (handler == null) { continue; }
+            for (Script script : handler.getScripts()) {
+                files.add(script.getFile().getAbsoluteFile().toPath().normalize());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reload the script in the given file in every server that has a
+     * different version of it loaded.
+     *
+     * @param file File that changed.
+     */
+    @Override
+    protected void fileChanged(final Path file) {
+        if (!Files.isRegularFile(file)) { return; }
+
+        final String hash;
+        try {
+            hash = Util.sha256Hash(Files.readAllBytes(file));
+        } catch (final IOException ioe) {
+            logger.error("Unable to read changed script " + file + ": " + ioe.getMessage());
+            return;
+        }
+
+        int reloaded = 0;
+        for (Server server : manager.getServers()) {
+            final ScriptHandler handler = server.getScriptHandler();
+            try {
+                if (handler != null && handler.reloadIfChanged(file.toFile(), hash)) {
+                    reloaded++;
+                }
+            } catch (final RuntimeException re) {
+                logger.error("Error reloading " + file + " for '" + server.getName() + "': " + re);
+            }
+        }
+
+        if (reloaded > 0) {
+            logger.info("Script " + file + " changed, reloaded in " + reloaded + " server(s).");
+        }
+    }
+}
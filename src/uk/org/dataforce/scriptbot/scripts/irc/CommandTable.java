@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.irc;
+
+import com.dmdirc.parser.interfaces.StringConverter;
+import java.util.Map;
+import uk.org.dataforce.scriptbot.scripts.BoundMethod;
+
+/**
+ * An immutable table of command bindings that can be searched using part of
+ * a line, without creating any new objects.
+ *
+ * Commands are matched case-insensitively using the StringConverter that the
+ * table was built with, so that they follow the server's casemapping. The
+ * table should be rebuilt if the parser's StringConverter changes.
+ */
+public final class CommandTable {
+    /**
+     * A single command binding in the table.
+     */
+    public static final class Entry {
+        /** Command as it was bound. */
+        public final String command;
+        /** Name to record stats for this command under. */
+        public final String statsName;
+        /** Method bound to the command. */
+        public final BoundMethod boundMethod;
+        /** Hash of the command. */
+        private final int hash;
+
+        /**
+         * Create a new Entry.
+         *
+         * @param command Command as it was bound.
+         * @param boundMethod Method bound to the command.
+         * @param hash Hash of the command.
+         */
+        private Entry(final String command, final BoundMethod boundMethod, final int hash) {
+            this.command = command;
+            this.statsName = "command:" + command;
+            this.boundMethod = boundMethod;
+            this.hash = hash;
+        }
+    }
+
+    /** Converter used to fold case. */
+    private final StringConverter converter;
+
+    /** Open-addressed table of entries, the length is a power of two. */
+    private final Entry[] entries;
+
+    /** Length of the shortest command in the table. */
+    private final int minLength;
+
+    /** Length of the longest command in the table. */
+    private final int maxLength;
+
+    /**
+     * Create a new CommandTable.
+     *
+     * @param bindings Map of command to the method bound to it.
+     * @param converter Converter used to fold case.
+     */
+    public CommandTable(final Map<String, BoundMethod> bindings, final StringConverter converter) {
+        this.converter = converter;
+
+        int size = 2;
+        while (size < bindings.size() * 2) { size <<= 1; }
+        entries = new Entry[size];
+
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (final Map.Entry<String, BoundMethod> binding : bindings.entrySet()) {
+            final String command = binding.getKey();
+            if (command.isEmpty()) { continue; }
+
+            final int hash = hash(command, 0, command.length());
+            int slot = hash & (entries.length - 1);
+            while (entries[slot] != null && !matches(entries[slot], command, 0, command.length())) {
+                slot = (slot + 1) & (entries.length - 1);
+            }
+            entries[slot] = new Entry(command, binding.getValue(), hash);
+            min = Math.min(min, command.length());
+            max = Math.max(max, command.length());
+        }
+        minLength = min;
+        maxLength = max;
+    }
+
+    /**
+     * Get the converter that this table was built with.
+     *
+     * @return Converter used to fold case.
+     */
+    public StringConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Find the entry for the command in the given part of a line.
+     *
+     * @param line Line containing the command.
+     * @param start Index of the first character of the command.
+     * @param end Index after the last character of the command.
+     * @return The matching Entry, or null if the command is not bound.
+     */
+    public Entry find(final String line, final int start, final int end) {
+        final int length = end - start;
+        if (length < minLength || length > maxLength) { return null; }
+
+        final int hash = hash(line, start, end);
+        int slot = hash & (entries.length - 1);
+        Entry entry;
+        while ((entry = entries[slot]) != null) {
+            if (entry.hash == hash && matches(entry, line, start, end)) {
+                return entry;
+            }
+            slot = (slot + 1) & (entries.length - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Hash part of a string, ignoring case.
+     *
+     * @param string String to hash.
+     * @param start Index of first character to hash.
+     * @param end Index after the last character to hash.
+     * @return Hash value.
+     */
+    private int hash(final String string, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + converter.toLowerCase(string.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Check if part of a string is the command in the given entry, ignoring
+     * case.
+     *
+     * @param entry Entry to check.
+     * @param string String to check.
+     * @param start Index of first character to check.
+     * @param end Index after the last character to check.
+     * @return True if the string matches the entry.
+     */
+    private boolean matches(final Entry entry, final String string, final int start, final int end) {
+        final String command = entry.command;
+        if (command.length() != end - start) { return false; }
+
+        for (int i = 0; i < command.length(); i++) {
+            final char a = command.charAt(i);
+            final char b = string.charAt(start + i);
+            if (a != b && converter.toLowerCase(a) != converter.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
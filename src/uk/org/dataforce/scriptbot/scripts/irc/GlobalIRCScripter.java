@@ -24,6 +24,7 @@ package uk.org.dataforce.scriptbot.scripts.irc;
 import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.Parser;
+import com.dmdirc.parser.interfaces.StringConverter;
 import java.util.HashMap;
 import java.util.Map;
 import uk.org.dataforce.scriptbot.scripts.BoundMethod;
@@ -44,6 +45,12 @@ public class GlobalIRCScripter implements ScriptObject, ChannelMessageListener {
     /** List storing bindings. */
     private final Map<String, BoundMethod> bindings = new HashMap<String, BoundMethod>();
 
+    /**
+     * Table used to look up commands, or null if it needs to be rebuilt.
+     * This is cleared whenever the bindings change.
+     */
+    private volatile CommandTable commandTable;
+
     /**
      * Create a new IRCScripter.
      */
@@ -72,9 +79,9 @@ public class GlobalIRCScripter implements ScriptObject, ChannelMessageListener {
      */
     public BoundMethod bindCommand(final IRCScripter scripter, final String command, final String flags, final Object object, final Object method) {
         synchronized (bindings) {
-            if (bindings.containsKey(command.toLowerCase())) { bindings.remove(command); }
             final BoundMethod boundMethod = new BoundMethod(scripter, object, method);
             bindings.put(command.toLowerCase(), boundMethod);
+            commandTable = null;
             return boundMethod;
         }
     }
@@ -87,6 +94,7 @@ public class GlobalIRCScripter implements ScriptObject, ChannelMessageListener {
     public void unbindCommand(final String command) {
         synchronized (bindings) {
             bindings.remove(command.toLowerCase());
+            commandTable = null;
         }
     }
 
@@ -104,6 +112,28 @@ public class GlobalIRCScripter implements ScriptObject, ChannelMessageListener {
                     bindings.remove(k);
                 }
             }
+            commandTable = null;
+        }
+    }
+
+    /**
+     * Get the table to look up commands with, rebuilding it if the bindings
+     * or the parser's casemapping have changed.
+     *
+     * @param converter The parser's current StringConverter.
+     * @return Table to look up commands with.
+     */
+    private CommandTable getCommandTable(final StringConverter converter) {
+        final CommandTable table = commandTable;
+        if (table != null && table.getConverter() == converter) {
+            return table;
+        }
+
+        synchronized (bindings) {
+            if (commandTable == null || commandTable.getConverter() != converter) {
+                commandTable = new CommandTable(bindings, converter);
+            }
+            return commandTable;
         }
     }
 
@@ -111,11 +141,17 @@ public class GlobalIRCScripter implements ScriptObject, ChannelMessageListener {
     @Override
     public void onChannelMessage(final Parser parser, final Date date, final ChannelInfo channel, final ChannelClientInfo client, final String message, final String host) {
         // A message, holy crap a message!
-        final String[] bits = message.split(" ", 2);
+        final int space = message.indexOf(' ');
+        final int end = space == -1 ? message.length() : space;
 
-        final BoundMethod bm = getBoundMethod(bits[0]);
-        if (bm != null && bm.scripter != null) {
-            bm.scripter.__getScript().call(bm.object, bm.method, parser, date, channel, client, bits[0], (bits.length > 1 ? bits[1] : ""));
+        // Most messages are not commands, so avoid creating anything until
+        // we know that this one is.
+        final CommandTable.Entry entry = getCommandTable(parser.getStringConverter()).find(message, 0, end);
+        if (entry != null && entry.boundMethod.scripter != null) {
+            final BoundMethod bm = entry.boundMethod;
+            final String command = message.substring(0, end);
+            final String args = space == -1 ? "" : message.substring(space + 1);
+            bm.scripter.__getScript().callNamed(entry.statsName, bm.object, bm.method, parser, date, channel, client, command, args);
         }
     }
 }
@@ -21,56 +21,89 @@
  */
 package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import uk.org.dataforce.libs.logger.LogFactory;
+import uk.org.dataforce.libs.logger.Logger;
 
 /**
  * This class controls what classes scripts in the VM have access to.
  *
+ * Rhino asks about the same classes many times, so decisions are cached.
+ *
  * From http://codeutopia.net/blog/2009/01/02/sandboxing-rhino-in-java/
  */
 public class ClassShutter implements org.mozilla.javascript.ClassShutter {
+    /** Classes that are always allowed, unless specifically denied. */
+    private static final PrefixTrie defaultClasses = new PrefixTrie(
+            "adapter",
+            "com.dmdirc.parser.",
+            "java.util.",
+            "java.lang.",
+            "org.mozilla.javascript.", // Unsure about this one, but allow it for now.
+            "uk.org.dataforce.scriptbot.scripts.ScriptBridge",
+            "uk.org.dataforce.scriptbot.scripts.ScriptStore",
+            "uk.org.dataforce.scriptbot.scripts.irc.IRCScripter",
+            "uk.org.dataforce.scriptbot.scripts.BoundMethod");
+
+    /** Logger to report denied classes to. */
+    private static final Logger logger = LogFactory.getLogger("rhino.classshutter");
+
+    /** Classes that have been reported as denied. */
+    private static final Set<String> reported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     /** Additional classes to allow apart from the defaults. */
-    private List<String> goodClasses;
+    private final PrefixTrie goodClasses;
 
     /** Classes to specifically deny. */
-    private List<String> badClasses;
+    private final PrefixTrie badClasses;
 
+    /** Decisions we have already made. */
+    private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
 
+    /**
+     * Create a new ClassShutter.
+     *
+     * @param goodClasses Additional classes to allow apart from the defaults.
+     * @param badClasses Classes to specifically deny.
+     */
     public ClassShutter(final List<String> goodClasses, final List<String> badClasses) {
-        this.goodClasses = goodClasses;
-        this.badClasses = badClasses;
+        this.goodClasses = new PrefixTrie(goodClasses);
+        this.badClasses = new PrefixTrie(badClasses);
     }
 
     /** {@inheritDoc} */
     @Override
     public boolean visibleToScripts(final String className) {
-        for (final String clazz : badClasses) {
-            if (className.startsWith(clazz)) {
-                return false;
-            }
+        final Boolean decision = decisions.get(className);
+        if (decision != null) { return decision; }
+
+        final boolean visible = isVisible(className);
+        decisions.putIfAbsent(className, visible);
+        if (!visible && reported.add(className)) {
+            logger.warning("Denied Class: " + className);
         }
+        return visible;
+    }
 
-        if (className.startsWith("adapter") ||
-            className.startsWith("com.dmdirc.parser.") ||
-            className.startsWith("java.util.") ||
-            className.startsWith("java.lang.") ||
-            className.startsWith("org.mozilla.javascript.") || // Unsure about this one, but allow it for now.
-            className.startsWith("uk.org.dataforce.scriptbot.scripts.ScriptBridge") ||
-            className.startsWith("uk.org.dataforce.scriptbot.scripts.irc.IRCScripter") ||
-            className.startsWith("uk.org.dataforce.scriptbot.scripts.BoundMethod")) {
+    /**
+     * Decide if the given class should be visible to scripts.
+     *
+     * @param className Class to check.
+     * @return True if the class should be visible.
+     */
+    private boolean isVisible(final String className) {
+        if (badClasses.matches(className)) {
+            return false;
+        } else if (defaultClasses.matches(className)) {
             return true;
         } else if (className.startsWith("uk.org.dataforce.scriptbot") && !className.startsWith("uk.org.dataforce.scriptbot.scripts")) {
             return true;
         } else {
-            for (final String clazz : goodClasses) {
-                if (className.startsWith(clazz)) {
-                    return true;
-                }
-            }
+            return goodClasses.matches(className);
         }
-
-        System.out.println("Denied Class: "+ className);
-
-        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+/**
+ * Process-wide cache of compiled scripts.
+ *
+ * Compiled scripts do not hold any state of their own, so the same compiled
+ * script can be run in the scope of every engine that loads the same file.
+ * Entries are keyed by the canonical path of the file, the SHA-256 hash of
+ * its contents that Script has already worked out when loading it, and the
+ * settings that affect compilation.
+ *
+ * Compiling a new version of a file evicts the entries for its old
+ * contents, and unloading a script evicts all of its entries, so the cache
+ * only holds scripts that are loaded.
+ */
+public final class CompiledScriptCache {
+    /** Cached scripts. */
+    private static final ConcurrentMap<String, Script> cache = new ConcurrentHashMap<String, Script>();
+
+    /** Locks held while compiling, so each key is only compiled once at a time. */
+    private static final ConcurrentMap<String, Object> compileLocks = new ConcurrentHashMap<String, Object>();
+
+    /** Separator between the parts of a cache key. */
+    private static final char SEPARATOR = '\0';
+
+    /** Creates a new instance of CompiledScriptCache. */
+    private CompiledScriptCache() { }
+
+    /**
+     * Get the compiled script for the given file, compiling it if it is not
+     * cached or its contents have changed.
+     *
+     * If several threads want the same script at once (eg when servers start
+     * in parallel) only one compiles it and the others wait for the result.
+     *
+     * @param cx Context to compile in, this determines the compile settings.
+     * @param file File that the source came from.
+     * @param hash SHA-256 hash of the contents of the file.
+     * @param source Source of the script.
+     * @return The compiled script.
+     */
+    public static Script getScript(final Context cx, final File file, final String hash, final String source) {
+        final String path = getPath(file);
+        final String key = path + SEPARATOR + hash + SEPARATOR + getSettings(cx);
+
+        final Script cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Object newLock = new Object();
+        final Object existingLock = compileLocks.putIfAbsent(key, newLock);
+        synchronized (existingLock == null ? newLock : existingLock) {
+            final Script compiled = cache.get(key);
+            if (compiled != null) {
+                return compiled;
+            }
+
+            final Script script = cx.compileString(source, file.getName(), 1, null);
+            cache.put(key, script);
+            evict(path, hash);
+            return script;
+        }
+    }
+
+    /**
+     * Remove the cached scripts for the given file.
+     *
+     * @param file File to remove scripts for.
+     * @param keep Hash of the contents to keep scripts for, or null to
+     *             remove them all.
+     */
+    public static void evict(final File file, final String keep) {
+        evict(getPath(file), keep);
+    }
+
+    /**
+     * Remove the cached scripts for the given path.
+     *
+     * @param path Canonical path of the file.
+     * @param keep Hash of the contents to keep scripts for, or null to
+     *             remove them all.
+     */
+    private static void evict(final String path, final String keep) {
+        final String prefix = path + SEPARATOR;
+        final String kept = keep == null ? null : prefix + keep + SEPARATOR;
+        for (final String key : cache.keySet()) {
+            if (key.startsWith(prefix) && (kept == null || !key.startsWith(kept))) {
+                cache.remove(key);
+                compileLocks.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Remove all cached scripts.
+     */
+    public static void clear() {
+        cache.clear();
+        compileLocks.clear();
+    }
+
+    /**
+     * Get the number of cached scripts.
+     *
+     * @return Number of cached scripts.
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the path used to key the given file.
+     *
+     * @param file File to get the path of.
+     * @return Canonical path of the file, or its absolute path if that can
+     *         not be worked out.
+     */
+    private static String getPath(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (final IOException ioe) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Get the part of the cache key for the settings of the given context.
+     *
+     * @param cx Context the file will be compiled in.
+     * @return Settings key.
+     */
+    private static String getSettings(final Context cx) {
+        // Instruction counting is compiled in to optimised scripts.
+        final boolean counted = cx.getInstructionObserverThreshold() != 0;
+        return cx.getOptimizationLevel() + "|" + counted;
+    }
+}
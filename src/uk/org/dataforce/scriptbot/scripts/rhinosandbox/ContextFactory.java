@@ -27,22 +27,34 @@ import org.mozilla.javascript.Context;
 /**
  * This is the global ContextFactoyr used to ensure we generate contexts with
  * the correct WrapFactory and ClassShutter in all cases, this does not honour
- * the per-server goodClasses and badClasses lists.
+ * the per-server goodClasses and badClasses lists unless a subclass provides
+ * a different ClassShutter.
  *
  * From http://codeutopia.net/blog/2009/01/02/sandboxing-rhino-in-java/
  */
 public class ContextFactory extends org.mozilla.javascript.ContextFactory {
+    /** WrapFactory used by all contexts, this holds no state of its own. */
+    private static final WrapFactory wrapFactory = new WrapFactory();
+
     /** {@inheritDoc} */
     @Override
     protected Context makeContext() {
         Context cx = super.makeContext();
-        cx.setWrapFactory(new WrapFactory());
-        cx.setClassShutter(new ClassShutter(Collections.<String>emptyList(), Collections.<String>emptyList()));
+        cx.setWrapFactory(wrapFactory);
+        cx.setClassShutter(getClassShutter());
         return cx;
     }
 
+    /**
+     * Get the ClassShutter to use for new contexts.
+     *
+     * @return ClassShutter for new contexts.
+     */
+    protected org.mozilla.javascript.ClassShutter getClassShutter() {
+        return new ClassShutter(Collections.<String>emptyList(), Collections.<String>emptyList());
+    }
+
     static {
-        System.out.println("CF Init");
         ContextFactory.initGlobal(new ContextFactory());
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+import java.util.List;
+import org.mozilla.javascript.Context;
+
+/**
+ * ContextFactory owned by a single RhinoScriptEngine.
+ *
+ * Contexts are configured once when they are made. As Rhino will reuse the
+ * context that is already active on a thread (eg when one script causes an
+ * event in another), the ClassShutter installed in contexts does not hold
+ * any lists itself, but checks the lists of the engine that is currently
+ * running in the context. Engines mark themselves as running using
+ * setCurrent().
+ *
+ * This also charges executed instructions to the InstructionBudget of the
+ * current invocation, if any.
+ */
+public class EngineContextFactory extends ContextFactory {
+    /** ClassShutter for the engine that owns this factory. */
+    private final ClassShutter classShutter;
+
+    /** ClassShutter installed in contexts, defers to the current engine. */
+    private static final org.mozilla.javascript.ClassShutter currentShutter = new org.mozilla.javascript.ClassShutter() {
+        /** {@inheritDoc} */
+        @Override
+        public boolean visibleToScripts(final String className) {
+            final Context cx = Context.getCurrentContext();
+            final Object current = (cx == null) ? null : cx.getThreadLocal(EngineContextFactory.class);
+            if (current instanceof EngineContextFactory) {
+                return ((EngineContextFactory)current).classShutter.visibleToScripts(className);
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Create a new EngineContextFactory.
+     *
+     * @param goodClasses Additional classes to allow in the sandbox.
+     * @param badClasses Classes to specifically deny in the sandbox.
+     */
+    public EngineContextFactory(final List<String> goodClasses, final List<String> badClasses) {
+        this.classShutter = new ClassShutter(goodClasses, badClasses);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected org.mozilla.javascript.ClassShutter getClassShutter() {
+        return currentShutter;
+    }
+
+    /**
+     * Mark this factory's engine as the one running in the given context.
+     *
+     * @param cx Context the engine is running in.
+     * @return The previous value, to pass to restoreCurrent.
+     */
+    public Object setCurrent(final Context cx) {
+        final Object previous = cx.getThreadLocal(EngineContextFactory.class);
+        cx.putThreadLocal(EngineContextFactory.class, this);
+        return previous;
+    }
+
+    /**
+     * Restore the engine that was running in the given context before
+     * setCurrent was called.
+     *
+     * @param cx Context the engine was running in.
+     * @param previous Value returned by setCurrent.
+     */
+    public static void restoreCurrent(final Context cx, final Object previous) {
+        if (previous == null) {
+            cx.removeThreadLocal(EngineContextFactory.class);
+        } else {
+            cx.putThreadLocal(EngineContextFactory.class, previous);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void observeInstructionCount(final Context cx, final int instructionCount) {
+        final Object budget = cx.getThreadLocal(InstructionBudget.class);
+        if (budget instanceof InstructionBudget) {
+            ((InstructionBudget)budget).consume(instructionCount);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+/**
+ * Tracks the number of instructions a single script invocation may still
+ * execute.
+ *
+ * The current budget is stored as a thread local of the Context, and is
+ * charged by the ContextFactory's instruction observer.
+ *
+ * An invocation that starts while another is running on the same thread (eg
+ * when one script causes an event in another) gets a budget with the outer
+ * invocation's budget as its parent. Instructions are charged to both, so a
+ * nested invocation can not run for longer than the outer one has left.
+ */
+public class InstructionBudget {
+    /** Number of instructions this invocation is allowed. */
+    private final long limit;
+
+    /** Budget of the outer invocation, or null. */
+    private final InstructionBudget parent;
+
+    /** Number of instructions used so far. */
+    private long used = 0;
+
+    /**
+     * Create a new InstructionBudget.
+     *
+     * @param limit Number of instructions allowed.
+     */
+    public InstructionBudget(final long limit) {
+        this(limit, null);
+    }
+
+    /**
+     * Create a new InstructionBudget for an invocation nested in another.
+     *
+     * @param limit Number of instructions allowed.
+     * @param parent Budget of the outer invocation, or null if not nested.
+     */
+    public InstructionBudget(final long limit, final InstructionBudget parent) {
+        this.limit = limit;
+        this.parent = parent;
+    }
+
+    /**
+     * Charge the given number of instructions to this budget and any outer
+     * budgets.
+     *
+     * @param instructions Number of instructions executed.
+     * @throws InstructionBudgetExceeded if this or an outer budget has been
+     *         used up.
+     */
+    public void consume(final int instructions) {
+        if (parent != null) {
+            parent.consume(instructions);
+        }
+        used += instructions;
+        if (used > limit) {
+            throw new InstructionBudgetExceeded(limit);
+        }
+    }
+
+    /**
+     * Get the number of instructions this budget allows.
+     *
+     * @return Instruction limit.
+     */
+    public long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+/**
+ * Thrown from the instruction observer to abort a script that has used up its
+ * InstructionBudget.
+ *
+ * This is an Error rather than an Exception so that scripts can not catch it,
+ * Rhino will still run any finally blocks on the way out.
+ */
+public class InstructionBudgetExceeded extends Error {
+
+    /** A version number for this class. */
+    private static final long serialVersionUID = 1;
+
+    /**
+     * Create a new InstructionBudgetExceeded.
+     *
+     * @param limit The limit that was exceeded.
+     */
+    public InstructionBudgetExceeded(final long limit) {
+        super("Script exceeded its limit of " + limit + " instructions.");
+    }
+}
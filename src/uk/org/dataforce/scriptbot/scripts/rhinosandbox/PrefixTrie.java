@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A set of prefixes that can be checked against a string in a single pass
+ * over the string, no matter how many prefixes there are.
+ */
+public class PrefixTrie {
+    /**
+     * A node in the trie.
+     */
+    private static final class Node {
+        /** Characters that lead to child nodes, in sorted order. */
+        private char[] keys = new char[0];
+        /** Child nodes, in the same order as keys. */
+        private Node[] children = new Node[0];
+        /** Does a prefix end at this node? */
+        private boolean terminal;
+
+        /**
+         * Get the child for the given character.
+         *
+         * @param c Character to get child for.
+         * @return The child node, or null if there is none.
+         */
+        private Node get(final char c) {
+            final int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        /**
+         * Get the child for the given character, creating it if needed.
+         *
+         * @param c Character to get child for.
+         * @return The child node.
+         */
+        private Node getOrCreate(final char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) { return children[index]; }
+
+            index = -(index + 1);
+            final char[] newKeys = new char[keys.length + 1];
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            newKeys[index] = c;
+            newChildren[index] = new Node();
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[index];
+        }
+    }
+
+    /** Root of the trie. */
+    private final Node root = new Node();
+
+    /**
+     * Create a new PrefixTrie containing the given prefixes.
+     *
+     * @param prefixes Prefixes to add.
+     */
+    public PrefixTrie(final Collection<String> prefixes) {
+        for (final String prefix : prefixes) {
+            add(prefix);
+        }
+    }
+
+    /**
+     * Create a new PrefixTrie containing the given prefixes.
+     *
+     * @param prefixes Prefixes to add.
+     */
+    public PrefixTrie(final String... prefixes) {
+        this(Arrays.asList(prefixes));
+    }
+
+    /**
+     * Add a prefix to the trie.
+     *
+     * @param prefix Prefix to add.
+     */
+    private void add(final String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.getOrCreate(prefix.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Check if the given string starts with any of our prefixes.
+     *
+     * @param string String to check.
+     * @return True if the string starts with one of our prefixes.
+     */
+    public boolean matches(final String string) {
+        Node node = root;
+        for (int i = 0; i < string.length(); i++) {
+            if (node.terminal) { return true; }
+            node = node.get(string.charAt(i));
+            if (node == null) { return false; }
+        }
+        return node.terminal;
+    }
+}
@@ -21,21 +21,29 @@
  */
 package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.script.Invocable;
 import javax.script.ScriptException;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
 import org.mozilla.javascript.Wrapper;
+import uk.org.dataforce.libs.util.Util;
 import uk.org.dataforce.scriptbot.config.Config;
+import uk.org.dataforce.scriptbot.config.OptionView;
 import uk.org.dataforce.scriptbot.scripts.ScriptBotEngine;
+import uk.org.dataforce.scriptbot.scripts.ScriptBudgetException;
 
 /**
  * Rhino Script Bot Engine.
@@ -52,58 +60,334 @@ public class RhinoScriptEngine implements ScriptBotEngine, Invocable {
     /** Classes to specifically deny in the sandbox. */
     private List<String> badClasses;
 
+    /** File that this engine is running. */
+    private final File file;
+
+    /** Path of the script within the scripts directory, used for settings. */
+    private final String name;
+
+    /** Factory used to create and enter contexts for this engine. */
+    private final EngineContextFactory factory;
+
+    /** Maximum instructions per invocation set for this script. */
+    private final OptionView<Long> scriptInstructionLimit;
+
+    /** Maximum instructions per invocation set for all scripts. */
+    private final OptionView<Long> defaultInstructionLimit;
+
+    /** Rhino optimization level set for this script. */
+    private final OptionView<Long> scriptOptimizationLevel;
+
+    /** Rhino optimization level set for all scripts. */
+    private final OptionView<Long> defaultOptimizationLevel;
+
+    /** Charset used to hash sources that have no hash given. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** How often (in instructions) the instruction observer is called. */
+    private static final int OBSERVER_THRESHOLD = 10000;
+
+    /**
+     * Sealed scopes holding the standard objects, shared by every engine
+     * with the same good and bad classes.
+     *
+     * These are kept apart by class lists as Rhino caches the Java classes
+     * that a scope has looked up in its Packages objects.
+     */
+    private static final Map<String, ScriptableObject> sharedScopes = new HashMap<String, ScriptableObject>();
+
+    /**
+     * Create a new RhinoeScriptEngine and set the default scope, using the
+     * file name to find the script's settings.
+     *
+     * @param config Config to read settings from.
+     * @param file File that this engine will run.
+     */
+    public RhinoScriptEngine(final Config config, final File file) {
+        this(config, file, file.getName());
+    }
+
     /**
      * Create a new RhinoeScriptEngine and set the default scope.
+     *
+     * @param config Config to read settings from.
+     * @param file File that this engine will run.
+     * @param name Path of the script within the scripts directory (eg
+     *             "games/trivia.js"), used to find the script's settings.
      */
-    public RhinoScriptEngine(final Config config) {
+    public RhinoScriptEngine(final Config config, final File file, final String name) {
+        this.file = file;
+        this.name = name;
         this.goodClasses = config.hasFlatDomain("rhino.goodClasses") ? config.getFlatDomain("rhino.goodClasses") : Collections.<String>emptyList();
         this.badClasses = config.hasFlatDomain("rhino.badClasses") ? config.getFlatDomain("rhino.badClasses") : Collections.<String>emptyList();
-        final Context cx = enterContext();
-        engineScope = cx.initStandardObjects();
-        engineScope.setParentScope(null);
-        Context.exit();
+        this.scriptInstructionLimit = getSettingView(config, "rhino.script." + name, "instructionlimit");
+        this.defaultInstructionLimit = getSettingView(config, "rhino", "instructionlimit");
+        this.scriptOptimizationLevel = getSettingView(config, "rhino.script." + name, "optimizationlevel");
+        this.defaultOptimizationLevel = getSettingView(config, "rhino", "optimizationlevel");
+        this.factory = new EngineContextFactory(goodClasses, badClasses);
+        engineScope = (Scriptable)factory.call(new ContextAction() {
+            /** {@inheritDoc} */
+            @Override
+            public Object run(final Context cx) {
+                final Scriptable sharedScope = getSharedScope(cx, goodClasses, badClasses);
+                final Scriptable scope = cx.newObject(sharedScope);
+                scope.setPrototype(sharedScope);
+                scope.setParentScope(null);
+                return scope;
+            }
+        });
     }
 
     /**
-     * Enter a context and make sure we use the right wrapper and shutter.
+     * Get the shared scope for engines with the given good and bad classes,
+     * creating it if needed.
      *
-     * @return Context that we are now in.
+     * The shared scope is sealed so that scripts can not change the standard
+     * objects used by other scripts, each engine's own scope uses it as a
+     * prototype so that variables defined by a script stay in that script.
+     *
+     * @param cx Context to create the scope in.
+     * @param goodClasses Additional classes allowed in the sandbox.
+     * @param badClasses Classes denied in the sandbox.
+     * @return The shared scope.
      */
-    private Context enterContext() {
-        final Context cx = Context.enter();
-        try {
-            cx.setClassShutter(new ClassShutter(this.goodClasses, this.badClasses));
-            cx.setWrapFactory(new WrapFactory());
-        } catch (final SecurityException se) {
-            // ClassShutter is already set, so we might be already in a context
+    private static Scriptable getSharedScope(final Context cx, final List<String> goodClasses, final List<String> badClasses) {
+        final String key = goodClasses + "\0" + badClasses;
+        synchronized (sharedScopes) {
+            ScriptableObject scope = sharedScopes.get(key);
+            if (scope == null) {
+                scope = cx.initStandardObjects(null, true);
+                sharedScopes.put(key, scope);
+            }
+            return scope;
+        }
+    }
+
+    /**
+     * Get a view of a numeric engine setting, which is null if the setting
+     * is not set or is not a number.
+     *
+     * @param config Config to read from.
+     * @param domain Domain of the setting.
+     * @param key Setting to get.
+     * @return View of the setting.
+     */
+    private static OptionView<Long> getSettingView(final Config config, final String domain, final String key) {
+        return new OptionView<Long>(config, domain, key, null) {
+            /** {@inheritDoc} */
+            @Override
+            protected Long parse(final String raw) {
+                return Long.valueOf(raw.trim());
+            }
+        };
+    }
+
+    /**
+     * Get a setting for this engine.
+     *
+     * Settings are looked for in the "rhino.script.<path>" domain first, where
+     * path is the script's path within the scripts directory, and then the
+     * "rhino" domain. They are read through views, so changes to the config
+     * apply from the next invocation without reloading the script.
+     *
+     * @param scriptView View of the setting for this script.
+     * @param defaultView View of the setting for all scripts.
+     * @param fallback Value to use if the setting is not found.
+     * @return Setting value.
+     */
+    private static long getSetting(final OptionView<Long> scriptView, final OptionView<Long> defaultView, final long fallback) {
+        Long value = scriptView.get();
+        if (value == null) { value = defaultView.get(); }
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * Get the maximum number of instructions per invocation.
+     *
+     * @return Instruction limit, or 0 for no limit.
+     */
+    private long getInstructionLimit() {
+        return Math.max(0, getSetting(scriptInstructionLimit, defaultInstructionLimit, 0));
+    }
+
+    /**
+     * Get the Rhino optimization level to compile with.
+     *
+     * @return -1 to use the interpreter or 0-9 to generate bytecode.
+     */
+    private int getOptimizationLevel() {
+        final long level = getSetting(scriptOptimizationLevel, defaultOptimizationLevel, 0);
+        return Context.isValidOptimizationLevel((int)level) && level == (int)level ? (int)level : 0;
+    }
+
+    /**
+     * An action to run in a context using this engine's sandbox settings,
+     * optimization level and a new InstructionBudget, nested in the budget of
+     * any invocation already running in the context.
+     *
+     * These should be run using factory.call(), the context may already have
+     * been entered by another engine on this thread, so everything specific
+     * to this engine is set for the duration of the action and then put back.
+     */
+    private abstract class SandboxedAction implements ContextAction {
+        /** {@inheritDoc} */
+        @Override
+        public final Object run(final Context cx) {
+            final Object previousEngine = factory.setCurrent(cx);
+            final Object previousBudget = startBudget(cx);
+            final int previousLevel = cx.getOptimizationLevel();
+            cx.setOptimizationLevel(getOptimizationLevel());
+            try {
+                return runSandboxed(cx);
+            } finally {
+                cx.setOptimizationLevel(previousLevel);
+                endBudget(cx, previousBudget);
+                EngineContextFactory.restoreCurrent(cx, previousEngine);
+            }
+        }
+
+        /**
+         * Run the action.
+         *
+         * @param cx Context to run in.
+         * @return Result of the action.
+         */
+        protected abstract Object runSandboxed(final Context cx);
+    }
+
+    /**
+     * Start a new InstructionBudget for an invocation in the given context.
+     *
+     * If another invocation is already running in the context, the new
+     * budget is charged to its budget as well. If this engine has no limit,
+     * the outer budget is left in place.
+     *
+     * Instruction counting is always turned on, even for engines without a
+     * limit. Counting is compiled in to optimised scripts, and a function
+     * compiled without it could be called later from an invocation that has
+     * a budget, which could then never stop it.
+     *
+     * @param cx Context the invocation will run in.
+     * @return The budget that was active before, to pass to endBudget.
+     */
+    private Object startBudget(final Context cx) {
+        final Object previous = cx.getThreadLocal(InstructionBudget.class);
+        final InstructionBudget outer = (previous instanceof InstructionBudget) ? (InstructionBudget)previous : null;
+        final long instructionLimit = getInstructionLimit();
+        // Never raise the threshold under an outer budget, or it could
+        // overrun its own limit once this invocation returns.
+        final int threshold = instructionLimit > 0 ? (int)Math.min(instructionLimit, OBSERVER_THRESHOLD) : OBSERVER_THRESHOLD;
+        if (outer == null || threshold < cx.getInstructionObserverThreshold()) {
+            cx.setInstructionObserverThreshold(threshold);
+        }
+        if (instructionLimit > 0) {
+            cx.putThreadLocal(InstructionBudget.class, new InstructionBudget(instructionLimit, outer));
+        } else if (outer == null) {
+            cx.removeThreadLocal(InstructionBudget.class);
+        }
+        return previous;
+    }
+
+    /**
+     * Finish the budget for an invocation, restoring the budget of any outer
+     * invocation in the same context.
+     *
+     * @param cx Context the invocation ran in.
+     * @param previous Value returned by startBudget.
+     */
+    private void endBudget(final Context cx, final Object previous) {
+        if (previous == null) {
+            cx.removeThreadLocal(InstructionBudget.class);
+        } else {
+            cx.putThreadLocal(InstructionBudget.class, previous);
         }
-        return cx;
     }
 
     /** {@inheritDoc} */
     @Override
-    public void eval(final FileReader fileReader) throws ScriptException {
+    public void eval(final Reader reader) throws ScriptException {
+        eval(reader, null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void eval(final Reader reader, final String hash) throws ScriptException {
+        final String source;
         try {
-            final Context cx = enterContext();
-            cx.evaluateReader(engineScope, fileReader, "<UnkownSource>", 1, null);
-        } catch (final RhinoException re) {
-            throw new ScriptException(re.getMessage(), re.sourceName(), re.lineNumber(), re.columnNumber());
+            source = readAll(reader);
         } catch (final IOException ex) {
             throw new ScriptException(ex);
-        } finally {
-            Context.exit();
+        }
+        final String contentHash = hash == null ? Util.sha256Hash(source.getBytes(UTF8)) : hash;
+
+        try {
+            factory.call(new SandboxedAction() {
+                /** {@inheritDoc} */
+                @Override
+                protected Object runSandboxed(final Context cx) {
+                    return CompiledScriptCache.getScript(cx, file, contentHash, source).exec(cx, engineScope);
+                }
+            });
+        } catch (final InstructionBudgetExceeded ibe) {
+            throw new ScriptBudgetException(ibe.getMessage());
+        } catch (final RhinoException re) {
+            throw new ScriptException(re.getMessage(), re.sourceName(), re.lineNumber(), re.columnNumber());
         }
     }
 
+    /**
+     * Read everything from the given reader.
+     *
+     * @param reader Reader to read from.
+     * @return Everything that was read.
+     * @throws IOException if there is an error reading.
+     */
+    private static String readAll(final Reader reader) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        final char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            result.append(buffer, 0, read);
+        }
+        return result.toString();
+    }
+
     /** {@inheritDoc} */
     @Override
     public void put(final String string, final Object object) {
-        final Context cx = enterContext();
-        try {
-            engineScope.put(string, engineScope, object);
-        } finally {
-            Context.exit();
+        factory.call(new SandboxedAction() {
+            /** {@inheritDoc} */
+            @Override
+            protected Object runSandboxed(final Context cx) {
+                engineScope.put(string, engineScope, object);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get the object to use as "this" when invoking methods.
+     *
+     * @param thiz Object given to invokeMethod.
+     * @return A Scriptable for thiz, or null for the engine scope.
+     */
+    private Scriptable getThis(final Object thiz) {
+        if (thiz == null || thiz instanceof Scriptable) {
+            return (Scriptable)thiz;
         }
+
+        return (Scriptable)factory.call(new SandboxedAction() {
+            /** {@inheritDoc} */
+            @Override
+            protected Object runSandboxed(final Context cx) {
+                if (thiz instanceof String) {
+                    final Object result = ScriptableObject.getProperty(engineScope, (String)thiz);
+                    return result instanceof Scriptable ? result : null;
+                } else {
+                    return Context.toObject(thiz, engineScope);
+                }
+            }
+        });
     }
 
 
@@ -115,25 +399,16 @@ public class RhinoScriptEngine implements ScriptBotEngine, Invocable {
 
     /** {@inheritDoc} */
     @Override
-    public Object invokeMethod(Object thiz, final String name, final Object... args) throws ScriptException, NoSuchMethodException {
-        if (thiz != null && !(thiz instanceof Scriptable)) {
-            final Context cx = enterContext();
-            if (thiz instanceof String) {
-                thiz = ScriptableObject.getProperty(engineScope, (String)thiz);
-            } else {
-                thiz = Context.toObject(thiz, engineScope);
-            }
-            Context.exit();
-        }
-
-        final Scriptable localScope = (thiz != null) ? (Scriptable)thiz : engineScope;
+    public Object invokeMethod(final Object thiz, final String name, final Object... args) throws ScriptException, NoSuchMethodException {
+        final Scriptable thisObj = getThis(thiz);
+        final Scriptable localScope = (thisObj != null) ? thisObj : engineScope;
 
         final Object obj = ScriptableObject.getProperty(localScope, name);
         if (!(obj instanceof Function)) {
             System.out.println(name + " is undefined or not a function in " + thiz + ".");
             throw new NoSuchMethodException(name + " is undefined or not a function.");
         } else {
-            return invokeMethod(thiz, (Function)obj, args);
+            return invokeMethod(thisObj, (Function)obj, args);
         }
     }
 
@@ -145,32 +420,28 @@ public class RhinoScriptEngine implements ScriptBotEngine, Invocable {
      * @param args Arguments for the function.
      * @return Object result from function call.
      */
-    public Object invokeMethod(Object thiz, final Object obj, final Object... args) throws ScriptException, NoSuchMethodException {
-        if (thiz != null && !(thiz instanceof Scriptable)) {
-            final Context cx = enterContext();
-            if (thiz instanceof String) {
-                thiz = ScriptableObject.getProperty(engineScope, (String)thiz);
-            } else {
-                thiz = Context.toObject(thiz, engineScope);
-            }
-            Context.exit();
-        }
-
-        final Scriptable localScope = (thiz != null) ? (Scriptable)thiz : engineScope;
+    public Object invokeMethod(final Object thiz, final Object obj, final Object... args) throws ScriptException, NoSuchMethodException {
+        final Scriptable thisObj = getThis(thiz);
+        final Scriptable localScope = (thisObj != null) ? thisObj : engineScope;
 
          if (!(obj instanceof Function)) {
             throw new NoSuchMethodException("obj is undefined or not a function.");
         } else {
             final Function f = (Function)obj;
             final Scriptable callerScope = f.getParentScope() == null ? localScope : f.getParentScope();
-            Context cx = enterContext();
             try {
-                final Object result = f.call(cx, callerScope, localScope, wrap(args));
+                final Object result = factory.call(new SandboxedAction() {
+                    /** {@inheritDoc} */
+                    @Override
+                    protected Object runSandboxed(final Context cx) {
+                        return f.call(cx, callerScope, localScope, wrap(args));
+                    }
+                });
                 return unwrap(result);
+            } catch (final InstructionBudgetExceeded ibe) {
+                throw new ScriptBudgetException(ibe.getMessage());
             } catch (final RhinoException re) {
                 throw new ScriptException(re.getMessage(), re.sourceName(), re.lineNumber(), re.columnNumber());
-            } finally {
-                Context.exit();
             }
          }
     }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and outcome counts for calls to a single event or command handler
+ * in a script.
+ */
+public class InvocationStats {
+    /** Name of the event or command. */
+    private final String name;
+
+    /** How long calls took. */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /** Number of calls that threw an error. */
+    private final AtomicLong errors = new AtomicLong();
+
+    /** Number of calls that were aborted for exceeding their budget. */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Create a new InvocationStats.
+     *
+     * @param name Name of the event or command.
+     */
+    public InvocationStats(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the name of the event or command.
+     *
+     * @return Name of the event or command.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a call that completed.
+     *
+     * @param nanos How long the call took, in nanoseconds.
+     */
+    public void recordSuccess(final long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * Record a call that threw an error.
+     *
+     * @param nanos How long the call took, in nanoseconds.
+     */
+    public void recordError(final long nanos) {
+        latency.record(nanos);
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Record a call that was aborted for exceeding its budget.
+     *
+     * @param nanos How long the call took, in nanoseconds.
+     */
+    public void recordTimeout(final long nanos) {
+        latency.record(nanos);
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Get the latency histogram for calls.
+     *
+     * @return Latency histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get the number of calls.
+     *
+     * @return Number of calls.
+     */
+    public long getInvocations() {
+        return latency.getCount();
+    }
+
+    /**
+     * Get the number of calls that threw an error.
+     *
+     * @return Number of errors.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Get the number of calls that were aborted for exceeding their budget.
+     *
+     * @return Number of timeouts.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Get a snapshot of these stats as a map, for use by scripts.
+     *
+     * Times are given in microseconds.
+     *
+     * @return Map of stat name to value.
+     */
+    public Map<String, Long> toMap() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        result.put("invocations", getInvocations());
+        result.put("errors", getErrors());
+        result.put("timeouts", getTimeouts());
+        result.put("total", toMicros(latency.getTotal()));
+        result.put("mean", toMicros(latency.getMean()));
+        result.put("p50", toMicros(latency.getPercentile(50)));
+        result.put("p90", toMicros(latency.getPercentile(90)));
+        result.put("p99", toMicros(latency.getPercentile(99)));
+        result.put("max", toMicros(latency.getMax()));
+        return result;
+    }
+
+    /**
+     * Convert nanoseconds to microseconds.
+     *
+     * @param nanos Nanoseconds
+     * @return Microseconds
+     */
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls, %d errors, %d timeouts, total %.3fms, mean %.3fms, p50 %.3fms, p90 %.3fms, p99 %.3fms, max %.3fms",
+                name, getInvocations(), getErrors(), getTimeouts(),
+                toMillis(latency.getTotal()), toMillis(latency.getMean()),
+                toMillis(latency.getPercentile(50)), toMillis(latency.getPercentile(90)),
+                toMillis(latency.getPercentile(99)), toMillis(latency.getMax()));
+    }
+
+    /**
+     * Convert nanoseconds to fractional milliseconds.
+     *
+     * @param nanos Nanoseconds
+     * @return Milliseconds
+     */
+    private static double toMillis(final long nanos) {
+        return nanos / 1000000.0;
+    }
+}
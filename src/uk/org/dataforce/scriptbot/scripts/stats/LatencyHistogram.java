@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds.
+ *
+ * Values are counted in log-linear buckets in the style of HdrHistogram:
+ * each power of two is split into SUB_BUCKETS equal buckets, so any value
+ * is reported to within about 6% of what was recorded, while recording is
+ * just a couple of atomic increments.
+ */
+public class LatencyHistogram {
+    /** Number of bits used for the buckets within each power of two. */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Number of buckets within each power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Total number of buckets, enough for any positive long. */
+    private static final int BUCKETS = (65 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** Count of values in each bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Number of values recorded. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of all values recorded. */
+    private final AtomicLong total = new AtomicLong();
+
+    /** Largest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param value Value to record, negative values are recorded as 0.
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(getBucket(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Get the bucket that the given value is counted in.
+     *
+     * @param value Value to get bucket for.
+     * @return Bucket index.
+     */
+    private static int getBucket(final long value) {
+        if (value < SUB_BUCKETS) { return (int)value; }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the highest value that would be counted in the given bucket.
+     *
+     * @param bucket Bucket index.
+     * @return Highest value for the bucket.
+     */
+    private static long getBucketMax(final int bucket) {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return Number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the sum of all values recorded.
+     *
+     * @return Sum of all values recorded.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return Largest value recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of all values recorded.
+     *
+     * @return Mean value, or 0 if nothing has been recorded.
+     */
+    public long getMean() {
+        final long c = count.get();
+        return c == 0 ? 0 : total.get() / c;
+    }
+
+    /**
+     * Get the value at the given percentile.
+     *
+     * @param percentile Percentile to get (eg 99.9)
+     * @return Value that the given percentage of recorded values are at or
+     *         below, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(final double percentile) {
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+        }
+        if (seen == 0) { return 0; }
+
+        final long wanted = Math.max(1, (long)Math.ceil(seen * Math.min(100, percentile) / 100));
+        long running = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            running += counts.get(i);
+            if (running >= wanted) {
+                return Math.min(getBucketMax(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
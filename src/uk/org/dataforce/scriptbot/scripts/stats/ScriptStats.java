@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the InvocationStats for every event and command handler in a script.
+ */
+public class ScriptStats {
+    /** Stats for each event or command name. */
+    private final ConcurrentMap<String, InvocationStats> stats = new ConcurrentHashMap<String, InvocationStats>();
+
+    /**
+     * Get the stats for the given event or command, creating them if needed.
+     *
+     * @param name Name of the event or command.
+     * @return InvocationStats for the name.
+     */
+    public InvocationStats get(final String name) {
+        final InvocationStats existing = stats.get(name);
+        if (existing != null) { return existing; }
+
+        final InvocationStats created = new InvocationStats(name);
+        final InvocationStats raced = stats.putIfAbsent(name, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * Get all the stats we have, with the handlers that have used the most
+     * time first.
+     *
+     * @return List of InvocationStats.
+     */
+    public List<InvocationStats> getAll() {
+        final List<InvocationStats> result = new ArrayList<InvocationStats>(stats.values());
+        Collections.sort(result, new Comparator<InvocationStats>() {
+            /** {@inheritDoc} */
+            @Override
+            public int compare(final InvocationStats o1, final InvocationStats o2) {
+                final long t1 = o1.getLatency().getTotal();
+                final long t2 = o2.getLatency().getTotal();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get a snapshot of all the stats as a map, for use by scripts.
+     *
+     * @return Map of event or command name to its stats.
+     * @see InvocationStats#toMap()
+     */
+    public Map<String, Map<String, Long>> toMap() {
+        final Map<String, Map<String, Long>> result = new LinkedHashMap<String, Map<String, Long>>();
+        for (final InvocationStats s : getAll()) {
+            result.put(s.getName(), s.toMap());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.org.dataforce.libs.util.OverflowPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for AsyncAppender.
+ */
+public class AsyncAppenderTest {
+
+    /** Console stream to put back after each test. */
+    private PrintStream console;
+
+    /** Appender being tested. */
+    private AsyncAppender appender;
+
+    /**
+     * A Writer that records what is written, and can hold up the first
+     * write until released.
+     */
+    private static class RecordingWriter extends Writer {
+        /** Everything written so far. */
+        private final StringBuffer written = new StringBuffer();
+        /** Counted down when the first write starts. */
+        private final CountDownLatch entered = new CountDownLatch(1);
+        /** Latch the first write waits on. */
+        private final CountDownLatch release;
+
+        /**
+         * Create a new RecordingWriter.
+         *
+         * @param hold Should the first write wait for release()?
+         */
+        RecordingWriter(final boolean hold) {
+            release = new CountDownLatch(hold ? 1 : 0);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            written.append(cbuf, off, len);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void flush() {
+            /* Nothing to flush. */
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() {
+            /* Nothing to close. */
+        }
+
+        /**
+         * Wait for the first write to start.
+         *
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void awaitEntered() throws InterruptedException {
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+        }
+
+        /** Let the first write finish. */
+        void release() {
+            release.countDown();
+        }
+
+        /**
+         * Get everything written so far.
+         *
+         * @return Written text.
+         */
+        String getWritten() {
+            return written.toString();
+        }
+    }
+
+    /**
+     * Discard console output, the appender writes every line there.
+     */
+    @Before
+    public void setUp() {
+        console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            /** {@inheritDoc} */
+            @Override
+            public void write(final int b) {
+                /* Discard console output. */
+            }
+        }));
+    }
+
+    /**
+     * Stop the appender and restore the console.
+     */
+    @After
+    public void tearDown() {
+        if (appender != null) { appender.shutdown(5000); }
+        System.setOut(console);
+    }
+
+    /**
+     * Create a logger that writes to the given writer without buffering.
+     *
+     * @param writer Writer to write to.
+     * @return The logger.
+     */
+    private static Logger createLogger(final Writer writer) {
+        final Logger logger = new Logger("test.async", LogLevel.INFO);
+        logger.setWriter(new BufferedWriter(writer, 1));
+        return logger;
+    }
+
+    /**
+     * Fill a capacity 2 queue while the writer thread is held up on the
+     * first line, then let it finish.
+     *
+     * @param policy Overflow policy to use.
+     * @return Text written by the logger.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private String overflow(final OverflowPolicy policy) throws InterruptedException {
+        final RecordingWriter writer = new RecordingWriter(true);
+        final Logger logger = createLogger(writer);
+        appender = new AsyncAppender(2, policy, 1, 10);
+        logger.setAppender(appender);
+
+        logger.info("0");
+        writer.awaitEntered();
+        logger.info("1");
+        logger.info("2");
+        logger.info("3");
+        writer.release();
+        assertTrue(appender.shutdown(5000));
+        assertEquals(1, appender.getDroppedCount());
+        return writer.getWritten();
+    }
+
+    /**
+     * Check that DROP_NEWEST discards lines logged while the queue is full.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        assertEquals("[Info] 0\n[Info] 1\n[Info] 2\n", overflow(OverflowPolicy.DROP_NEWEST));
+    }
+
+    /**
+     * Check that DROP_OLDEST discards the oldest queued line to make room.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        assertEquals("[Info] 0\n[Info] 2\n[Info] 3\n", overflow(OverflowPolicy.DROP_OLDEST));
+    }
+
+    /**
+     * Check that BLOCK makes the logging thread wait for room, and that no
+     * lines are lost.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testBlock() throws InterruptedException {
+        final RecordingWriter writer = new RecordingWriter(true);
+        final Logger logger = createLogger(writer);
+        appender = new AsyncAppender(1, OverflowPolicy.BLOCK, 1, 10);
+        logger.setAppender(appender);
+
+        logger.info("0");
+        writer.awaitEntered();
+        final Thread thread = new Thread("Blocked logger") {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                for (int i = 1; i <= 3; i++) {
+                    logger.info(Integer.toString(i));
+                }
+            }
+        };
+        thread.start();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+
+        writer.release();
+        thread.join(5000);
+        assertTrue(appender.shutdown(5000));
+        assertEquals(0, appender.getDroppedCount());
+        assertEquals("[Info] 0\n[Info] 1\n[Info] 2\n[Info] 3\n", writer.getWritten());
+    }
+
+    /**
+     * Check that shutdown writes everything queued without waiting for the
+     * flush interval, and that later lines are written directly.
+     */
+    @Test
+    public void testShutdownDrains() {
+        final RecordingWriter writer = new RecordingWriter(false);
+        final Logger logger = createLogger(writer);
+        appender = new AsyncAppender(10000, OverflowPolicy.BLOCK, 100000, 60000);
+        logger.setAppender(appender);
+
+        final int lines = 5000;
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            logger.info("Line " + i);
+            expected.append("[Info] Line ").append(i).append('\n');
+        }
+        final long start = System.nanoTime();
+        assertTrue(appender.shutdown(5000));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertEquals(expected.toString(), writer.getWritten());
+
+        logger.info("After");
+        assertEquals(expected + "[Info] After\n", writer.getWritten());
+    }
+}
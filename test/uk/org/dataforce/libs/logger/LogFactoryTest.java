@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for LogFactory.
+ */
+public class LogFactoryTest {
+
+    /**
+     * Remove any levels set by the tests.
+     */
+    @After
+    public void tearDown() {
+        LogFactory.setLevel("test", null);
+        LogFactory.setLevel("test.a", null);
+        LogFactory.setLevel("test.a.b", null);
+    }
+
+    /**
+     * Check that the same logger is returned for the same name.
+     */
+    @Test
+    public void testSameName() {
+        final Logger logger = LogFactory.getLogger("test.same");
+        assertSame(logger, LogFactory.getLogger("test.same"));
+        assertNotSame(logger, LogFactory.getLogger("test.other"));
+        assertEquals("test.same", logger.getName());
+    }
+
+    /**
+     * Check that levels are taken from the most specific parent, and that
+     * changing a level only affects loggers under it.
+     */
+    @Test
+    public void testHierarchicalLevels() {
+        final Logger ab = LogFactory.getLogger("test.a.b");
+        final Logger abc = LogFactory.getLogger("test.a.b.c");
+        final Logger ax = LogFactory.getLogger("test.ax");
+        final LogLevel axLevel = ax.getLevel();
+
+        LogFactory.setLevel("test.a", LogLevel.DEBUG3);
+        assertEquals(LogLevel.DEBUG3, ab.getLevel());
+        assertEquals(LogLevel.DEBUG3, abc.getLevel());
+        assertEquals(axLevel, ax.getLevel());
+
+        LogFactory.setLevel("test.a.b", LogLevel.ERROR);
+        assertEquals(LogLevel.ERROR, ab.getLevel());
+        assertEquals(LogLevel.ERROR, abc.getLevel());
+        assertTrue(abc.isEnabled(LogLevel.ERROR));
+        assertTrue(!abc.isEnabled(LogLevel.INFO));
+
+        LogFactory.setLevel("test.a.b", null);
+        assertEquals(LogLevel.DEBUG3, abc.getLevel());
+
+        assertEquals(LogLevel.DEBUG3, LogFactory.getLogger("test.a.new").getLevel());
+    }
+
+    /**
+     * Check that loggers which are no longer used are forgotten, so that
+     * reloading scripts does not leak loggers.
+     *
+     * @throws InterruptedException if interrupted while waiting for GC.
+     */
+    @Test
+    public void testReloadsDoNotLeak() throws InterruptedException {
+        final int before = LogFactory.getLoggerCount();
+        for (int i = 0; i < 10000; i++) {
+            // Each reload creates a new Script with its own logger.
+            final Logger logger = LogFactory.getLogger("test.server.script" + i + ".js");
+            logger.setTag("test>script" + i + ".js");
+            LogFactory.getLogger();
+        }
+
+        int after = Integer.MAX_VALUE;
+        for (int i = 0; i < 50 && after > before + 100; i++) {
+            System.gc();
+            Thread.sleep(20);
+            after = LogFactory.getLoggerCount();
+        }
+        assertTrue("Loggers leaked: " + before + " before, " + after + " after", after <= before + 100);
+
+        // Levels still apply to loggers created after the churn.
+        LogFactory.setLevel("test", LogLevel.ERROR);
+        assertEquals(LogLevel.ERROR, LogFactory.getLogger("test.server.script1.js").getLevel());
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for RotatingLogWriter.
+ */
+public class RotatingLogWriterTest {
+
+    /** Directory for the test logs. */
+    private File directory;
+
+    /** Log file. */
+    private File file;
+
+    /** Writer being tested, closed after each test. */
+    private RotatingLogWriter writer;
+
+    /**
+     * Create a directory for the logs.
+     *
+     * @throws IOException if the directory can not be created.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("logwriter").toFile();
+        file = new File(directory, "test.log");
+    }
+
+    /**
+     * Close the writer and remove its directory.
+     *
+     * @throws IOException if the writer can not be closed.
+     */
+    @After
+    public void tearDown() throws IOException {
+        if (writer != null) { writer.close(); }
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File f : files) { f.delete(); }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Read the lines of the given file.
+     *
+     * @param target File to read.
+     * @return Lines in the file.
+     * @throws IOException if the file can not be read.
+     */
+    private static List<String> readLines(final File target) throws IOException {
+        return Files.readAllLines(target.toPath(), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Read the lines of the given gzipped file.
+     *
+     * @param target File to read.
+     * @return Lines in the file.
+     * @throws IOException if the file can not be read.
+     */
+    private static List<String> readCompressedLines(final File target) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(target)), Charset.forName("UTF-8")));
+        try {
+            final List<String> result = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+            return result;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Get the rotated files for the log file, sorted by name.
+     *
+     * @return Rotated files.
+     */
+    private List<File> getRotated() {
+        final List<File> result = new ArrayList<File>();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                if (f.getName().startsWith(file.getName() + ".")) { result.add(f); }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Wait for the background clean up to leave the given number of rotated
+     * files.
+     *
+     * @param count Number of rotated files to wait for.
+     * @param compressed Wait for all of them to be compressed as well?
+     * @return Rotated files.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private List<File> waitForRotated(final int count, final boolean compressed) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            final List<File> rotated = getRotated();
+            boolean done = rotated.size() == count;
+            for (final File f : rotated) {
+                if (compressed && !f.getName().endsWith(".gz")) { done = false; }
+            }
+            if (done || System.nanoTime() > deadline) { return rotated; }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Write a line and flush it, as Logger does.
+     *
+     * @param line Line to write.
+     * @throws IOException if the line can not be written.
+     */
+    private void writeLine(final String line) throws IOException {
+        writer.write(line + "\n");
+        writer.flush();
+    }
+
+    /**
+     * Check that the file is rotated on the flush that takes it over the
+     * maximum size, and that no lines are lost.
+     *
+     * @throws IOException if the test fails to run.
+     */
+    @Test
+    public void testSizeRotation() throws IOException {
+        writer = new RotatingLogWriter(file, new RotationPolicy(20, 0, 0, 0, false));
+        writeLine("0123456789");
+        assertEquals(0, getRotated().size());
+        writeLine("abcdefghij");
+        writeLine("last");
+
+        final List<File> rotated = getRotated();
+        assertEquals(1, rotated.size());
+        assertEquals(Arrays.asList("0123456789", "abcdefghij"), readLines(rotated.get(0)));
+        assertEquals(Arrays.asList("last"), readLines(file));
+    }
+
+    /**
+     * Check that the file is rotated on the first flush after the rotation
+     * interval has passed.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test
+    public void testTimeRotation() throws Exception {
+        writer = new RotatingLogWriter(file, new RotationPolicy(0, 100, 0, 0, false));
+        writer.write("first\n");
+        Thread.sleep(250);
+        writeLine("second");
+
+        final List<File> rotated = getRotated();
+        assertEquals(1, rotated.size());
+        assertEquals(Arrays.asList("first", "second"), readLines(rotated.get(0)));
+        assertEquals(0, file.length());
+    }
+
+    /**
+     * Check that rotated files are gzipped in the background, and the
+     * uncompressed file removed.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test
+    public void testCompress() throws Exception {
+        writer = new RotatingLogWriter(file, new RotationPolicy(1, 0, 0, 0, true));
+        writeLine("compressed line");
+
+        final List<File> rotated = waitForRotated(1, true);
+        assertEquals(1, rotated.size());
+        assertTrue(rotated.get(0).getName().endsWith(".gz"));
+        assertEquals(Arrays.asList("compressed line"), readCompressedLines(rotated.get(0)));
+    }
+
+    /**
+     * Check that only the newest rotated files are kept when there is a
+     * limit on how many to keep.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test
+    public void testKeepRetention() throws Exception {
+        writer = new RotatingLogWriter(file, new RotationPolicy(1, 0, 2, 0, false));
+        for (int i = 0; i < 4; i++) {
+            writeLine("Line " + i);
+        }
+
+        final List<File> rotated = waitForRotated(2, false);
+        assertEquals(2, rotated.size());
+        final List<String> kept = new ArrayList<String>();
+        for (final File f : rotated) {
+            kept.addAll(readLines(f));
+        }
+        Collections.sort(kept);
+        assertEquals(Arrays.asList("Line 2", "Line 3"), kept);
+    }
+
+    /**
+     * Check that rotated files older than the maximum age are deleted.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test
+    public void testMaxAgeRetention() throws Exception {
+        final RotationPolicy policy = new RotationPolicy(1, 0, 0, TimeUnit.HOURS.toMillis(1), false);
+        writer = new RotatingLogWriter(file, policy);
+        writeLine("old");
+        writeLine("new");
+        final List<File> rotated = waitForRotated(2, false);
+        File old = null;
+        for (final File f : rotated) {
+            if (readLines(f).equals(Arrays.asList("old"))) { old = f; }
+        }
+        assertNotNull(old);
+        assertTrue(old.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+
+        // Changing the policy runs the clean up again.
+        writer.setPolicy(policy);
+        final List<File> remaining = waitForRotated(1, false);
+        assertEquals(1, remaining.size());
+        assertEquals(Arrays.asList("new"), readLines(remaining.get(0)));
+    }
+
+    /**
+     * Check that a thread being interrupted while it logs does not lose
+     * lines or stop the file being written to.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test
+    public void testInterruptedWriter() throws Exception {
+        writer = new RotatingLogWriter(file);
+        final Logger logger = new Logger("test.interrupt", LogLevel.INFO);
+        logger.setWriter(new BufferedWriter(writer));
+
+        final int lines = 200;
+        final Thread thread = new Thread("Interrupted logger") {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                for (int i = 0; i < lines; i++) {
+                    if (i % 10 == 0) { interrupt(); }
+                    logger.info("Line " + i);
+                }
+            }
+        };
+
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            /** {@inheritDoc} */
+            @Override
+            public void write(final int b) {
+                /* Discard console output. */
+            }
+        }));
+        try {
+            thread.start();
+            thread.join();
+        } finally {
+            System.setOut(out);
+        }
+
+        assertNotNull(logger.getWriter());
+        final List<String> written = readLines(file);
+        assertEquals(lines, written.size());
+        for (int i = 0; i < lines; i++) {
+            assertEquals("[Info] Line " + i, written.get(i));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.logger;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for RotationPolicy.
+ */
+public class RotationPolicyTest {
+    /** 2013-06-01 10:30:00 UTC. */
+    private static final long NOW = 1370082600000L;
+
+    /** 2013-06-02 00:00:00 UTC. */
+    private static final long NEXT_MIDNIGHT = 1370131200000L;
+
+    /** Time zone in use before the test. */
+    private TimeZone previous;
+
+    /**
+     * Remember the default time zone.
+     */
+    @Before
+    public void setUp() {
+        previous = TimeZone.getDefault();
+    }
+
+    /**
+     * Put back the default time zone.
+     */
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(previous);
+    }
+
+    /**
+     * Check that sizes with and without units are parsed, and that bad sizes
+     * give the fallback.
+     */
+    @Test
+    public void testParseSize() {
+        assertEquals(500, RotationPolicy.parseSize("500", -1));
+        assertEquals(64 * 1024, RotationPolicy.parseSize("64k", -1));
+        assertEquals(10 * 1024 * 1024, RotationPolicy.parseSize("10M", -1));
+        assertEquals(1024L * 1024 * 1024, RotationPolicy.parseSize("1g", -1));
+        assertEquals(2 * 1024, RotationPolicy.parseSize(" 2 K ", -1));
+        assertEquals(-1, RotationPolicy.parseSize("", -1));
+        assertEquals(-1, RotationPolicy.parseSize("k", -1));
+        assertEquals(-1, RotationPolicy.parseSize("ten", -1));
+        assertEquals(-1, RotationPolicy.parseSize("10t", -1));
+    }
+
+    /**
+     * Check that time based rotations happen on multiples of the interval in
+     * local time.
+     */
+    @Test
+    public void testNextRotation() {
+        final long day = TimeUnit.DAYS.toMillis(1);
+        final long hour = TimeUnit.HOURS.toMillis(1);
+
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        assertEquals(NEXT_MIDNIGHT, new RotationPolicy(0, day, 0, 0, false).getNextRotation(NOW));
+        assertEquals(NOW + 30 * 60 * 1000, new RotationPolicy(0, hour, 0, 0, false).getNextRotation(NOW));
+        assertEquals(NEXT_MIDNIGHT + day, new RotationPolicy(0, day, 0, 0, false).getNextRotation(NEXT_MIDNIGHT));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+        assertEquals(NEXT_MIDNIGHT - 2 * hour, new RotationPolicy(0, day, 0, 0, false).getNextRotation(NOW));
+    }
+
+    /**
+     * Check that a policy with no interval never rotates by time.
+     */
+    @Test
+    public void testNoInterval() {
+        assertEquals(Long.MAX_VALUE, RotationPolicy.NEVER.getNextRotation(NOW));
+        assertEquals(Long.MAX_VALUE, new RotationPolicy(1024, 0, 0, 0, false).getNextRotation(NOW));
+    }
+}
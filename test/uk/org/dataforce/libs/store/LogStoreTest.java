@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.libs.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for LogStore.
+ */
+public class LogStoreTest {
+
+    /** Directory for the test stores. */
+    private File directory;
+
+    /** Store file. */
+    private File file;
+
+    /** Currently open store, closed after each test. */
+    private LogStore store;
+
+    /**
+     * Create a directory for the store.
+     *
+     * @throws IOException if the directory can not be created.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("logstore").toFile();
+        file = new File(directory, "test.store");
+    }
+
+    /**
+     * Close the store and remove its directory.
+     */
+    @After
+    public void tearDown() {
+        if (store != null) { store.close(); }
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File f : files) { f.delete(); }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Open the test store.
+     *
+     * @return The store.
+     * @throws IOException if the store can not be opened.
+     */
+    private LogStore open() throws IOException {
+        store = new LogStore(file, SyncPolicy.NONE, 0);
+        return store;
+    }
+
+    /**
+     * Cut bytes off the end of the store file.
+     *
+     * @param bytes Number of bytes to remove.
+     * @throws IOException if the file can not be changed.
+     */
+    private void truncate(final int bytes) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - bytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Check that values, overwrites and removals are all still there after
+     * closing and reopening the store.
+     *
+     * @throws IOException if the store can not be used.
+     */
+    @Test
+    public void testReopen() throws IOException {
+        open();
+        store.put("a", "1");
+        store.put("b", "2");
+        store.put("b", "3");
+        store.put("c", "4");
+        store.remove("c");
+        store.close();
+
+        open();
+        assertEquals("1", store.get("a"));
+        assertEquals("3", store.get("b"));
+        assertNull(store.get("c"));
+        assertEquals(2, store.size());
+    }
+
+    /**
+     * Check that a closed store can not be used.
+     *
+     * @throws IOException if the store can not be opened.
+     */
+    @Test
+    public void testClosed() throws IOException {
+        open().close();
+        try {
+            store.get("a");
+            fail("Closed store was readable");
+        } catch (final IOException ioe) {
+            assertTrue(ioe.getMessage().startsWith("Store is closed"));
+        }
+    }
+
+    /**
+     * Check that a record cut short by a crash is discarded on open, and
+     * that records written after it are kept.
+     *
+     * @throws IOException if the store can not be used.
+     */
+    @Test
+    public void testTruncatedTail() throws IOException {
+        open();
+        store.put("a", "1");
+        store.put("b", "a longer value");
+        store.close();
+        truncate(3);
+
+        open();
+        assertEquals("1", store.get("a"));
+        assertFalse(store.contains("b"));
+        store.put("c", "3");
+        store.close();
+
+        open();
+        assertEquals("1", store.get("a"));
+        assertFalse(store.contains("b"));
+        assertEquals("3", store.get("c"));
+        assertEquals(2, store.size());
+    }
+
+    /**
+     * Check that a record with a bad checksum is discarded on open.
+     *
+     * @throws IOException if the store can not be used.
+     */
+    @Test
+    public void testCorruptTail() throws IOException {
+        open();
+        store.put("a", "1");
+        store.put("b", "2");
+        store.close();
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            raf.write('x');
+        } finally {
+            raf.close();
+        }
+
+        open();
+        assertEquals("1", store.get("a"));
+        assertFalse(store.contains("b"));
+        assertEquals(1, store.size());
+    }
+
+    /**
+     * Check that a store can not be opened a second time while it is open.
+     *
+     * @throws IOException if the store can not be used.
+     */
+    @Test
+    public void testLocked() throws IOException {
+        open();
+        store.put("a", "1");
+        try {
+            new LogStore(file, SyncPolicy.NONE, 0);
+            fail("Store was opened twice");
+        } catch (final IOException ioe) {
+            assertTrue(ioe.getMessage().startsWith("Store is already in use"));
+        }
+        assertEquals("1", store.get("a"));
+
+        store.close();
+        open();
+        assertEquals("1", store.get("a"));
+    }
+
+    /**
+     * Check that compacting removes old records and keeps the current ones.
+     *
+     * @throws IOException if the store can not be used.
+     */
+    @Test
+    public void testCompact() throws IOException {
+        open();
+        for (int i = 0; i < 100; i++) {
+            store.put("key" + (i % 10), "value" + i);
+        }
+        store.remove("key0");
+        final long before = store.getDataSize();
+        store.compact();
+        assertTrue(store.getDataSize() < before);
+        store.close();
+
+        open();
+        assertEquals(9, store.size());
+        assertNull(store.get("key0"));
+        for (int i = 1; i < 10; i++) {
+            assertEquals("value" + (90 + i), store.get("key" + i));
+        }
+    }
+
+    /**
+     * Check that writes made while a compaction is running are kept after
+     * the new file replaces the old one, and after reopening.
+     *
+     * @throws Exception if the store can not be used.
+     */
+    @Test
+    public void testWritesDuringCompact() throws Exception {
+        final int keys = 20000;
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) { value.append('x'); }
+
+        open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < keys; i++) {
+                store.put("key" + i, pass + value.toString());
+            }
+        }
+
+        final AtomicInteger failures = new AtomicInteger();
+        final Thread compactor = new Thread("Compactor") {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                try {
+                    store.compact();
+                } catch (final IOException ioe) {
+                    failures.incrementAndGet();
+                }
+            }
+        };
+        compactor.start();
+        int written = 0;
+        int during = 0;
+        while ((compactor.isAlive() || written < 100) && written < keys / 2) {
+            final boolean compacting = compactor.isAlive();
+            store.put("key" + written, "new" + written);
+            store.put("extra" + written, "extra" + written);
+            store.remove("key" + (keys - 1 - written));
+            if (compacting) { during++; }
+            written++;
+        }
+        compactor.join();
+        assertEquals(0, failures.get());
+        assertTrue("Nothing was written while compacting", during > 0);
+
+        checkCompacted(keys, written);
+        store.close();
+        open();
+        checkCompacted(keys, written);
+    }
+
+    /**
+     * Check the contents of the store after testWritesDuringCompact.
+     *
+     * @param keys Number of keys written before compacting.
+     * @param written Number of passes made while compacting.
+     * @throws IOException if the store can not be read.
+     */
+    private void checkCompacted(final int keys, final int written) throws IOException {
+        for (int i = 0; i < keys; i++) {
+            if (i < written) {
+                assertEquals("new" + i, store.get("key" + i));
+                assertEquals("extra" + i, store.get("extra" + i));
+            } else if (i >= keys - written) {
+                assertFalse(store.contains("key" + i));
+            } else {
+                assertTrue(store.get("key" + i).startsWith("1x"));
+            }
+        }
+        assertEquals(keys, store.size());
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for Config.
+ */
+public class ConfigTest {
+
+    /** Directory for the test configs. */
+    private File directory;
+
+    /** Config file. */
+    private File file;
+
+    /**
+     * A listener that records the changes it is told about.
+     */
+    private static class RecordingListener implements ConfigChangedListener {
+        /** Changes seen, as "domain.setting". */
+        private final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+
+        /** {@inheritDoc} */
+        @Override
+        public void configChanged(final String domain, final String setting) {
+            changes.add(domain + "." + setting);
+        }
+
+        /**
+         * Get the changes seen so far, sorted.
+         *
+         * @return Sorted changes.
+         */
+        List<String> getChanges() {
+            final List<String> result = new ArrayList<String>(changes);
+            Collections.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * Create a directory for the config.
+     *
+     * @throws IOException if the directory can not be created.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("config").toFile();
+        file = new File(directory, "test.conf");
+    }
+
+    /**
+     * Remove the config directory.
+     */
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File f : files) { f.delete(); }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Write the config file.
+     *
+     * @param lines Lines of the file.
+     * @throws IOException if the file can not be written.
+     */
+    private void write(final String... lines) throws IOException {
+        write(Arrays.asList(lines));
+    }
+
+    /**
+     * Write the config file.
+     *
+     * @param lines Lines of the file.
+     * @throws IOException if the file can not be written.
+     */
+    private void write(final List<String> lines) throws IOException {
+        Files.write(file.toPath(), lines, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Check that reload applies the file and reports exactly the options and
+     * domains that changed.
+     *
+     * @throws Exception if the config can not be used.
+     */
+    @Test
+    public void testReloadReportsChanges() throws Exception {
+        write("keysections:", "\tserver", "\told", "",
+                "server:", "\tnickname=bot", "\tport=6667", "\tremoved=yes", "",
+                "old:", "\tkey=value", "",
+                "scripts:", "\ta.js", "",
+                "autojoin:", "\tchannel");
+        final Config config = new Config(file);
+        final RecordingListener listener = new RecordingListener();
+        config.addListener(listener);
+
+        write("keysections:", "\tserver", "\tnew", "",
+                "server:", "\tnickname=bot2", "\tport=6667", "\tadded=1", "",
+                "new:", "\tkey=value", "",
+                "scripts:", "\ta.js", "\tb.js", "",
+                "autojoin:", "\tchannel");
+        assertTrue(config.reload());
+
+        assertEquals(Arrays.asList("keysections.null", "new.key", "old.key", "scripts.null", "server.added", "server.nickname", "server.removed"), listener.getChanges());
+        assertEquals("bot2", config.getOption("server", "nickname", null));
+        assertEquals("1", config.getOption("server", "added", null));
+        assertFalse(config.hasOption("server", "removed"));
+        assertFalse(config.hasOption("old", "key"));
+        assertEquals("value", config.getOption("new", "key", null));
+        assertEquals(Arrays.asList("a.js", "b.js"), config.getFlatDomain("scripts"));
+        assertEquals(Arrays.asList("channel"), config.getFlatDomain("autojoin"));
+        assertFalse(config.isDirty());
+
+        assertFalse(config.reload());
+        assertEquals(7, listener.getChanges().size());
+    }
+
+    /**
+     * Check if the config file has the given line in it.
+     *
+     * @param line Line to look for, without indentation.
+     * @return True if the line is in the file.
+     * @throws IOException if the file can not be read.
+     */
+    private boolean isSaved(final String line) throws IOException {
+        for (final String saved : Files.readAllLines(file.toPath(), Charset.forName("UTF-8"))) {
+            if (saved.trim().equals(line)) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Check that changes are not written straight away, and that a burst of
+     * changes is written by flushPendingSaves.
+     *
+     * @throws Exception if the config can not be used.
+     */
+    @Test
+    public void testWriteBehindSave() throws Exception {
+        write("keysections:", "\tserver", "", "server:", "\tnickname=bot");
+        final Config config = new Config(file);
+        for (int i = 0; i < 50; i++) {
+            config.setOption("server", "nickname", "bot" + i);
+        }
+        assertTrue(config.isDirty());
+        assertEquals("bot", new Config(file).getOption("server", "nickname", null));
+
+        Config.flushPendingSaves();
+        assertFalse(config.isDirty());
+        assertEquals("bot49", new Config(file).getOption("server", "nickname", null));
+    }
+
+    /**
+     * Check that a change is saved on its own once the save delay has
+     * passed.
+     *
+     * @throws Exception if the config can not be used.
+     */
+    @Test
+    public void testDelayedSave() throws Exception {
+        write("keysections:", "\tserver", "", "server:", "\tnickname=bot");
+        final Config config = new Config(file);
+        config.setOption("server", "nickname", "later");
+        assertTrue(config.isDirty());
+
+        // The config stops being dirty just before it is written, so wait
+        // for the file itself.
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!isSaved("nickname=later") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(config.isDirty());
+        assertEquals("later", new Config(file).getOption("server", "nickname", null));
+    }
+
+    /**
+     * Check that a reader never sees a config half way through a reload.
+     *
+     * @throws Exception if the config can not be used.
+     */
+    @Test
+    public void testConcurrentReload() throws Exception {
+        final int items = 5000;
+        final List<String> first = new ArrayList<String>(Arrays.asList("keysections:", "\tserver", "", "server:", "\tnickname=one", "", "scripts:"));
+        final List<String> second = new ArrayList<String>(Arrays.asList("keysections:", "\tserver", "", "server:", "\tnickname=two", "\textra=x", "", "scripts:"));
+        for (int i = 0; i < items; i++) {
+            first.add("\tfirst" + i + ".js");
+            second.add("\tsecond" + i + ".js");
+        }
+        write(first);
+        final Config config = new Config(file);
+
+        final AtomicReference<String> problem = new AtomicReference<String>();
+        final Thread reader = new Thread("Config reader") {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                while (!isInterrupted() && problem.get() == null) {
+                    final List<String> scripts = config.getFlatDomain("scripts");
+                    if (scripts.size() != items) {
+                        problem.set("Saw " + scripts.size() + " scripts");
+                    }
+                    if (config.getOption("server", "nickname", null) == null) {
+                        problem.set("Saw no nickname");
+                    }
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int i = 0; i < 500 && problem.get() == null; i++) {
+                write(i % 2 == 0 ? second : first);
+                assertTrue(config.reload());
+            }
+        } finally {
+            reader.interrupt();
+            reader.join();
+        }
+        assertNull(problem.get());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for OptionView.
+ */
+public class OptionViewTest {
+
+    /** Directory for the test configs. */
+    private File directory;
+
+    /** Config file. */
+    private File file;
+
+    /**
+     * Create a directory for the config.
+     *
+     * @throws IOException if the directory can not be created.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("optionview").toFile();
+        file = new File(directory, "test.conf");
+    }
+
+    /**
+     * Finish any pending saves and remove the config directory.
+     */
+    @After
+    public void tearDown() {
+        Config.flushPendingSaves();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File f : files) { f.delete(); }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Write the config file.
+     *
+     * @param lines Lines of the file.
+     * @throws IOException if the file can not be written.
+     */
+    private void write(final String... lines) throws IOException {
+        Files.write(file.toPath(), Arrays.asList(lines), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Check that a view returns the same parsed value until the option is
+     * changed with setOption, and then returns the new value.
+     *
+     * @throws Exception if the config can not be used.
+     */
+    @Test
+    public void testSetOption() throws Exception {
+        write("keysections:", "\tbot", "", "bot:", "\tlimit=10", "\tnames=a");
+        final Config config = new Config(file);
+        final OptionView<Integer> limit = config.getIntView("bot", "limit", 5);
+        final OptionView<List<String>> names = config.getListView("bot", "names", null);
+
+        assertEquals(10, (int)limit.get());
+        final List<String> first = names.get();
+        assertEquals(Arrays.asList("a"), first);
+        assertSame(first, names.get());
+
+        config.setIntOption("bot", "limit", 20);
+        assertEquals(20, (int)limit.get());
+        assertSame("Unchanged option was parsed again", first, names.get());
+
+        config.setListOption("bot", "names", Arrays.asList("b", "c"));
+        assertEquals(Arrays.asList("b", "c"), names.get());
+
+        config.setOption("bot", "limit", "not a number");
+        assertEquals(5, (int)limit.get());
+    }
+
+    /**
+     * Check that views see options that are changed, added and removed when
+     * the config is reloaded.
+     *
+     * @throws Exception if the config can not be used.
+     */
+    @Test
+    public void testReload() throws Exception {
+        write("keysections:", "\tbot", "", "bot:", "\tlimit=10", "\tmode=sync");
+        final Config config = new Config(file);
+        final OptionView<Long> limit = config.getLongView("bot", "limit", 5);
+        final OptionView<String> mode = config.getStringView("bot", "mode", "none");
+        final OptionView<Boolean> enabled = config.getBoolView("bot", "enabled", false);
+
+        assertEquals(10L, (long)limit.get());
+        assertEquals("sync", mode.get());
+        assertEquals(false, enabled.get());
+
+        write("keysections:", "\tbot", "", "bot:", "\tlimit=30", "\tenabled=true");
+        assertTrue(config.reload());
+
+        assertEquals(30L, (long)limit.get());
+        assertEquals("none", mode.get());
+        assertEquals(true, enabled.get());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for TextFile.
+ */
+public class TextFileTest {
+    /** Charset used for the test files. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Directory for the test files. */
+    private File directory;
+
+    /** File to write. */
+    private File file;
+
+    /**
+     * Create a directory for the files.
+     *
+     * @throws IOException if the directory can not be created.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("textfile").toFile();
+        file = new File(directory, "test.txt");
+    }
+
+    /**
+     * Remove the directory and everything in it.
+     */
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    /**
+     * Delete a file or directory and everything in it.
+     *
+     * @param target File to delete.
+     */
+    private static void delete(final File target) {
+        final File[] files = target.listFiles();
+        if (files != null) {
+            for (final File f : files) { delete(f); }
+        }
+        target.delete();
+    }
+
+    /**
+     * Get the names of the files in the test directory.
+     *
+     * @return Sorted file names.
+     */
+    private List<String> getNames() {
+        final List<String> names = Arrays.asList(directory.list());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Check that writing replaces the whole file, including with fewer
+     * lines than before, and leaves no temporary files behind.
+     *
+     * @throws IOException if the file can not be used.
+     */
+    @Test
+    public void testWriteLines() throws IOException {
+        final TextFile textFile = new TextFile(file, UTF8);
+        textFile.writeLines(Arrays.asList("one", "two", "three \u00e9"));
+        assertEquals(Arrays.asList("one", "two", "three \u00e9"), Files.readAllLines(file.toPath(), UTF8));
+
+        textFile.writeLines(Arrays.asList("four"));
+        assertEquals(Arrays.asList("four"), Files.readAllLines(file.toPath(), UTF8));
+        assertEquals(Arrays.asList("four"), new TextFile(file, UTF8).getLines());
+        assertEquals(Arrays.asList("test.txt"), getNames());
+    }
+
+    /**
+     * Check that a write that can not replace the file leaves the target
+     * alone and removes its temporary file.
+     *
+     * @throws IOException if the test files can not be created.
+     */
+    @Test
+    public void testFailedWrite() throws IOException {
+        assertTrue(file.mkdir());
+        final File inside = new File(file, "inside");
+        Files.write(inside.toPath(), Arrays.asList("kept"), UTF8);
+
+        try {
+            new TextFile(file, UTF8).writeLines(Arrays.asList("lost"));
+            fail("Replaced a directory");
+        } catch (final IOException ioe) {
+            /* Expected. */
+        }
+        assertEquals(Arrays.asList("test.txt"), getNames());
+        assertEquals(Arrays.asList("kept"), Files.readAllLines(inside.toPath(), UTF8));
+    }
+
+    /**
+     * Check that a TextFile read from a stream can not be written.
+     *
+     * @throws IOException if the file can not be read.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStreamNotWritable() throws IOException {
+        final TextFile textFile = new TextFile(new ByteArrayInputStream("line".getBytes(UTF8)), UTF8);
+        assertEquals(Arrays.asList("line"), textFile.getLines());
+        textFile.writeLines(Arrays.asList("other"));
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.loadtest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal IRC server that accepts a single client on localhost.
+ *
+ * This does just enough to register the client and let it join a channel,
+ * after which the test can send any lines it likes and is told about any
+ * messages the client sends back.
+ */
+public class FakeIrcd implements Runnable, Closeable {
+
+    /**
+     * Interface for things that want to know about messages sent by the
+     * client.
+     */
+    public interface MessageListener {
+        /**
+         * Called when the client sends a PRIVMSG.
+         *
+         * @param target Target of the message.
+         * @param message Message text.
+         */
+        void onMessage(final String target, final String message);
+    }
+
+    /** Name this server uses for itself. */
+    public static final String SERVER_NAME = "fake.ircd";
+
+    /** Charset used on the wire. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Socket we listen on. */
+    private final ServerSocket serverSocket;
+
+    /** Channel the client is expected to join. */
+    private final String channel;
+
+    /** Other users that are in the channel. */
+    private final String[] users;
+
+    /** Thread that reads from the client. */
+    private final Thread thread;
+
+    /** Released once the client has registered. */
+    private final CountDownLatch registered = new CountDownLatch(1);
+
+    /** Released once the client has joined our channel. */
+    private final CountDownLatch joined = new CountDownLatch(1);
+
+    /** Listener to tell about messages from the client. */
+    private volatile MessageListener listener;
+
+    /** Writer to the client, once connected. */
+    private volatile BufferedWriter out;
+
+    /** Client socket, once connected. */
+    private volatile Socket client;
+
+    /** Nickname the client asked for. */
+    private volatile String nickname = "";
+
+    /** Have we had a USER line yet? */
+    private boolean gotUser;
+
+    /**
+     * Create a new FakeIrcd listening on a free port on localhost.
+     *
+     * @param channel Channel the client is expected to join.
+     * @param users Other users that are in the channel.
+     * @throws IOException if the socket can not be opened.
+     */
+    public FakeIrcd(final String channel, final String... users) throws IOException {
+        this.channel = channel;
+        this.users = users.clone();
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(this, "Fake IRCd");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the port we are listening on.
+     *
+     * @return Port number.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get the nickname the client registered with.
+     *
+     * @return Client nickname.
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Set the listener to tell about messages from the client.
+     *
+     * @param listener New listener.
+     */
+    public void setListener(final MessageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Wait for the client to join our channel.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of timeout.
+     * @return True if the client joined in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitJoined(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return joined.await(timeout, unit);
+    }
+
+    /**
+     * Queue a line to the client.
+     *
+     * Lines are buffered until {@link #flush()} is called or the buffer fills,
+     * so that floods are not limited by one write per line. If the client is
+     * not reading fast enough this will block once the socket buffers fill.
+     *
+     * @param line Line to send, without the line ending.
+     * @throws IOException if the line can not be written.
+     */
+    public void send(final String line) throws IOException {
+        final BufferedWriter writer = out;
+        if (writer == null) {
+            throw new IOException("No client connected");
+        }
+        synchronized (writer) {
+            writer.write(line);
+            writer.write("\r\n");
+        }
+    }
+
+    /**
+     * Send a message to the client from the given user.
+     *
+     * @param from Nickname of the user the message is from.
+     * @param target Channel or nickname the message is sent to.
+     * @param message Message text.
+     * @throws IOException if the line can not be written.
+     */
+    public void sendMessage(final String from, final String target, final String message) throws IOException {
+        send(":" + from + "!" + from + "@load.test PRIVMSG " + target + " :" + message);
+    }
+
+    /**
+     * Flush any lines queued to the client.
+     *
+     * @throws IOException if the lines can not be written.
+     */
+    public void flush() throws IOException {
+        final BufferedWriter writer = out;
+        if (writer != null) {
+            synchronized (writer) {
+                writer.flush();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        try {
+            client = serverSocket.accept();
+            client.setTcpNoDelay(true);
+            out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), CHARSET), 64 * 1024);
+            final BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), CHARSET));
+            String line;
+            while ((line = in.readLine()) != null) {
+                handleLine(line);
+            }
+        } catch (final IOException ioe) {
+            /* Client went away or we were closed. */
+        }
+    }
+
+    /**
+     * Handle a line from the client.
+     *
+     * @param line Line to handle.
+     * @throws IOException if a reply can not be sent.
+     */
+    private void handleLine(final String line) throws IOException {
+        final int space = line.indexOf(' ');
+        final String command = (space == -1 ? line : line.substring(0, space)).toUpperCase();
+        final String params = space == -1 ? "" : line.substring(space + 1);
+
+        if ("PRIVMSG".equals(command)) {
+            final int colon = params.indexOf(" :");
+            final MessageListener current = listener;
+            if (colon != -1 && current != null) {
+                current.onMessage(params.substring(0, colon), params.substring(colon + 2));
+            }
+            return;
+        }
+
+        if ("PING".equals(command)) {
+            reply("PONG " + SERVER_NAME + " " + params);
+        } else if ("CAP".equals(command) && params.startsWith("LS")) {
+            reply("CAP * LS :");
+        } else if ("NICK".equals(command)) {
+            nickname = params.startsWith(":") ? params.substring(1) : params;
+            if (gotUser && registered.getCount() > 0) { welcome(); }
+        } else if ("USER".equals(command)) {
+            gotUser = true;
+            if (!nickname.isEmpty() && registered.getCount() > 0) { welcome(); }
+        } else if ("JOIN".equals(command)) {
+            final String channels = params.split(" ")[0];
+            for (final String target : channels.split(",")) {
+                join(target);
+            }
+        } else if ("QUIT".equals(command)) {
+            close();
+        }
+        // Anything else (MODE, WHO, ...) is ignored.
+    }
+
+    /**
+     * Send the registration numerics to the client.
+     *
+     * @throws IOException if the lines can not be written.
+     */
+    private void welcome() throws IOException {
+        numeric("001", ":Welcome to the Fake IRC Network " + nickname);
+        numeric("002", ":Your host is " + SERVER_NAME + ", running version fakeircd-1.0");
+        numeric("003", ":This server was created for testing");
+        numeric("004", SERVER_NAME + " fakeircd-1.0 iowghraAsORTVSxNCWqBzvdHtGp lvhopsmntikrRcaqOALQbSeIKVfMCuzNTGj");
+        numeric("005", "CHANTYPES=# PREFIX=(ov)@+ CHANMODES=b,k,l,imnpst NETWORK=FakeNet CASEMAPPING=rfc1459 :are supported by this server");
+        numeric("375", ":- " + SERVER_NAME + " Message of the Day -");
+        numeric("372", ":- Load testing only.");
+        numeric("376", ":End of /MOTD command.");
+        flush();
+        registered.countDown();
+    }
+
+    /**
+     * Join the client to the given channel.
+     *
+     * @param target Channel to join.
+     * @throws IOException if the lines can not be written.
+     */
+    private void join(final String target) throws IOException {
+        reply(":" + nickname + "!" + nickname + "@localhost JOIN " + target);
+        final StringBuilder names = new StringBuilder(nickname);
+        if (target.equalsIgnoreCase(channel)) {
+            for (final String user : users) {
+                names.append(' ').append(user);
+            }
+        }
+        numeric("353", "= " + target + " :" + names);
+        numeric("366", target + " :End of /NAMES list.");
+        flush();
+        if (target.equalsIgnoreCase(channel)) {
+            joined.countDown();
+        }
+    }
+
+    /**
+     * Send a numeric to the client.
+     *
+     * @param numeric Numeric to send.
+     * @param text Text after the nickname.
+     * @throws IOException if the line can not be written.
+     */
+    private void numeric(final String numeric, final String text) throws IOException {
+        send(":" + SERVER_NAME + " " + numeric + " " + nickname + " " + text);
+    }
+
+    /**
+     * Send a line to the client and flush it.
+     *
+     * @param line Line to send.
+     * @throws IOException if the line can not be written.
+     */
+    private void reply(final String line) throws IOException {
+        send(line);
+        flush();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (final IOException ioe) { /* Already closed. */ }
+        final Socket socket = client;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (final IOException ioe) { /* Already closed. */ }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+//-------------------------------------------------------------------------
+// Script used by ServerLoadTest.
+//
+// Counts every message it sees, answers "!ping <id>" with "pong <id>" and
+// "!count" with the totals so far.
+//-------------------------------------------------------------------------
+var channelMessages = 0;
+var privateMessages = 0;
+
+bot.bindEvent("onChannelMessage", "onChannelMessage");
+bot.bindEvent("onPrivateMessage", "onPrivateMessage");
+irc.bindCommand("!ping", "-", "doPing");
+irc.bindCommand("!count", "-", "doCount");
+
+function onChannelMessage(parser, date, channel, client, message, host) {
+	channelMessages++;
+}
+
+function onPrivateMessage(parser, date, message, host) {
+	privateMessages++;
+}
+
+function doPing(parser, date, channel, client, command, args) {
+	channel.sendMessage("pong " + args);
+}
+
+function doCount(parser, date, channel, client, command, args) {
+	channel.sendMessage("count " + channelMessages + " " + privateMessages);
+}
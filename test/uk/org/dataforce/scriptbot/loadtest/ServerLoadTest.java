@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.org.dataforce.scriptbot.ScriptBot;
+import uk.org.dataforce.scriptbot.scripts.stats.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End to end load test for a single Server.
+ *
+ * This starts a real ScriptBot with a temporary config directory, pointed at
+ * a FakeIrcd on localhost. Once the bot has joined the test channel it is
+ * flooded with channel and private messages, with a "!ping" command every so
+ * often whose reply is used to measure latency. Finally "!count" is sent, and
+ * as a script's calls are run in order its reply tells us that everything
+ * before it has been handled.
+ *
+ * This is not run by "ant test", use "ant loadtest". The load can be changed
+ * with these system properties:
+ *
+ * loadtest.messages - Number of messages to send (default 100000)
+ * loadtest.private - Percentage of messages sent privately (default 10)
+ * loadtest.pingevery - Send a "!ping" every this many messages (default 100)
+ * loadtest.dispatch - Dispatch mode for the script (default sync)
+ * loadtest.timeout - Seconds to wait for the bot to catch up (default 300)
+ */
+public class ServerLoadTest {
+    /** Number of messages to send. */
+    private static final int MESSAGES = Integer.getInteger("loadtest.messages", 100000);
+
+    /** Percentage of messages that are sent privately. */
+    private static final int PRIVATE_PERCENT = Integer.getInteger("loadtest.private", 10);
+
+    /** Send a "!ping" every this many messages. */
+    private static final int PING_EVERY = Math.max(1, Integer.getInteger("loadtest.pingevery", 100));
+
+    /** Dispatch mode for the script. */
+    private static final String DISPATCH = System.getProperty("loadtest.dispatch", "sync");
+
+    /** Seconds to wait for the bot to catch up. */
+    private static final long TIMEOUT = Long.getLong("loadtest.timeout", 300);
+
+    /** Flush the flood to the socket every this many lines. */
+    private static final int FLUSH_EVERY = 64;
+
+    /** Channel used for the test. */
+    private static final String CHANNEL = "#loadtest";
+
+    /** Number of users sending messages. */
+    private static final int USERS = 50;
+
+    /** Charset for the files we write. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Our fake server. */
+    private FakeIrcd ircd;
+
+    /** Temporary config directory. */
+    private File directory;
+
+    /** Nicknames of the users sending messages. */
+    private String[] users;
+
+    /**
+     * Start the FakeIrcd and a ScriptBot connected to it.
+     *
+     * @throws Exception if the bot can not be started.
+     */
+    @Before
+    public void setUp() throws Exception {
+        users = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = "user" + i;
+        }
+        ircd = new FakeIrcd(CHANNEL, users);
+
+        directory = Files.createTempDirectory("scriptbot-loadtest").toFile();
+        final File scripts = new File(directory, "scripts");
+        scripts.mkdir();
+        write(new File(directory, "ScriptBot.conf"),
+                "keysections:\n"
+                + "\tserverConfigs\n"
+                + "\n"
+                + "serverConfigs:\n"
+                + "\tLoadTest=LoadTest.conf\n");
+        write(new File(directory, "LoadTest.conf"),
+                "keysections:\n"
+                + "\tserver\n"
+                + "\tdispatch\n"
+                + "\n"
+                + "server:\n"
+                + "\ttype=irc\n"
+                + "\taddress=127.0.0.1\n"
+                + "\tport=" + ircd.getPort() + "\n"
+                + "\tnickname=LoadBot\n"
+                + "\tenabled=true\n"
+                + "\n"
+                + "dispatch:\n"
+                + "\tmode=" + DISPATCH + "\n"
+                + "\tqueuesize=10000\n"
+                + "\toverflow=block\n"
+                + "\n"
+                + "autojoin:\n"
+                + "\t" + CHANNEL + "\n"
+                + "\n"
+                + "scripts:\n"
+                + "\tLoadTest.js\n");
+        copyResource("LoadTest.js", new File(scripts, "LoadTest.js"));
+
+        ScriptBot.main(new String[]{"-c", directory.getPath(), "-s"});
+        assertTrue("Bot did not join " + CHANNEL, ircd.awaitJoined(30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Stop the bot and the FakeIrcd, and remove the config directory.
+     */
+    @After
+    public void tearDown() {
+        if (ScriptBot.getBot() != null) {
+            ScriptBot.getBot().shutdown(true);
+        }
+        if (ircd != null) {
+            ircd.close();
+        }
+        delete(directory);
+    }
+
+    /**
+     * Flood the bot and report throughput and "!ping" latency.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void testThroughputAndLatency() throws Exception {
+        final ConcurrentMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final CountDownLatch counted = new CountDownLatch(1);
+        final AtomicReference<String> counts = new AtomicReference<String>();
+
+        ircd.setListener(new FakeIrcd.MessageListener() {
+            /** {@inheritDoc} */
+            @Override
+            public void onMessage(final String target, final String message) {
+                final long now = System.nanoTime();
+                if (message.startsWith("pong ")) {
+                    final Long sent = pending.remove(message.substring(5));
+                    if (sent != null) {
+                        latency.record(TimeUnit.NANOSECONDS.toMicros(now - sent));
+                    }
+                } else if (message.startsWith("count ")) {
+                    counts.set(message.substring(6));
+                    counted.countDown();
+                }
+            }
+        });
+
+        final String nickname = ircd.getNickname();
+        int channelMessages = 0;
+        int privateMessages = 0;
+        int pings = 0;
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            final String user = users[i % USERS];
+            if (i % PING_EVERY == 0) {
+                final String id = Integer.toString(pings++);
+                ircd.flush();
+                pending.put(id, System.nanoTime());
+                ircd.sendMessage(user, CHANNEL, "!ping " + id);
+                ircd.flush();
+            } else if ((i % 100) < PRIVATE_PERCENT) {
+                ircd.sendMessage(user, nickname, "Private message number " + i);
+                privateMessages++;
+            } else {
+                ircd.sendMessage(user, CHANNEL, "Channel message number " + i);
+                channelMessages++;
+            }
+            if (i % FLUSH_EVERY == 0) { ircd.flush(); }
+        }
+        ircd.sendMessage(users[0], CHANNEL, "!count");
+        ircd.flush();
+        final long sent = System.nanoTime();
+
+        assertTrue("Bot did not catch up within " + TIMEOUT + "s", counted.await(TIMEOUT, TimeUnit.SECONDS));
+        final long end = System.nanoTime();
+
+        // "!ping" lines are channel messages too. "!count" itself is not
+        // counted: the command table is registered with the parser before
+        // the script's onChannelMessage binding, so doCount runs first.
+        final String expected = (channelMessages + pings) + " " + privateMessages;
+        assertNotNull(counts.get());
+        assertEquals("Messages seen by the script", expected, counts.get());
+
+        final double seconds = (end - start) / 1e9;
+        System.out.println("Load test results (dispatch: " + DISPATCH + ")");
+        System.out.println(String.format(Locale.ROOT, "  Messages:   %d channel, %d private, %d pings",
+                channelMessages, privateMessages, pings));
+        System.out.println(String.format(Locale.ROOT, "  Sent in:    %.3f s", (sent - start) / 1e9));
+        System.out.println(String.format(Locale.ROOT, "  Handled in: %.3f s", seconds));
+        System.out.println(String.format(Locale.ROOT, "  Throughput: %.0f messages/s", (MESSAGES + 1) / seconds));
+        System.out.println(String.format(Locale.ROOT, "  Latency:    p50 %d us, p99 %d us, max %d us (%d replies)",
+                latency.getPercentile(50), latency.getPercentile(99), latency.getMax(), latency.getCount()));
+    }
+
+    /**
+     * Write the given contents to a file.
+     *
+     * @param file File to write.
+     * @param contents Contents to write.
+     * @throws IOException if the file can not be written.
+     */
+    private static void write(final File file, final String contents) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Copy a resource next to this class to a file.
+     *
+     * @param name Name of the resource.
+     * @param file File to copy to.
+     * @throws IOException if the resource can not be copied.
+     */
+    private static void copyResource(final String name, final File file) throws IOException {
+        final InputStream in = ServerLoadTest.class.getResourceAsStream(name);
+        assertNotNull("Missing resource: " + name, in);
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    /**
+     * Delete a file or directory and everything in it.
+     *
+     * @param file File to delete.
+     */
+    private static void delete(final File file) {
+        if (file == null) { return; }
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
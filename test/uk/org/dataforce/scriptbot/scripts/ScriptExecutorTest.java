@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import uk.org.dataforce.libs.logger.LogLevel;
+import uk.org.dataforce.libs.logger.Logger;
+import uk.org.dataforce.libs.util.OverflowPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for ScriptExecutor.
+ */
+public class ScriptExecutorTest {
+    /** Number of messages each script starts by sending. */
+    private static final int MESSAGES = 50;
+
+    /** Logger for the executors. */
+    private final Logger logger = new Logger(LogLevel.ERROR);
+
+    /** First script's executor. */
+    private ScriptExecutor first;
+
+    /** Second script's executor. */
+    private ScriptExecutor second;
+
+    /**
+     * Stop the executors.
+     */
+    @After
+    public void tearDown() {
+        if (first != null) { first.shutdown(); }
+        if (second != null) { second.shutdown(); }
+    }
+
+    /**
+     * Check that two scripts with their own workers and full queues, each
+     * replying to the events caused by the other, do not deadlock when using
+     * the block policy.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testWorkersReplyingToEachOtherDoNotDeadlock() throws InterruptedException {
+        first = new ScriptExecutor("Script: first", 1, OverflowPolicy.BLOCK, logger);
+        second = new ScriptExecutor("Script: second", 1, OverflowPolicy.BLOCK, logger);
+        assertConverses(first, second);
+    }
+
+    /**
+     * Check the same as testWorkersReplyingToEachOtherDoNotDeadlock, for
+     * scripts using the shared pool.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testPooledScriptsReplyingToEachOtherDoNotDeadlock() throws InterruptedException {
+        first = new ScriptExecutor(ScriptExecutor.getSharedPool(2), 1, OverflowPolicy.BLOCK, logger);
+        second = new ScriptExecutor(ScriptExecutor.getSharedPool(2), 1, OverflowPolicy.BLOCK, logger);
+        assertConverses(first, second);
+    }
+
+    /**
+     * Check that a call throwing an Error is logged and does not stop the
+     * worker from running the calls after it.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testErrorDoesNotStopWorker() throws InterruptedException {
+        final StringWriter output = new StringWriter();
+        final Logger scriptLogger = new Logger(LogLevel.ERROR);
+        scriptLogger.setWriter(new BufferedWriter(output, 1));
+        first = new ScriptExecutor("Script: first", 10, OverflowPolicy.BLOCK, scriptLogger);
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        first.execute(new Runnable() {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                recurse();
+            }
+
+            /** Recurse until the stack overflows. */
+            private void recurse() {
+                recurse();
+            }
+        });
+        first.execute(new Runnable() {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+
+        assertTrue("Worker stopped", ran.await(10, TimeUnit.SECONDS));
+        assertTrue(first.awaitIdle(10000));
+        assertTrue(output.toString().contains("Error in script call: java.lang.StackOverflowError"));
+    }
+
+    /**
+     * Check that shutting down stops the worker thread.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Test
+    public void testShutdownStopsWorker() throws InterruptedException {
+        first = new ScriptExecutor("Script: stopping", 10, OverflowPolicy.BLOCK, logger);
+        final CountDownLatch ran = new CountDownLatch(1);
+        first.execute(new Runnable() {
+            /** {@inheritDoc} */
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        first.shutdown();
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (findThread("Script: stopping") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull("Worker is still running", findThread("Script: stopping"));
+    }
+
+    /**
+     * Find a running thread by name.
+     *
+     * @param name Name of the thread.
+     * @return The thread, or null if there is none.
+     */
+    private static Thread findThread(final String name) {
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName()) && thread.isAlive()) { return thread; }
+        }
+        return null;
+    }
+
+    /**
+     * Have each script handle an event by sending several lines, each of
+     * which raises an event in the other script, and check that both finish
+     * handling their events.
+     *
+     * @param a First script's executor.
+     * @param b Second script's executor.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void assertConverses(final ScriptExecutor a, final ScriptExecutor b) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicInteger handled = new AtomicInteger();
+        a.execute(new Conversation(b, handled, done));
+        b.execute(new Conversation(a, handled, done));
+
+        assertTrue("Scripts deadlocked", done.await(10, TimeUnit.SECONDS));
+        assertTrue(a.awaitIdle(10000));
+        assertTrue(b.awaitIdle(10000));
+        assertTrue("Nothing was handled", handled.get() > 0);
+        assertEquals(2 * MESSAGES, handled.get() + a.getDroppedCount() + b.getDroppedCount());
+    }
+
+    /**
+     * A call that sends lines that cause events in another script.
+     */
+    private static class Conversation implements Runnable {
+        /** Executor of the other script. */
+        private final ScriptExecutor other;
+
+        /** Number of events the scripts have handled. */
+        private final AtomicInteger handled;
+
+        /** Counted down once we have sent everything. */
+        private final CountDownLatch done;
+
+        /**
+         * Create a new Conversation.
+         *
+         * @param other Executor of the other script.
+         * @param handled Number of events the scripts have handled.
+         * @param done Counted down once we have sent everything.
+         */
+        Conversation(final ScriptExecutor other, final AtomicInteger handled, final CountDownLatch done) {
+            this.other = other;
+            this.handled = handled;
+            this.done = done;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            for (int i = 0; i < MESSAGES; i++) {
+                other.execute(new Runnable() {
+                    /** {@inheritDoc} */
+                    @Override
+                    public void run() {
+                        handled.incrementAndGet();
+                        // Give the other script time to fill our queue.
+                        Thread.yield();
+                    }
+                });
+            }
+            done.countDown();
+        }
+    }
+}
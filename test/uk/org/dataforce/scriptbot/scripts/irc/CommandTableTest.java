@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.irc;
+
+import com.dmdirc.parser.interfaces.StringConverter;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import uk.org.dataforce.scriptbot.scripts.BoundMethod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyChar;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for CommandTable.
+ */
+public class CommandTableTest {
+    /** Converter using RFC1459 casemapping, where "{}|^" are "[]\~" in upper case. */
+    private StringConverter converter;
+
+    /** Bindings to build tables from. */
+    private final Map<String, BoundMethod> bindings = new HashMap<String, BoundMethod>();
+
+    /**
+     * Create the converter.
+     */
+    @Before
+    public void setUp() {
+        converter = mock(StringConverter.class);
+        when(converter.toLowerCase(anyChar())).thenAnswer(new Answer<Character>() {
+            /** {@inheritDoc} */
+            @Override
+            public Character answer(final InvocationOnMock invocation) {
+                final char c = (Character)invocation.getArguments()[0];
+                switch (c) {
+                    case '[': return '{';
+                    case ']': return '}';
+                    case '\\': return '|';
+                    case '~': return '^';
+                    default: return Character.toLowerCase(c);
+                }
+            }
+        });
+    }
+
+    /**
+     * Bind a command.
+     *
+     * @param command Command to bind.
+     * @return The method bound to it.
+     */
+    private BoundMethod bind(final String command) {
+        final BoundMethod method = new BoundMethod(null, command, "on" + command);
+        bindings.put(command, method);
+        return method;
+    }
+
+    /**
+     * Check that commands are found in part of a line, ignoring case.
+     */
+    @Test
+    public void testFind() {
+        final BoundMethod hello = bind("!hello");
+        bind("!help");
+        final CommandTable table = new CommandTable(bindings, converter);
+
+        final String line = "!HeLLo world";
+        final CommandTable.Entry entry = table.find(line, 0, 6);
+        assertSame(hello, entry.boundMethod);
+        assertEquals("!hello", entry.command);
+        assertEquals("command:!hello", entry.statsName);
+
+        assertSame(hello, table.find("say !hello", 4, 10).boundMethod);
+        assertNull(table.find(line, 0, 5));
+        assertNull(table.find("!hellx", 0, 6));
+        assertNull(table.find("!", 0, 1));
+        assertNull(table.find("!helloooooo", 0, 11));
+    }
+
+    /**
+     * Check that case is folded using the converter's casemapping.
+     */
+    @Test
+    public void testCasemapping() {
+        final BoundMethod method = bind("!{x}");
+        final CommandTable table = new CommandTable(bindings, converter);
+        assertSame(method, table.find("![X]", 0, 4).boundMethod);
+        assertSame(method, table.find("!{x}", 0, 4).boundMethod);
+        assertNull(table.find("!(x)", 0, 4));
+    }
+
+    /**
+     * Check that every command in a full table can be found, and that empty
+     * commands and empty tables are handled.
+     */
+    @Test
+    public void testManyCommands() {
+        bind("");
+        for (int i = 0; i < 500; i++) {
+            bind("!cmd" + i);
+        }
+        final CommandTable table = new CommandTable(bindings, converter);
+        for (int i = 0; i < 500; i++) {
+            final String command = "!CMD" + i;
+            assertSame(bindings.get("!cmd" + i), table.find(command, 0, command.length()).boundMethod);
+        }
+        assertNull(table.find("", 0, 0));
+        assertNull(table.find("!cmd500", 0, 7));
+
+        assertNull(new CommandTable(new HashMap<String, BoundMethod>(), converter).find("!cmd0", 0, 5));
+    }
+}
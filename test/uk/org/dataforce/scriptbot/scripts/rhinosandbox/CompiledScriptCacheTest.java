@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for CompiledScriptCache.
+ */
+public class CompiledScriptCacheTest {
+    /** Context to compile in. */
+    private Context cx;
+
+    /**
+     * Enter a context and empty the cache.
+     */
+    @Before
+    public void setUp() {
+        CompiledScriptCache.clear();
+        cx = Context.enter();
+    }
+
+    /**
+     * Leave the context and empty the cache.
+     */
+    @After
+    public void tearDown() {
+        Context.exit();
+        CompiledScriptCache.clear();
+    }
+
+    /**
+     * Check that a script is only compiled again when its hash or the
+     * compile settings change.
+     */
+    @Test
+    public void testKeyedOnHash() {
+        final File file = new File("cached.js");
+        final Script first = CompiledScriptCache.getScript(cx, file, "hash1", "var a = 1;");
+        assertSame(first, CompiledScriptCache.getScript(cx, file, "hash1", "var a = 1;"));
+
+        cx.setOptimizationLevel(-1);
+        final Script interpreted = CompiledScriptCache.getScript(cx, file, "hash1", "var a = 1;");
+        assertNotSame(first, interpreted);
+        assertEquals(2, CompiledScriptCache.size());
+
+        final Script other = CompiledScriptCache.getScript(cx, new File("other.js"), "hash1", "var a = 1;");
+        assertNotSame(interpreted, other);
+        assertEquals(3, CompiledScriptCache.size());
+    }
+
+    /**
+     * Check that compiling new contents for a file evicts its old contents,
+     * and that evicting a file leaves other files alone.
+     */
+    @Test
+    public void testEvict() {
+        final File file = new File("changing.js");
+        final File other = new File("other.js");
+        CompiledScriptCache.getScript(cx, file, "old", "var a = 1;");
+        cx.setOptimizationLevel(-1);
+        CompiledScriptCache.getScript(cx, file, "old", "var a = 1;");
+        CompiledScriptCache.getScript(cx, other, "old", "var a = 1;");
+        assertEquals(3, CompiledScriptCache.size());
+
+        final Script reloaded = CompiledScriptCache.getScript(cx, file, "new", "var a = 2;");
+        assertEquals(2, CompiledScriptCache.size());
+        assertSame(reloaded, CompiledScriptCache.getScript(cx, file, "new", "var a = 2;"));
+
+        CompiledScriptCache.evict(file, null);
+        assertEquals(1, CompiledScriptCache.size());
+        CompiledScriptCache.evict(other, null);
+        assertEquals(0, CompiledScriptCache.size());
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2006-2013 Shane Mc Cormack
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package uk.org.dataforce.scriptbot.scripts.rhinosandbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import javax.script.ScriptException;
+import org.junit.Test;
+import uk.org.dataforce.scriptbot.config.Config;
+import uk.org.dataforce.scriptbot.scripts.ScriptBudgetException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for RhinoScriptEngine.
+ */
+public class RhinoScriptEngineTest {
+
+    /**
+     * Object that lets one engine call a function in another, as happens
+     * when a script causes an event that another script handles.
+     */
+    public static class Caller {
+        /** Engine to call. */
+        private final RhinoScriptEngine engine;
+
+        /**
+         * Create a new Caller.
+         *
+         * @param engine Engine to call.
+         */
+        public Caller(final RhinoScriptEngine engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * Call the given function in our engine.
+         *
+         * @param name Function to call.
+         * @return Description of how the call ended.
+         */
+        public String call(final String name) {
+            try {
+                engine.invokeFunction(name);
+                return "finished";
+            } catch (final ScriptBudgetException sbe) {
+                return "over budget";
+            } catch (final Exception e) {
+                return "failed: " + e;
+            }
+        }
+    }
+
+    /**
+     * Create an engine with the given settings.
+     *
+     * @param name Name of the script file.
+     * @param instructionLimit Instruction limit, or 0 for none.
+     * @param optimizationLevel Optimization level to use.
+     * @return The engine.
+     * @throws Exception if the engine can not be created.
+     */
+    private static RhinoScriptEngine createEngine(final String name, final long instructionLimit, final int optimizationLevel) throws Exception {
+        final String config = "keysections:\n"
+                + "\trhino\n"
+                + "\n"
+                + "rhino:\n"
+                + "\tinstructionlimit=" + instructionLimit + "\n"
+                + "\toptimizationlevel=" + optimizationLevel + "\n"
+                + "\n"
+                + "rhino.goodClasses:\n"
+                + "\t" + Caller.class.getName() + "\n";
+        return new RhinoScriptEngine(new Config(new ByteArrayInputStream(config.getBytes(Charset.forName("UTF-8")))), new File(name));
+    }
+
+    /**
+     * Check that a script over its limit is stopped.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test(timeout = 10000)
+    public void testLimit() throws Exception {
+        final RhinoScriptEngine engine = createEngine("limited.js", 100000, 0);
+        engine.eval(new StringReader("function spin() { while (true) { } }"));
+        try {
+            engine.invokeFunction("spin");
+            fail("Script was not stopped");
+        } catch (final ScriptBudgetException sbe) {
+            assertTrue(sbe.getMessage().contains("100000"));
+        }
+    }
+
+    /**
+     * Check that per-script settings are found by the script's path within
+     * the scripts directory, not just its file name.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test(timeout = 10000)
+    public void testScriptSettingsByPath() throws Exception {
+        final String contents = "keysections:\n"
+                + "\trhino\n"
+                + "\trhino.script.games/trivia.js\n"
+                + "\n"
+                + "rhino:\n"
+                + "\tinstructionlimit=0\n"
+                + "\n"
+                + "rhino.script.games/trivia.js:\n"
+                + "\tinstructionlimit=100000\n";
+        final Config config = new Config(new ByteArrayInputStream(contents.getBytes(Charset.forName("UTF-8"))));
+        final String script = "function count() { for (var i = 0; i < 500000; i++) { } }";
+
+        final RhinoScriptEngine limited = new RhinoScriptEngine(config, new File("scripts/games/trivia.js"), "games/trivia.js");
+        limited.eval(new StringReader(script));
+        try {
+            limited.invokeFunction("count");
+            fail("Script settings were not used");
+        } catch (final ScriptBudgetException sbe) {
+            assertTrue(sbe.getMessage().contains("100000"));
+        }
+
+        final RhinoScriptEngine other = new RhinoScriptEngine(config, new File("scripts/quiz/trivia.js"), "quiz/trivia.js");
+        other.eval(new StringReader(script));
+        other.invokeFunction("count");
+    }
+
+    /**
+     * Check that a changed instruction limit applies from the next
+     * invocation, without recreating the engine.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test(timeout = 10000)
+    public void testLimitChange() throws Exception {
+        final String contents = "keysections:\n"
+                + "\trhino\n"
+                + "\n"
+                + "rhino:\n"
+                + "\tinstructionlimit=0\n";
+        final Config config = new Config(new ByteArrayInputStream(contents.getBytes(Charset.forName("UTF-8"))));
+        final RhinoScriptEngine engine = new RhinoScriptEngine(config, new File("changing.js"));
+        engine.eval(new StringReader("function count() { for (var i = 0; i < 500000; i++) { } }"));
+        engine.invokeFunction("count");
+
+        config.setOption("rhino", "instructionlimit", "100000");
+        try {
+            engine.invokeFunction("count");
+            fail("New limit was not used");
+        } catch (final ScriptBudgetException sbe) {
+            assertTrue(sbe.getMessage().contains("100000"));
+        }
+
+        config.setOption("rhino.script.changing.js", "instructionlimit", "0");
+        engine.invokeFunction("count");
+    }
+
+    /**
+     * Check that a limited script can not escape its limit by calling an
+     * unlimited script that never returns, at each optimization level.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test(timeout = 30000)
+    public void testNestedUnlimited() throws Exception {
+        for (int level = -1; level <= 9; level += 5) {
+            final RhinoScriptEngine inner = createEngine("unlimited" + level + ".js", 0, level);
+            inner.eval(new StringReader("function spin() { while (true) { } }"));
+
+            final RhinoScriptEngine outer = createEngine("limited" + level + ".js", 100000, level);
+            outer.put("caller", new Caller(inner));
+            outer.eval(new StringReader("function go() { caller.call('spin'); while (true) { } }"));
+            try {
+                outer.invokeFunction("go");
+                fail("Script was not stopped at optimization level " + level);
+            } catch (final ScriptBudgetException sbe) {
+                assertTrue(sbe.getMessage().contains("100000"));
+            }
+        }
+    }
+
+    /**
+     * Check that a nested call to a limited script is charged to the outer
+     * script's budget as well as its own.
+     *
+     * @throws Exception if the test fails to run.
+     */
+    @Test(timeout = 10000)
+    public void testNestedLimited() throws Exception {
+        final RhinoScriptEngine inner = createEngine("inner.js", 50000000, 0);
+        inner.eval(new StringReader("function spin() { for (var i = 0; i < 500000; i++) { } }"));
+
+        final RhinoScriptEngine outer = createEngine("outer.js", 100000, 0);
+        outer.put("caller", new Caller(inner));
+        outer.eval(new StringReader("function go() { return caller.call('spin'); }"));
+        try {
+            outer.invokeFunction("go");
+            fail("Nested call was not charged to the outer budget");
+        } catch (final ScriptBudgetException sbe) {
+            assertTrue(sbe.getMessage().contains("100000"));
+        }
+
+        assertEquals("finished", new Caller(inner).call("spin"));
+    }
+}